@@ -0,0 +1,99 @@
+-- Benchmark: plain table vs. TimescaleDB hypertable with compression for vehicle_positions.
+--
+-- Run against a scratch database that has the timescaledb extension (e.g. the compose "postgres" service):
+--   psql -U gtfsuser -d gtfs_realtime_db -v rows=5000000 -v vehicles=2000 -f scripts/benchmark_vehicle_positions.sql
+--
+-- Creates vp_bench_plain and vp_bench_hyper with the vehicle_positions schema, loads the same synthetic
+-- history into both (one position per vehicle every 10 s), compresses the hypertable chunks older than a day
+-- and prints storage size and timings of the repository queries. The tables are dropped at the end.
+
+\set ON_ERROR_STOP on
+\if :{?rows}
+\else
+    \set rows 5000000
+\endif
+\if :{?vehicles}
+\else
+    \set vehicles 2000
+\endif
+\timing off
+
+CREATE EXTENSION IF NOT EXISTS timescaledb;
+
+DROP TABLE IF EXISTS vp_bench_plain;
+DROP TABLE IF EXISTS vp_bench_hyper;
+
+CREATE TABLE vp_bench_plain (LIKE vehicle_positions INCLUDING DEFAULTS INCLUDING CONSTRAINTS);
+ALTER TABLE vp_bench_plain ADD PRIMARY KEY (id, timestamp);
+
+CREATE TABLE vp_bench_hyper (LIKE vehicle_positions INCLUDING DEFAULTS INCLUDING CONSTRAINTS);
+ALTER TABLE vp_bench_hyper ADD PRIMARY KEY (id, timestamp);
+SELECT create_hypertable('vp_bench_hyper', 'timestamp', chunk_time_interval => INTERVAL '1 day');
+
+-- Synthetic history ending now
+INSERT INTO vp_bench_plain (id, feed_id, vehicle_id, agency_id, route_id, trip_id, direction_id, start_date, start_time,
+                            current_stop_id, current_stop_status, latitude, longitude, vehicle_label, license_plate,
+                            occupancy_status, timestamp)
+SELECT g,
+       'feed-' || (g % 3),
+       'vehicle-' || (g % :vehicles),
+       'agency-' || (g % 5),
+       'route-' || (g % :vehicles % 150),
+       'trip-' || (g % :vehicles) || '-' || (g / (:vehicles * 360)),
+       (g % 2)::int,
+       '20250101',
+       '08:00:00',
+       'stop-' || (g % 4000),
+       (g % 3)::int,
+       50.0 + ((g % :vehicles) * 0.0001) + random() * 0.01,
+       19.9 + ((g % :vehicles) * 0.0001) + random() * 0.01,
+       'label-' || (g % :vehicles),
+       'KR' || (g % :vehicles),
+       (g % 7)::int,
+       now() - ((:rows - g) / :vehicles) * INTERVAL '10 seconds'
+FROM generate_series(1, :rows) AS g;
+
+INSERT INTO vp_bench_hyper SELECT * FROM vp_bench_plain;
+
+CREATE INDEX ON vp_bench_plain (vehicle_id, timestamp DESC);
+CREATE INDEX ON vp_bench_hyper (vehicle_id, timestamp DESC);
+ANALYZE vp_bench_plain;
+ANALYZE vp_bench_hyper;
+
+\echo '=== Storage before compression ==='
+SELECT 'plain' AS layout, pg_size_pretty(pg_total_relation_size('vp_bench_plain')) AS total_size
+UNION ALL
+SELECT 'hypertable', pg_size_pretty(hypertable_size('vp_bench_hyper'));
+
+ALTER TABLE vp_bench_hyper SET (
+    timescaledb.compress,
+    timescaledb.compress_segmentby = 'vehicle_id',
+    timescaledb.compress_orderby = 'timestamp DESC'
+);
+SELECT count(compress_chunk(c, if_not_compressed => true)) AS compressed_chunks
+FROM show_chunks('vp_bench_hyper', older_than => INTERVAL '1 day') AS c;
+ANALYZE vp_bench_hyper;
+
+\echo '=== Storage after compressing chunks older than 1 day ==='
+SELECT 'plain' AS layout, pg_size_pretty(pg_total_relation_size('vp_bench_plain')) AS total_size
+UNION ALL
+SELECT 'hypertable (compressed)', pg_size_pretty(hypertable_size('vp_bench_hyper'));
+
+\echo '=== findByVidAndTAfterOrderByTDesc: last hour of one vehicle ==='
+EXPLAIN (ANALYZE, BUFFERS, SUMMARY) SELECT * FROM vp_bench_plain
+WHERE vehicle_id = 'vehicle-42' AND timestamp > now() - INTERVAL '1 hour' ORDER BY timestamp DESC;
+EXPLAIN (ANALYZE, BUFFERS, SUMMARY) SELECT * FROM vp_bench_hyper
+WHERE vehicle_id = 'vehicle-42' AND timestamp > now() - INTERVAL '1 hour' ORDER BY timestamp DESC;
+
+\echo '=== One vehicle over the whole history (hits compressed chunks) ==='
+EXPLAIN (ANALYZE, BUFFERS, SUMMARY) SELECT count(*) FROM vp_bench_plain WHERE vehicle_id = 'vehicle-42';
+EXPLAIN (ANALYZE, BUFFERS, SUMMARY) SELECT count(*) FROM vp_bench_hyper WHERE vehicle_id = 'vehicle-42';
+
+\echo '=== Fleet-wide positions in a 15 minute window ==='
+EXPLAIN (ANALYZE, BUFFERS, SUMMARY) SELECT count(*) FROM vp_bench_plain
+WHERE timestamp BETWEEN now() - INTERVAL '2 hours' AND now() - INTERVAL '105 minutes';
+EXPLAIN (ANALYZE, BUFFERS, SUMMARY) SELECT count(*) FROM vp_bench_hyper
+WHERE timestamp BETWEEN now() - INTERVAL '2 hours' AND now() - INTERVAL '105 minutes';
+
+DROP TABLE vp_bench_plain;
+DROP TABLE vp_bench_hyper;
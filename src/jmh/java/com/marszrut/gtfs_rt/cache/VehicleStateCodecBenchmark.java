@@ -0,0 +1,78 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost of the cached vehicle state codecs.
+ * Bytes per entry are printed once per trial. Run with {@code ./gradlew jmh -PjmhIncludes=VehicleStateCodec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VehicleStateCodecBenchmark {
+
+    @Param({"JSON", "FEED_ENTITY", "COMPACT"})
+    public String format;
+
+    private VehicleStateCodec codec;
+    private VehiclePosition position;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        VPConverter converter = new VPConverter();
+        codec = switch (format) {
+            case "JSON" -> new JsonVehicleStateCodec(converter);
+            case "FEED_ENTITY" -> new FeedEntityVehicleStateCodec(converter);
+            case "COMPACT" -> new CompactVehicleStateCodec(converter);
+            default -> throw new IllegalArgumentException(format);
+        };
+        position = VehiclePosition.builder()
+            .vid("MPK-KR-2147")
+            .fid("krakow-mpk")
+            .aid("MPK")
+            .rid("52")
+            .tid("block_118_trip_7_service_3")
+            .did(1)
+            .sd("20260114")
+            .st("07:42:00")
+            .sid("stop_1289_301")
+            .ss(1)
+            .vl("HR-217")
+            .lp("KR 2147A")
+            .os(1)
+            .lat(50.0646501)
+            .lon(19.9449799)
+            .t(Instant.parse("2026-01-14T07:58:31Z"))
+            .build();
+        encoded = codec.encode(position);
+        System.out.printf("%n%s: %d bytes per entry%n", format, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(position);
+    }
+
+    @Benchmark
+    public VehiclePosition decode() {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] toFeedEntity() {
+        return codec.toFeedEntity(encoded);
+    }
+}
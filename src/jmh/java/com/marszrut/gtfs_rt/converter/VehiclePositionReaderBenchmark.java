@@ -0,0 +1,141 @@
+package com.marszrut.gtfs_rt.converter;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.util.InternCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-entity cost of decoding vp-proto records: FeedEntity.parseFrom + {@link VPConverter#mapFromFeedEntity}
+ * versus {@link VehiclePositionReader} + {@link VPConverter#mapFromState}, and the reader alone (fields into the
+ * reused state, no VehiclePosition). Cycles through 1000 vehicles of one feed/agency; the FeedMessage variants
+ * decode batches of {@value #BATCH} entities and report per entity.
+ * Run with {@code ./gradlew jmh -PjmhIncludes=VehiclePositionReader} and add {@code -prof gc}
+ * (jmh.profilers) to see the allocation per entity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VehiclePositionReaderBenchmark {
+
+    private static final int VEHICLES = 1000;
+    private static final int BATCH = 100;
+
+    private final VPConverter converter = new VPConverter();
+    private final VehiclePositionReader reader = new VehiclePositionReader(new InternCache(65536));
+    private byte[][] entities;
+    private byte[][] feedMessages;
+    private int next;
+    private int nextMessage;
+
+    @Setup
+    public void setUp() {
+        entities = new byte[VEHICLES][];
+        GtfsRealtime.FeedMessage.Builder message = null;
+        feedMessages = new byte[VEHICLES / BATCH][];
+        for (int i = 0; i < VEHICLES; i++) {
+            GtfsRealtime.FeedEntity entity = GtfsRealtime.FeedEntity.newBuilder()
+                .setId("MPK-KR-" + i)
+                .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                    .setTrip(GtfsRealtime.TripDescriptor.newBuilder()
+                        .setTripId("block_118_trip_" + (i % 200) + "_service_3")
+                        .setRouteId(String.valueOf(i % 60))
+                        .setDirectionId(i % 2)
+                        .setStartDate("20260114")
+                        .setStartTime("07:42:00")
+                        .setScheduleRelationship(GtfsRealtime.TripDescriptor.ScheduleRelationship.SCHEDULED)
+                        .build())
+                    .setPosition(GtfsRealtime.Position.newBuilder()
+                        .setLatitude(50.0646501f + i * 0.0001f)
+                        .setLongitude(19.9449799f + i * 0.0001f)
+                        .setBearing(180.0f)
+                        .setSpeed(8.5f)
+                        .build())
+                    .setTimestamp(1_768_377_511L + i)
+                    .setStopId("stop_" + (i % 400))
+                    .setCurrentStatus(GtfsRealtime.VehiclePosition.VehicleStopStatus.IN_TRANSIT_TO)
+                    .setCongestionLevel(GtfsRealtime.VehiclePosition.CongestionLevel.RUNNING_SMOOTHLY)
+                    .setOccupancyStatus(GtfsRealtime.VehiclePosition.OccupancyStatus.MANY_SEATS_AVAILABLE)
+                    .build())
+                .build();
+            entities[i] = entity.toByteArray();
+
+            if (i % BATCH == 0) {
+                message = GtfsRealtime.FeedMessage.newBuilder()
+                    .setHeader(GtfsRealtime.FeedHeader.newBuilder()
+                        .setGtfsRealtimeVersion("2.0")
+                        .setIncrementality(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL)
+                        .setTimestamp(1_768_377_511L)
+                        .build());
+            }
+            message.addEntity(entity);
+            if (i % BATCH == BATCH - 1) {
+                feedMessages[i / BATCH] = message.build().toByteArray();
+            }
+        }
+    }
+
+    @Benchmark
+    public VehiclePosition parseFrom() throws InvalidProtocolBufferException {
+        return converter.mapFromFeedEntity(GtfsRealtime.FeedEntity.parseFrom(nextEntity()), "krakow-mpk", "MPK");
+    }
+
+    @Benchmark
+    public VehiclePosition reader() throws InvalidProtocolBufferException {
+        reader.reset(nextEntity(), false);
+        reader.next();
+        return converter.mapFromState(reader.state(), "krakow-mpk", "MPK");
+    }
+
+    @Benchmark
+    public void readerStateOnly(Blackhole blackhole) throws InvalidProtocolBufferException {
+        reader.reset(nextEntity(), false);
+        reader.next();
+        VehiclePositionState state = reader.state();
+        blackhole.consume(state.entityId());
+        blackhole.consume(state.tripId());
+        blackhole.consume(state.latitude());
+        blackhole.consume(state.longitude());
+        blackhole.consume(state.timestamp());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void parseFromFeedMessage(Blackhole blackhole) throws InvalidProtocolBufferException {
+        for (GtfsRealtime.FeedEntity entity : GtfsRealtime.FeedMessage.parseFrom(nextFeedMessage()).getEntityList()) {
+            blackhole.consume(converter.mapFromFeedEntity(entity, "krakow-mpk", "MPK"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void readerFeedMessage(Blackhole blackhole) throws InvalidProtocolBufferException {
+        reader.reset(nextFeedMessage(), true);
+        while (reader.next()) {
+            blackhole.consume(converter.mapFromState(reader.state(), "krakow-mpk", "MPK"));
+        }
+    }
+
+    private byte[] nextEntity() {
+        byte[] entity = entities[next];
+        next = next + 1 == VEHICLES ? 0 : next + 1;
+        return entity;
+    }
+
+    private byte[] nextFeedMessage() {
+        byte[] message = feedMessages[nextMessage];
+        nextMessage = nextMessage + 1 == feedMessages.length ? 0 : nextMessage + 1;
+        return message;
+    }
+}
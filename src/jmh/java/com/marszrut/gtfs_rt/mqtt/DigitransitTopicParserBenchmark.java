@@ -0,0 +1,69 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of extracting the topic IDs and building the Kafka headers, with String.split and fresh
+ * header bytes versus {@link DigitransitTopicParser}. Cycles through 1000 vehicles of one feed/agency.
+ * Run with {@code ./gradlew jmh -PjmhIncludes=DigitransitTopicParser} and add {@code -prof gc}
+ * (jmh.profilers) to see the allocation per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DigitransitTopicParserBenchmark {
+
+    private static final int VEHICLES = 1000;
+
+    private final DigitransitTopicParser parser = new DigitransitTopicParser(65536);
+    private String[] topics;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        topics = new String[VEHICLES];
+        for (int i = 0; i < VEHICLES; i++) {
+            topics[i] = "/gtfsrt/vp/krakow-mpk/MPK/MPK/BUS/52/1/Czerwone Maki P+R/block_118_trip_7/stop_1289_301/"
+                + "07:42:00/MPK-KR-" + i + "/50/0/6/4/6/52/3/#FF0000";
+        }
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) {
+        String topic = nextTopic();
+        String[] parts = topic.split("/");
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("feedId", parts[3].getBytes(StandardCharsets.UTF_8))
+            .add("agencyId", parts[4].getBytes(StandardCharsets.UTF_8));
+        blackhole.consume(parts[13]);
+        blackhole.consume(headers);
+    }
+
+    @Benchmark
+    public void parser(Blackhole blackhole) {
+        DigitransitTopic topic = parser.parse(nextTopic());
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("feedId", topic.feedId().utf8())
+            .add("agencyId", topic.agencyId().utf8());
+        blackhole.consume(topic.vehicleId());
+        blackhole.consume(headers);
+    }
+
+    private String nextTopic() {
+        String topic = topics[next];
+        next = next + 1 == VEHICLES ? 0 : next + 1;
+        return topic;
+    }
+}
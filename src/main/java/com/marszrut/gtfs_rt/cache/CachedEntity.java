@@ -0,0 +1,10 @@
+package com.marszrut.gtfs_rt.cache;
+
+/**
+ * A cached vehicle as GTFS-RT FeedEntity wire bytes, together with its Redis key.
+ *
+ * @param key Redis key of the vehicle
+ * @param entity encoded FeedEntity
+ */
+public record CachedEntity(String key, byte[] entity) {
+}
@@ -0,0 +1,245 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Hand-rolled binary layout for cached vehicle state, well under half the size of the polymorphic JSON.
+ * <pre>
+ * byte    format version (1)
+ * varint  presence bitmask, one bit per nullable field in the order below
+ * string  vehicle id, feed id, agency id, route id, trip id
+ * fixed32 latitude, longitude in 1e-7 degrees (~1 cm)
+ * varlong timestamp, epoch millis (zigzag)
+ * varint  direction id, stop status, occupancy status
+ * string  start date, start time, stop id, label, license plate
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8. The JPA id is not stored.
+ * Values are self-contained (no shared dictionary) so any instance can read what another one wrote.
+ */
+public class CompactVehicleStateCodec implements VehicleStateCodec {
+
+    private static final byte VERSION = 1;
+    private static final double COORDINATE_SCALE = 1e7;
+
+    private static final int VID = 1;
+    private static final int FID = 1 << 1;
+    private static final int AID = 1 << 2;
+    private static final int RID = 1 << 3;
+    private static final int TID = 1 << 4;
+    private static final int LAT = 1 << 5;
+    private static final int LON = 1 << 6;
+    private static final int TIMESTAMP = 1 << 7;
+    private static final int DID = 1 << 8;
+    private static final int OS = 1 << 9;
+    private static final int SD = 1 << 10;
+    private static final int ST = 1 << 11;
+    private static final int SID = 1 << 12;
+    private static final int VL = 1 << 13;
+    private static final int LP = 1 << 14;
+
+    private final VPConverter converter;
+
+    public CompactVehicleStateCodec(VPConverter converter) {
+        this.converter = converter;
+    }
+
+    @Override
+    public byte[] encode(VehiclePosition vp) {
+        int presence = (vp.getVid() != null ? VID : 0)
+            | (vp.getFid() != null ? FID : 0)
+            | (vp.getAid() != null ? AID : 0)
+            | (vp.getRid() != null ? RID : 0)
+            | (vp.getTid() != null ? TID : 0)
+            | (vp.getLat() != null ? LAT : 0)
+            | (vp.getLon() != null ? LON : 0)
+            | (vp.getT() != null ? TIMESTAMP : 0)
+            | (vp.getDid() != null ? DID : 0)
+            | (vp.getOs() != null ? OS : 0)
+            | (vp.getSd() != null ? SD : 0)
+            | (vp.getSt() != null ? ST : 0)
+            | (vp.getSid() != null ? SID : 0)
+            | (vp.getVl() != null ? VL : 0)
+            | (vp.getLp() != null ? LP : 0);
+
+        Writer out = new Writer();
+        out.writeByte(VERSION);
+        out.writeVarint(presence);
+        out.writeString(vp.getVid());
+        out.writeString(vp.getFid());
+        out.writeString(vp.getAid());
+        out.writeString(vp.getRid());
+        out.writeString(vp.getTid());
+        if (vp.getLat() != null) {
+            out.writeFixed32((int) Math.round(vp.getLat() * COORDINATE_SCALE));
+        }
+        if (vp.getLon() != null) {
+            out.writeFixed32((int) Math.round(vp.getLon() * COORDINATE_SCALE));
+        }
+        if (vp.getT() != null) {
+            long millis = vp.getT().toEpochMilli();
+            out.writeVarlong((millis << 1) ^ (millis >> 63));
+        }
+        if (vp.getDid() != null) {
+            out.writeVarint(vp.getDid());
+        }
+        out.writeVarint(vp.getSs());
+        if (vp.getOs() != null) {
+            out.writeVarint(vp.getOs());
+        }
+        out.writeString(vp.getSd());
+        out.writeString(vp.getSt());
+        out.writeString(vp.getSid());
+        out.writeString(vp.getVl());
+        out.writeString(vp.getLp());
+        return out.toByteArray();
+    }
+
+    @Override
+    public VehiclePosition decode(byte[] data) {
+        if (data == null || data.length == 0 || data[0] != VERSION) {
+            throw new SerializationException("Cached value is not in the compact vehicle state format");
+        }
+        try {
+            Reader in = new Reader(data, 1);
+            int presence = in.readVarint();
+            VehiclePosition.VehiclePositionBuilder builder = VehiclePosition.builder()
+                .vid(in.readString(presence, VID))
+                .fid(in.readString(presence, FID))
+                .aid(in.readString(presence, AID))
+                .rid(in.readString(presence, RID))
+                .tid(in.readString(presence, TID));
+            if ((presence & LAT) != 0) {
+                builder.lat(in.readFixed32() / COORDINATE_SCALE);
+            }
+            if ((presence & LON) != 0) {
+                builder.lon(in.readFixed32() / COORDINATE_SCALE);
+            }
+            if ((presence & TIMESTAMP) != 0) {
+                long zigzag = in.readVarlong();
+                builder.t(Instant.ofEpochMilli((zigzag >>> 1) ^ -(zigzag & 1)));
+            }
+            if ((presence & DID) != 0) {
+                builder.did(in.readVarint());
+            }
+            builder.ss(in.readVarint());
+            if ((presence & OS) != 0) {
+                builder.os(in.readVarint());
+            }
+            return builder
+                .sd(in.readString(presence, SD))
+                .st(in.readString(presence, ST))
+                .sid(in.readString(presence, SID))
+                .vl(in.readString(presence, VL))
+                .lp(in.readString(presence, LP))
+                .build();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated compact vehicle state", e);
+        }
+    }
+
+    @Override
+    public byte[] toFeedEntity(byte[] data) {
+        return converter.entityToFeedEntity(decode(data)).toByteArray();
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[96];
+        private int position;
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeFixed32(int value) {
+            ensure(4);
+            buffer[position++] = (byte) value;
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) (value >>> 16);
+            buffer[position++] = (byte) (value >>> 24);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int bytes) {
+            if (position + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int readVarint() {
+            return (int) readVarlong();
+        }
+
+        long readVarlong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new SerializationException("Malformed varint in compact vehicle state");
+        }
+
+        int readFixed32() {
+            return (data[position++] & 0xFF)
+                | (data[position++] & 0xFF) << 8
+                | (data[position++] & 0xFF) << 16
+                | (data[position++] & 0xFF) << 24;
+        }
+
+        String readString(int presence, int flag) {
+            if ((presence & flag) == 0) {
+                return null;
+            }
+            int length = readVarint();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
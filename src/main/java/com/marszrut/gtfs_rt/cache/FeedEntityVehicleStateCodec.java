@@ -0,0 +1,40 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * Stores the canonical GTFS-RT FeedEntity wire bytes of each vehicle.
+ * Feed builds append the stored value as-is, with no JSON parsing and no protobuf builders.
+ * Feed and agency IDs are not part of the entity; they are carried by the Redis membership indexes.
+ */
+public class FeedEntityVehicleStateCodec implements VehicleStateCodec {
+
+    private final VPConverter converter;
+
+    public FeedEntityVehicleStateCodec(VPConverter converter) {
+        this.converter = converter;
+    }
+
+    @Override
+    public byte[] encode(VehiclePosition vp) {
+        return converter.entityToFeedEntity(vp).toByteArray();
+    }
+
+    @Override
+    public VehiclePosition decode(byte[] data) {
+        try {
+            return converter.mapFromFeedEntity(GtfsRealtime.FeedEntity.parseFrom(data), null, null);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SerializationException("Cached value is not a valid FeedEntity", e);
+        }
+    }
+
+    @Override
+    public byte[] toFeedEntity(byte[] data) {
+        return data;
+    }
+}
@@ -0,0 +1,34 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * Polymorphic JSON via {@link RedisSerializer#json()}.
+ * Wire-compatible with entries written before the codec was pluggable.
+ */
+public class JsonVehicleStateCodec implements VehicleStateCodec {
+
+    private final RedisSerializer<Object> serializer = RedisSerializer.json();
+    private final VPConverter converter;
+
+    public JsonVehicleStateCodec(VPConverter converter) {
+        this.converter = converter;
+    }
+
+    @Override
+    public byte[] encode(VehiclePosition vp) {
+        return serializer.serialize(vp);
+    }
+
+    @Override
+    public VehiclePosition decode(byte[] data) {
+        return (VehiclePosition) serializer.deserialize(data);
+    }
+
+    @Override
+    public byte[] toFeedEntity(byte[] data) {
+        return converter.entityToFeedEntity(decode(data)).toByteArray();
+    }
+}
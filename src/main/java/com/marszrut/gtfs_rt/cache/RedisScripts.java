@@ -0,0 +1,49 @@
+package com.marszrut.gtfs_rt.cache;
+
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Script cache handling shared by the cache layouts.
+ * Scripts are invoked by SHA (EVALSHA) so pipelines do not carry the Lua source; when Redis answers
+ * NOSCRIPT (restart, failover, new cluster node) the caller loads the script and repeats the calls.
+ */
+final class RedisScripts {
+
+    private RedisScripts() {
+    }
+
+    /**
+     * Loads a script into the Redis script cache, so its SHA1 can be invoked again.
+     *
+     * @param stringRedisTemplate template of the connection that reported NOSCRIPT
+     * @param script script to load
+     */
+    static void load(StringRedisTemplate stringRedisTemplate, RedisScript<?> script) {
+        stringRedisTemplate.execute((RedisCallback<String>) connection ->
+            connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * True if the failure, or any failed command of a pipeline, is a NOSCRIPT error.
+     */
+    static boolean isNoScript(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+            if (cause instanceof RedisPipelineException pipeline) {
+                for (Object result : pipeline.getPipelineResult()) {
+                    if (result instanceof Throwable failed && failed != cause && isNoScript(failed)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
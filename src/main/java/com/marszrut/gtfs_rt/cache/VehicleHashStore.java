@@ -0,0 +1,241 @@
+package com.marszrut.gtfs_rt.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash storage layout of {@link VehiclePositionCache} (gtfs.feed.cache.layout=HASH).
+ * All vehicles of one feed/agency pair live in a single Redis hash with the vehicle ID as field,
+ * so a filtered feed is one HGETALL instead of one value read per vehicle, and small hashes use the
+ * compact listpack encoding instead of a key with its own TTL per vehicle.
+ * Hash fields cannot expire on their own, so every value is prefixed with its expiry time as 13 ASCII
+ * digits of epoch millis: reads skip expired fields and the sweeper deletes them server-side.
+ *
+ * Keys:
+ * - "vph:{feedId:agencyId}" - vehicle hash of one feed/agency pair, see {@link VehicleKeys}
+ * - "vphreg:all", "vphreg:f:{feedId}", "vphreg:a:{agencyId}" - vehicle hashes per scope, used by
+ *   reads that span several hashes and by the sweeper
+ */
+final class VehicleHashStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehicleHashStore.class);
+
+    static final String REGISTRY_PREFIX = "vphreg:";
+    static final int EXPIRY_DIGITS = 13;
+
+    /**
+     * Deletes every field of hash KEYS[1] whose expiry prefix is not after ARGV[1].
+     * Redis drops the hash itself once its last field is gone.
+     * Invoked by SHA (EVALSHA); loaded into the script cache again when Redis answers NOSCRIPT.
+     */
+    static final RedisScript<Long> SWEEP_SCRIPT = new DefaultRedisScript<>(
+        "local now = tonumber(ARGV[1]) "
+            + "local entries = redis.call('HGETALL', KEYS[1]) "
+            + "local removed = 0 "
+            + "for i = 1, #entries, 2 do "
+            + "  if tonumber(string.sub(entries[i + 1], 1, " + EXPIRY_DIGITS + ")) <= now then "
+            + "    redis.call('HDEL', KEYS[1], entries[i]) "
+            + "    removed = removed + 1 "
+            + "  end "
+            + "end "
+            + "return removed",
+        Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    VehicleHashStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * Queues the writes of one vehicle on a pipelined connection.
+     *
+     * @param connection pipelined connection
+     * @param hashKey hash of the vehicle's feed/agency pair
+     * @param vehicleId hash field
+     * @param value encoded vehicle state
+     * @param expiresAt expiry time in epoch millis
+     */
+    void write(RedisConnection connection, String hashKey, String vehicleId, byte[] value, long expiresAt) {
+        connection.hashCommands().hSet(bytes(hashKey), bytes(vehicleId), withExpiry(expiresAt, value));
+    }
+
+    /**
+     * Queues the registration of a hash in the scope registries on a pipelined connection.
+     *
+     * @param connection pipelined connection
+     * @param hashKey hash of a feed/agency pair
+     * @param scopes scopes the hash belongs to, see {@link VehiclePositionCache}
+     */
+    void register(RedisConnection connection, String hashKey, Collection<String> scopes) {
+        for (String scope : scopes) {
+            connection.setCommands().sAdd(bytes(REGISTRY_PREFIX + scope), bytes(hashKey));
+        }
+    }
+
+    /**
+     * Reads all live vehicles of one feed/agency pair with a single HGETALL.
+     *
+     * @param hashKey hash of the feed/agency pair
+     * @return stored values without the expiry prefix, keyed by vehicle key and ordered by it
+     */
+    List<CachedEntity> readHash(String hashKey) {
+        Map<byte[], byte[]> entries = stringRedisTemplate.execute(
+            (RedisCallback<Map<byte[], byte[]>>) connection -> connection.hashCommands().hGetAll(bytes(hashKey)));
+
+        List<CachedEntity> values = new ArrayList<>();
+        collectLive(hashKey, entries, System.currentTimeMillis(), values);
+        values.sort((a, b) -> a.key().compareTo(b.key()));
+        return values;
+    }
+
+    /**
+     * Reads all live vehicles of every hash registered for a scope: one SMEMBERS, then one pipelined
+     * HGETALL per hash. Hashes that no longer exist are removed from the registry.
+     *
+     * @param scope scope of the read, see {@link VehiclePositionCache}
+     * @return stored values without the expiry prefix, keyed by vehicle key and ordered by it
+     */
+    List<CachedEntity> readScope(String scope) {
+        String registryKey = REGISTRY_PREFIX + scope;
+        Set<String> members = stringRedisTemplate.opsForSet().members(registryKey);
+
+        List<CachedEntity> values = new ArrayList<>();
+        if (members == null || members.isEmpty()) {
+            return values;
+        }
+
+        List<String> hashKeys = new ArrayList<>(members);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String hashKey : hashKeys) {
+                connection.hashCommands().hGetAll(bytes(hashKey));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+
+        long now = System.currentTimeMillis();
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < hashKeys.size(); i++) {
+            Map<?, ?> entries = (Map<?, ?>) results.get(i);
+            if (entries == null || entries.isEmpty()) {
+                missing.add(hashKeys.get(i));
+            } else {
+                collectLive(hashKeys.get(i), entries, now, values);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            // Every vehicle of the hash expired; the next write to it registers it again
+            stringRedisTemplate.opsForSet().remove(registryKey, missing.toArray());
+        }
+
+        values.sort((a, b) -> a.key().compareTo(b.key()));
+        return values;
+    }
+
+    /**
+     * Deletes expired fields from every registered hash, one script call per hash in a single pipeline.
+     * If the script is missing from the Redis script cache it is loaded and the sweep is repeated;
+     * hashes already swept have nothing left to delete.
+     *
+     * @param now current time in epoch millis
+     * @return number of deleted fields
+     */
+    long sweep(long now) {
+        Set<String> hashKeys = stringRedisTemplate.opsForSet().members(REGISTRY_PREFIX + VehiclePositionCache.SCOPE_ALL);
+        if (hashKeys == null || hashKeys.isEmpty()) {
+            return 0;
+        }
+
+        List<Object> removed;
+        try {
+            removed = sweepPipelined(hashKeys, now);
+        } catch (DataAccessException e) {
+            if (!RedisScripts.isNoScript(e)) {
+                throw e;
+            }
+            logger.info("Sweep script not in the Redis script cache, loading it");
+            RedisScripts.load(stringRedisTemplate, SWEEP_SCRIPT);
+            removed = sweepPipelined(hashKeys, now);
+        }
+
+        return removed.stream().mapToLong(r -> r instanceof Long count ? count : 0L).sum();
+    }
+
+    private List<Object> sweepPipelined(Set<String> hashKeys, long now) {
+        byte[] nowArg = bytes(Long.toString(now));
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String hashKey : hashKeys) {
+                connection.scriptingCommands().evalSha(SWEEP_SCRIPT.getSha1(), ReturnType.INTEGER, 1, bytes(hashKey), nowArg);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Prefixes an encoded value with its expiry time as fixed-width ASCII digits.
+     */
+    static byte[] withExpiry(long expiresAt, byte[] value) {
+        byte[] prefix = bytes(String.format("%0" + EXPIRY_DIGITS + "d", expiresAt));
+        byte[] stored = Arrays.copyOf(prefix, EXPIRY_DIGITS + value.length);
+        System.arraycopy(value, 0, stored, EXPIRY_DIGITS, value.length);
+        return stored;
+    }
+
+    /**
+     * Expiry time of a stored value in epoch millis, or 0 if the value has no valid prefix.
+     */
+    static long expiresAt(byte[] stored) {
+        if (stored.length < EXPIRY_DIGITS) {
+            return 0L;
+        }
+        long expiresAt = 0L;
+        for (int i = 0; i < EXPIRY_DIGITS; i++) {
+            int digit = stored[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return 0L;
+            }
+            expiresAt = expiresAt * 10 + digit;
+        }
+        return expiresAt;
+    }
+
+    /**
+     * Encoded vehicle state of a stored value, without the expiry prefix.
+     */
+    static byte[] payload(byte[] stored) {
+        return Arrays.copyOfRange(stored, EXPIRY_DIGITS, stored.length);
+    }
+
+    private static void collectLive(String hashKey, Map<?, ?> entries, long now, List<CachedEntity> values) {
+        if (entries == null) {
+            return;
+        }
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            if (entry.getKey() instanceof byte[] field && entry.getValue() instanceof byte[] stored
+                    && expiresAt(stored) > now) {
+                values.add(new CachedEntity(VehicleKeys.vehicleKeyOfHashField(hashKey, new String(field, StandardCharsets.UTF_8)), payload(stored)));
+            }
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,95 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+
+/**
+ * The single Redis key scheme for cached vehicles, shared by every reader and writer.
+ * Keys of one feed/agency pair carry the Redis Cluster hash tag "{feedId:agencyId}", so a vehicle's value,
+ * the pair's index, watermark and vehicle hash all live in the same slot and a pair can be read from one node.
+ * Missing IDs are empty: "{feed_1:}" for a vehicle without agency.
+ *
+ * Keys:
+ * - "vp:{feedId:agencyId}:{vehicleId}" - vehicle value (KEYS layout) and vehicle identity in feeds and events
+ * - "vph:{feedId:agencyId}" - vehicle hash (HASH layout)
+ */
+public final class VehicleKeys {
+
+    public static final String VEHICLE_PREFIX = "vp:";
+    static final String HASH_PREFIX = "vph:";
+
+    private VehicleKeys() {
+    }
+
+    /**
+     * Key identifying a vehicle, built from its feed, agency and vehicle IDs.
+     *
+     * @param vp vehicle position
+     * @return vehicle key
+     */
+    public static String vehicleKey(VehiclePosition vp) {
+        return vehicleKey(vp.getFid(), vp.getAid(), vp.getVid());
+    }
+
+    /**
+     * Key identifying a vehicle.
+     *
+     * @param feedId feed ID, may be null
+     * @param agencyId agency ID, may be null
+     * @param vehicleId vehicle ID
+     * @return vehicle key
+     */
+    public static String vehicleKey(String feedId, String agencyId, String vehicleId) {
+        return VEHICLE_PREFIX + tag(feedId, agencyId) + ":" + vehicleId;
+    }
+
+    /**
+     * Feed ID of a vehicle key, the part of the hash tag before the separator.
+     *
+     * @param vehicleKey key built by {@link #vehicleKey(String, String, String)}
+     * @return feed ID, or null when the key has none
+     */
+    public static String feedIdOf(String vehicleKey) {
+        int open = vehicleKey.indexOf('{');
+        String feedId = vehicleKey.substring(open + 1, tagSeparator(vehicleKey));
+        return feedId.isEmpty() ? null : feedId;
+    }
+
+    /**
+     * Agency ID of a vehicle key, the part of the hash tag after the separator.
+     *
+     * @param vehicleKey key built by {@link #vehicleKey(String, String, String)}
+     * @return agency ID, or null when the key has none
+     */
+    public static String agencyIdOf(String vehicleKey) {
+        String agencyId = vehicleKey.substring(tagSeparator(vehicleKey) + 1, vehicleKey.indexOf('}'));
+        return agencyId.isEmpty() ? null : agencyId;
+    }
+
+    /**
+     * Hash holding the vehicles of a feed/agency pair in the HASH layout.
+     */
+    static String hashKey(String feedId, String agencyId) {
+        return HASH_PREFIX + tag(feedId, agencyId);
+    }
+
+    /**
+     * Vehicle key of a field of a vehicle hash.
+     */
+    static String vehicleKeyOfHashField(String hashKey, String vehicleId) {
+        return VEHICLE_PREFIX + hashKey.substring(HASH_PREFIX.length()) + ":" + vehicleId;
+    }
+
+    /**
+     * Position of the ':' between feed and agency; agency IDs are assumed not to contain ':'.
+     */
+    private static int tagSeparator(String vehicleKey) {
+        return vehicleKey.lastIndexOf(':', vehicleKey.indexOf('}'));
+    }
+
+    /**
+     * Cluster hash tag of a feed/agency pair.
+     */
+    static String tag(String feedId, String agencyId) {
+        return "{" + (feedId != null ? feedId : "") + ":" + (agencyId != null ? agencyId : "") + "}";
+    }
+}
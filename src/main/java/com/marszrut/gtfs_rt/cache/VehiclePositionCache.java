@@ -0,0 +1,466 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Redis-backed cache of the latest vehicle positions.
+ * Vehicles are stored under the key scheme of {@link VehicleKeys} with the TTL gtfs.feed.cache.entry-ttl-seconds,
+ * whichever path wrote them, so a vehicle exists exactly once.
+ * Besides the per-vehicle value keys it maintains one sorted-set membership index per feed/agency pair,
+ * scored by the entry's expiry time in epoch millis, so feed builds read only the matching vehicles instead
+ * of walking the keyspace with KEYS. Feed, agency and global reads resolve the matching pair indexes through
+ * a registry of index keys that is written once per batch, so every per-vehicle write stays in the slot of
+ * its pair instead of also funnelling through unpartitioned scope indexes.
+ * Values are encoded with the configured {@link VehicleStateCodec}.
+ * Every write also raises monotonic last-write watermarks (epoch millis) for the global view and for
+ * the vehicle's feed, agency and feed/agency pair, so "has anything changed" is a single GET.
+ * After each write a {@link VehiclePositionUpdatedEvent} is published for in-process consumers
+ * (push stream, spatial index).
+ *
+ * Index keys:
+ * - "vpidx:fa:{feedId:agencyId}" - vehicle keys of one agency within one feed, missing IDs left empty
+ * - "vpidx:keys" - registry of the pair index keys, used by wider reads and by the sweeper
+ * - "vpwm:all", "vpwm:f:{feedId}", "vpwm:a:{agencyId}", "vpwm:fa:{feedId:agencyId}" - watermarks
+ * The braces of "{feedId:agencyId}" are literal (the pair's cluster hash tag), other braces mark placeholders.
+ *
+ * Every command touches a single key or keys of one cluster slot, so the cache runs unchanged on Redis Cluster.
+ *
+ * With gtfs.feed.cache.layout=HASH the value keys and membership indexes are replaced by one hash per
+ * feed/agency pair, see {@link VehicleHashStore}. Vehicle keys, watermarks and events are the same in both layouts.
+ */
+@Component
+public class VehiclePositionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehiclePositionCache.class);
+
+    static final String INDEX_PREFIX = "vpidx:";
+    static final String INDEX_REGISTRY = "vpidx:keys";
+    static final String WATERMARK_PREFIX = "vpwm:";
+    static final String SCOPE_ALL = "all";
+
+    /**
+     * Raises the watermark KEYS[1] to ARGV[1] unless it is already higher.
+     * Invoked by SHA (EVALSHA); loaded into the script cache again when Redis answers NOSCRIPT.
+     */
+    static final RedisScript<Long> RAISE_WATERMARK_SCRIPT = new DefaultRedisScript<>(
+        "local current = tonumber(redis.call('GET', KEYS[1]) or '0') "
+            + "if tonumber(ARGV[1]) > current then redis.call('SET', KEYS[1], ARGV[1]) end "
+            + "return 0",
+        Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final VehicleStateCodec codec;
+    private final int readBatchSize;
+    private final ApplicationEventPublisher eventPublisher;
+    private final VehicleHashStore hashStore;
+    private final Duration entryTtl;
+
+    public VehiclePositionCache(StringRedisTemplate stringRedisTemplate,
+                                VehicleStateCodec codec,
+                                @Value("${gtfs.feed.cache.read-batch-size:500}") int readBatchSize,
+                                @Value("${gtfs.feed.cache.layout:KEYS}") String layout,
+                                @Value("${gtfs.feed.cache.entry-ttl-seconds:60}") long entryTtlSeconds,
+                                ApplicationEventPublisher eventPublisher) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.codec = codec;
+        this.readBatchSize = readBatchSize;
+        this.entryTtl = Duration.ofSeconds(entryTtlSeconds);
+        this.eventPublisher = eventPublisher;
+        this.hashStore = switch (layout.toUpperCase()) {
+            case "KEYS" -> null;
+            case "HASH" -> new VehicleHashStore(stringRedisTemplate);
+            default -> throw new IllegalArgumentException("Unsupported gtfs.feed.cache.layout: " + layout);
+        };
+    }
+
+    /**
+     * Stores a vehicle position, registers it in the membership indexes and raises the watermarks,
+     * in one pipelined round trip. The vehicle is stored under {@link VehicleKeys#vehicleKey(VehiclePosition)}.
+     *
+     * @param vp vehicle position to cache
+     */
+    public void put(VehiclePosition vp) {
+        putAll(List.of(vp));
+    }
+
+    /**
+     * Stores a batch of vehicle positions in one pipelined round trip.
+     * The batch is first coalesced by vehicle key, keeping only the newest position (by vehicle timestamp,
+     * later entries winning ties) per vehicle, and the watermarks are raised once for all touched scopes.
+     *
+     * @param positions vehicle positions in arrival order
+     * @return number of vehicles written after coalescing
+     */
+    public int putAll(Collection<VehiclePosition> positions) {
+        Map<String, VehiclePosition> newest = new LinkedHashMap<>();
+        for (VehiclePosition vp : positions) {
+            newest.merge(VehicleKeys.vehicleKey(vp), vp, (current, candidate) ->
+                current.getT() != null && candidate.getT() != null && candidate.getT().isBefore(current.getT())
+                    ? current : candidate);
+        }
+        if (newest.isEmpty()) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        double expiresAt = now + entryTtl.toMillis();
+        Expiration expiration = Expiration.from(entryTtl);
+
+        Set<String> touchedScopes = new LinkedHashSet<>();
+        List<byte[][]> writes = new ArrayList<>(newest.size());
+        List<List<String>> writeScopes = new ArrayList<>(newest.size());
+        for (Map.Entry<String, VehiclePosition> entry : newest.entrySet()) {
+            writes.add(new byte[][] {bytes(entry.getKey()), codec.encode(entry.getValue())});
+            List<String> scopes = scopesOf(entry.getValue());
+            writeScopes.add(scopes);
+            touchedScopes.addAll(scopes);
+        }
+
+        if (hashStore != null) {
+            writeHashes(newest, writes, writeScopes, now + entryTtl.toMillis(), touchedScopes, now);
+        } else {
+            List<String> indexKeys = newest.values().stream().map(vp -> pairIndex(vp.getFid(), vp.getAid())).toList();
+            pipelineWithWatermarks(connection -> {
+                for (int i = 0; i < writes.size(); i++) {
+                    byte[] rawKey = writes.get(i)[0];
+                    connection.stringCommands().set(rawKey, writes.get(i)[1], expiration, RedisStringCommands.SetOption.upsert());
+                    connection.zSetCommands().zAdd(bytes(indexKeys.get(i)), expiresAt, rawKey);
+                }
+                connection.setCommands().sAdd(bytes(INDEX_REGISTRY),
+                    new LinkedHashSet<>(indexKeys).stream().map(VehiclePositionCache::bytes).toArray(byte[][]::new));
+            }, touchedScopes, now);
+        }
+
+        newest.forEach((key, vp) -> eventPublisher.publishEvent(new VehiclePositionUpdatedEvent(key, vp, entryTtl)));
+        return newest.size();
+    }
+
+    /**
+     * Hash layout part of {@link #putAll}: one HSET per vehicle and one registration per touched hash,
+     * pipelined together with the watermark update.
+     */
+    private void writeHashes(Map<String, VehiclePosition> newest, List<byte[][]> writes, List<List<String>> writeScopes,
+                             long expiresAt, Set<String> touchedScopes, long now) {
+        pipelineWithWatermarks(connection -> {
+            Map<String, List<String>> registered = new LinkedHashMap<>();
+            int i = 0;
+            for (VehiclePosition vp : newest.values()) {
+                String hashKey = VehicleKeys.hashKey(vp.getFid(), vp.getAid());
+                hashStore.write(connection, hashKey, vp.getVid(), writes.get(i)[1], expiresAt);
+                // Pair reads address the hash directly, only the wider scopes need a registry
+                registered.putIfAbsent(hashKey, writeScopes.get(i).stream().filter(s -> !s.startsWith("fa:")).toList());
+                i++;
+            }
+            registered.forEach((hashKey, scopes) -> hashStore.register(connection, hashKey, scopes));
+        }, touchedScopes, now);
+    }
+
+    /**
+     * Runs the write commands and the watermark updates in one pipeline.
+     * If the watermark script is missing from the Redis script cache (restart, failover, new cluster node),
+     * the other commands have still been applied; the script is loaded and only the watermarks are raised again.
+     */
+    private void pipelineWithWatermarks(Consumer<RedisConnection> writes, Set<String> scopes, long now) {
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                writes.accept(connection);
+                raiseWatermarks(connection, scopes, now);
+                return null;
+            });
+        } catch (DataAccessException e) {
+            if (!RedisScripts.isNoScript(e)) {
+                throw e;
+            }
+            logger.info("Watermark script not in the Redis script cache, loading it");
+            RedisScripts.load(stringRedisTemplate, RAISE_WATERMARK_SCRIPT);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                raiseWatermarks(connection, scopes, now);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Queues one watermark script call per scope, sending only the script's SHA1.
+     * The watermarks of different scopes hash to different cluster slots, so they are not passed
+     * to a single multi-key call.
+     */
+    private static void raiseWatermarks(RedisConnection connection, Set<String> scopes, long now) {
+        byte[] timestamp = bytes(Long.toString(now));
+        for (String scope : scopes) {
+            connection.scriptingCommands().evalSha(RAISE_WATERMARK_SCRIPT.getSha1(), ReturnType.INTEGER, 1,
+                bytes(WATERMARK_PREFIX + scope), timestamp);
+        }
+    }
+
+    /**
+     * Reads all live vehicles matching the filters as FeedEntity wire bytes, ordered by Redis key.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @return matching vehicles
+     */
+    public List<CachedEntity> findEntities(String feedId, String agencyId) {
+        List<CachedEntity> raw = read(feedId, agencyId);
+        List<CachedEntity> entities = new ArrayList<>(raw.size());
+
+        for (CachedEntity value : raw) {
+            try {
+                entities.add(new CachedEntity(value.key(), codec.toFeedEntity(value.entity())));
+            } catch (Exception e) {
+                logger.error("Failed to decode cached vehicle {}: {}", value.key(), e.getMessage());
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Reads the last-write watermark for the filters with a single GET.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @return epoch millis of the most recent write in scope, or 0 if nothing has been written
+     */
+    public long getWatermark(String feedId, String agencyId) {
+        String key = WATERMARK_PREFIX + scope(feedId, agencyId);
+        String value = stringRedisTemplate.opsForValue().get(key);
+        return value != null ? Long.parseLong(value) : 0L;
+    }
+
+    /**
+     * Removes expired vehicles from every pair index, or from every vehicle hash in the hash layout.
+     * Registered indexes left empty are dropped from the registry, so feed/agency pairs that stopped
+     * reporting are no longer swept or read. The check is not atomic with writers: an index that gains a vehicle
+     * right after being found empty is registered again by that write.
+     */
+    @Scheduled(fixedDelayString = "${gtfs.feed.cache.index-sweep-interval-ms:10000}")
+    public void sweepExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            if (hashStore != null) {
+                long removed = hashStore.sweep(now);
+                if (removed > 0) {
+                    logger.debug("Removed {} expired vehicles from the vehicle hashes", removed);
+                }
+                return;
+            }
+
+            Set<String> registered = stringRedisTemplate.opsForSet().members(INDEX_REGISTRY);
+            if (registered == null || registered.isEmpty()) {
+                return;
+            }
+            List<String> indexKeys = new ArrayList<>(registered);
+
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String indexKey : indexKeys) {
+                    connection.zSetCommands().zRemRangeByScore(bytes(indexKey), Double.NEGATIVE_INFINITY, now);
+                    connection.zSetCommands().zCard(bytes(indexKey));
+                }
+                return null;
+            });
+
+            long total = 0;
+            List<String> emptyIndexes = new ArrayList<>();
+            for (int i = 0; i < indexKeys.size(); i++) {
+                if (results.get(2 * i) instanceof Long count) {
+                    total += count;
+                }
+                if (results.get(2 * i + 1) instanceof Long size && size == 0) {
+                    emptyIndexes.add(indexKeys.get(i));
+                }
+            }
+            if (!emptyIndexes.isEmpty()) {
+                stringRedisTemplate.opsForSet().remove(INDEX_REGISTRY, emptyIndexes.toArray());
+            }
+            if (total > 0 || !emptyIndexes.isEmpty()) {
+                logger.debug("Removed {} expired vehicle entries from {} indexes, unregistered {} empty indexes",
+                            total, indexKeys.size(), emptyIndexes.size());
+            }
+        } catch (Exception e) {
+            logger.error("Failed to sweep expired vehicle index entries: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the raw stored values of all live vehicles matching the filters in the configured layout.
+     * In the hash layout a feed/agency pair is a single HGETALL.
+     */
+    private List<CachedEntity> read(String feedId, String agencyId) {
+        String scope = scope(feedId, agencyId);
+        if (hashStore == null) {
+            return readValues(scope.startsWith("fa:") ? List.of(pairIndex(feedId, agencyId)) : registeredIndexes(feedId, agencyId));
+        }
+        return scope.startsWith("fa:")
+            ? hashStore.readHash(VehicleKeys.hashKey(feedId, agencyId))
+            : hashStore.readScope(scope);
+    }
+
+    /**
+     * Pair indexes registered for the feed or agency filter, or all of them for an unfiltered read.
+     * The feed and agency of an index are taken from its pair hash tag. Registry entries of other
+     * index kinds, written by earlier versions, are only swept until they are empty.
+     */
+    private List<String> registeredIndexes(String feedId, String agencyId) {
+        Set<String> registered = stringRedisTemplate.opsForSet().members(INDEX_REGISTRY);
+        if (registered == null) {
+            return List.of();
+        }
+        return registered.stream()
+            .filter(indexKey -> indexKey.startsWith(INDEX_PREFIX + "fa:"))
+            .filter(indexKey -> feedId == null || feedId.isEmpty() || feedId.equals(VehicleKeys.feedIdOf(indexKey)))
+            .filter(indexKey -> agencyId == null || agencyId.isEmpty() || agencyId.equals(VehicleKeys.agencyIdOf(indexKey)))
+            .toList();
+    }
+
+    /**
+     * Reads the raw stored values of all live members of the given pair indexes: the live members of every
+     * index in one pipeline, then the values with pipelined, chunked MGETs.
+     * Keys are grouped by cluster slot first, so every MGET stays within one slot; keys of one feed/agency
+     * pair share a slot, so a pair read is usually a single MGET per chunk.
+     * Members whose value already expired are removed from their index.
+     */
+    private List<CachedEntity> readValues(List<String> indexKeys) {
+        List<CachedEntity> values = new ArrayList<>();
+        if (indexKeys.isEmpty()) {
+            return values;
+        }
+
+        double now = System.currentTimeMillis();
+        List<Object> memberSets = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String indexKey : indexKeys) {
+                connection.zSetCommands().zRangeByScore(bytes(indexKey), now, Double.POSITIVE_INFINITY);
+            }
+            return null;
+        });
+
+        Map<String, String> indexOfMember = new LinkedHashMap<>();
+        for (int i = 0; i < indexKeys.size(); i++) {
+            if (memberSets.get(i) instanceof Collection<?> members) {
+                for (Object member : members) {
+                    indexOfMember.put((String) member, indexKeys.get(i));
+                }
+            }
+        }
+        if (indexOfMember.isEmpty()) {
+            return values;
+        }
+
+        Map<Integer, List<String>> keysBySlot = new TreeMap<>();
+        for (String key : indexOfMember.keySet()) {
+            keysBySlot.computeIfAbsent(ClusterSlotHashUtil.calculateSlot(key), slot -> new ArrayList<>()).add(key);
+        }
+        List<List<String>> chunks = new ArrayList<>();
+        for (List<String> slotKeys : keysBySlot.values()) {
+            for (int from = 0; from < slotKeys.size(); from += readBatchSize) {
+                chunks.add(slotKeys.subList(from, Math.min(from + readBatchSize, slotKeys.size())));
+            }
+        }
+
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (List<String> chunk : chunks) {
+                connection.stringCommands().mGet(chunk.stream().map(VehiclePositionCache::bytes).toArray(byte[][]::new));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+
+        Map<String, List<String>> missing = new LinkedHashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            List<String> chunk = chunks.get(i);
+            List<?> chunkValues = (List<?>) results.get(i);
+            for (int j = 0; j < chunk.size(); j++) {
+                if (chunkValues.get(j) instanceof byte[] data) {
+                    values.add(new CachedEntity(chunk.get(j), data));
+                } else {
+                    missing.computeIfAbsent(indexOfMember.get(chunk.get(j)), k -> new ArrayList<>()).add(chunk.get(j));
+                }
+            }
+        }
+        values.sort((a, b) -> a.key().compareTo(b.key()));
+
+        // Value expired before the sweeper got to its index entry
+        missing.forEach((indexKey, keys) -> stringRedisTemplate.opsForZSet().remove(indexKey, keys.toArray()));
+
+        return values;
+    }
+
+    /**
+     * Membership index of a feed/agency pair; it carries the pair's cluster hash tag, also when an ID is missing.
+     */
+    private static String pairIndex(String feedId, String agencyId) {
+        return INDEX_PREFIX + "fa:" + VehicleKeys.tag(feedId, agencyId);
+    }
+
+    /**
+     * Scope suffix shared by index and watermark keys: "all", "f:{feedId}", "a:{agencyId}" or "fa:{feedId:agencyId}",
+     * the latter carrying the pair's cluster hash tag.
+     */
+    private static String scope(String feedId, String agencyId) {
+        boolean hasFeed = feedId != null && !feedId.isEmpty();
+        boolean hasAgency = agencyId != null && !agencyId.isEmpty();
+
+        if (hasFeed && hasAgency) {
+            return "fa:" + VehicleKeys.tag(feedId, agencyId);
+        }
+        if (hasAgency) {
+            return "a:" + agencyId;
+        }
+        if (hasFeed) {
+            return "f:" + feedId;
+        }
+        return SCOPE_ALL;
+    }
+
+    /**
+     * All scopes a vehicle belongs to, from the global view down to its feed/agency pair.
+     */
+    private static List<String> scopesOf(VehiclePosition vp) {
+        boolean hasFeed = vp.getFid() != null && !vp.getFid().isEmpty();
+        boolean hasAgency = vp.getAid() != null && !vp.getAid().isEmpty();
+
+        List<String> scopes = new ArrayList<>(4);
+        scopes.add(SCOPE_ALL);
+        if (hasFeed) {
+            scopes.add(scope(vp.getFid(), null));
+        }
+        if (hasAgency) {
+            scopes.add(scope(null, vp.getAid()));
+        }
+        if (hasFeed && hasAgency) {
+            scopes.add(scope(vp.getFid(), vp.getAid()));
+        }
+        return scopes;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+
+import java.time.Duration;
+
+/**
+ * Published by {@link VehiclePositionCache} after a vehicle position has been written to Redis.
+ * Listeners run synchronously on the writing thread and must not block.
+ *
+ * @param key Redis key of the vehicle
+ * @param vehiclePosition the cached vehicle position
+ * @param ttl time-to-live of the cache entry
+ */
+public record VehiclePositionUpdatedEvent(String key, VehiclePosition vehiclePosition, Duration ttl) {
+}
@@ -0,0 +1,25 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+
+/**
+ * Encodes cached vehicle state stored in Redis.
+ * Selected with gtfs.feed.cache.value-format, see {@link com.marszrut.gtfs_rt.config.RedisConfig}.
+ */
+public interface VehicleStateCodec {
+
+    /**
+     * Encodes a vehicle position into the value stored in Redis.
+     */
+    byte[] encode(VehiclePosition vp);
+
+    /**
+     * Decodes a stored value back into a vehicle position.
+     */
+    VehiclePosition decode(byte[] data);
+
+    /**
+     * Returns the stored value as GTFS-RT FeedEntity wire bytes, ready to be appended to a FeedMessage.
+     */
+    byte[] toFeedEntity(byte[] data);
+}
@@ -2,6 +2,8 @@ package com.marszrut.gtfs_rt.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.retry.SlowPathRetryTopology;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
@@ -13,9 +15,12 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaOperations;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.listener.ContainerProperties;
@@ -25,13 +30,20 @@ import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JacksonJsonSerializer;
 import org.springframework.util.backoff.FixedBackOff;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import org.apache.kafka.common.TopicPartition;
 
 /**
  * Kafka configuration for consuming GTFS-RT messages.
  * Includes protobuf producer for MQTT integration.
+ * Slow-path (history) failures are not retried in place: they are moved to the tiered retry topics of
+ * {@link SlowPathRetryTopology} so the main listeners keep consuming. Fast-path failures get a short
+ * blocking retry before the fast-path DLQ, since a late position is superseded by the next one anyway.
  */
 @Configuration
 @EnableKafka
@@ -43,16 +55,27 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.group-id}")
     private String groupId;
 
-    @Value("${kafka.topics.vehicle-positions.slow-path-dlq}")
-    private String slowPathDlqTopic;
-
     @Value("${kafka.topics.vehicle-positions.fast-path-dlq}")
     private String fastPathDlqTopic;
 
+    @Value("${kafka.consumer.fast-path.max-poll-records:500}")
+    private int fastPathMaxPollRecords;
+
+    @Value("${kafka.consumer.slow-path.max-poll-records:2000}")
+    private int slowPathMaxPollRecords;
+
+    @Value("${kafka.producer.proto.linger-ms:5}")
+    private int protoLingerMs;
+
+    @Value("${kafka.producer.proto.batch-size:65536}")
+    private int protoBatchSize;
+
     private final ObjectMapper objectMapper;
+    private final SlowPathRetryTopology slowPathRetryTopology;
 
-    public KafkaConfig(ObjectMapper objectMapper) {
+    public KafkaConfig(ObjectMapper objectMapper, SlowPathRetryTopology slowPathRetryTopology) {
         this.objectMapper = objectMapper;
+        this.slowPathRetryTopology = slowPathRetryTopology;
     }
 
     /**
@@ -76,12 +99,12 @@ public class KafkaConfig {
     }
 
     /**
-     * Creates the slow-path Kafka listener container factory for domain objects.
-     * Dedicated factory for slow-path consumers with database persistence.
-     * Routes failures to slow-path specific DLQ.
+     * Creates the default Kafka listener container factory for domain objects, used by listeners that
+     * name no factory (the DLQ monitors). Replaces Boot's auto-configured one.
+     * Routes failures to fast-path specific DLQ.
      */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> slowPathKafkaListenerContainerFactory(
+    public ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> kafkaListenerContainerFactory(
             KafkaTemplate<String, Object> kafkaTemplate) {
         ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
@@ -90,11 +113,11 @@ public class KafkaConfig {
         // Enable manual acknowledgment mode
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
 
-        // Configure DLQ specific to slow-path (DB persistence failures)
+        // Configure DLQ for fast-path processing
         DefaultErrorHandler errorHandler = new DefaultErrorHandler(
                 new DeadLetterPublishingRecoverer(kafkaTemplate,
-                    (record, ex) -> new TopicPartition(slowPathDlqTopic, -1)),
-                new FixedBackOff(5000L, 3L) // 3 retries with 5s between each
+                    (record, ex) -> new TopicPartition(fastPathDlqTopic, -1)),
+                new FixedBackOff(1000L, 2L) // 2 retries with 1s between each
         );
         factory.setCommonErrorHandler(errorHandler);
 
@@ -102,21 +125,20 @@ public class KafkaConfig {
     }
 
     /**
-     * Creates the default/fast-path Kafka listener container factory for domain objects.
-     * Used for in-memory processing and fast operations.
-     * Routes failures to fast-path specific DLQ.
+     * Creates the batch fast-path Kafka listener container factory for domain objects.
+     * Listeners receive a whole poll (up to kafka.consumer.fast-path.max-poll-records) and acknowledge it once.
+     * A failing batch is retried as a whole, then its records are routed to the fast-path DLQ.
      */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> kafkaListenerContainerFactory(
+    public ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> batchKafkaListenerContainerFactory(
             KafkaTemplate<String, Object> kafkaTemplate) {
         ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(vehiclePositionConsumerFactory());
-
-        // Enable manual acknowledgment mode
+        factory.setBatchListener(true);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setKafkaConsumerProperties(fastPathConsumerProperties());
 
-        // Configure DLQ for fast-path processing
         DefaultErrorHandler errorHandler = new DefaultErrorHandler(
                 new DeadLetterPublishingRecoverer(kafkaTemplate,
                     (record, ex) -> new TopicPartition(fastPathDlqTopic, -1)),
@@ -127,6 +149,50 @@ public class KafkaConfig {
         return factory;
     }
 
+    /**
+     * Creates the batch slow-path Kafka listener container factory for domain objects.
+     * Listeners persist a whole poll (up to kafka.consumer.slow-path.max-poll-records) in one transaction
+     * and acknowledge it after commit. The records of a failing batch are moved to the first retry tier at once.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> slowPathBatchKafkaListenerContainerFactory(
+            KafkaTemplate<String, Object> kafkaTemplate) {
+        ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(vehiclePositionConsumerFactory());
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setKafkaConsumerProperties(maxPollRecords(slowPathMaxPollRecords));
+        factory.setCommonErrorHandler(slowPathErrorHandler(kafkaTemplate));
+
+        return factory;
+    }
+
+    /**
+     * Error handler for slow-path factories: no in-place retries, failed records are published to the
+     * next retry tier (or the DLQ after the last one) and the partition moves on.
+     * Protobuf records are republished as raw bytes, domain objects as JSON.
+     */
+    private DefaultErrorHandler slowPathErrorHandler(KafkaTemplate<String, Object> kafkaTemplate) {
+        Map<Class<?>, KafkaOperations<?, ?>> templates = new LinkedHashMap<>();
+        templates.put(byte[].class, protoKafkaTemplate());
+        templates.put(Object.class, kafkaTemplate);
+        return new DefaultErrorHandler(slowPathRetryTopology.recoverer(templates), new FixedBackOff(0L, 0L));
+    }
+
+    /**
+     * Overrides applied on top of the consumer factory for batch fast-path listeners.
+     */
+    private Properties fastPathConsumerProperties() {
+        return maxPollRecords(fastPathMaxPollRecords);
+    }
+
+    private static Properties maxPollRecords(int maxPollRecords) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(maxPollRecords));
+        return properties;
+    }
+
     /**
      * Creates a Kafka consumer factory for byte arrays.
      * Used by legacy listeners that need raw message bytes.
@@ -204,6 +270,7 @@ public class KafkaConfig {
     /**
      * Kafka producer for protobuf messages (MQTT → Kafka).
      * Sends raw protobuf bytes to vp-proto topic.
+     * A short linger lets the bridge workers' sends share produce requests at high ingress rates.
      */
     @Bean
     public ProducerFactory<String, byte[]> protoProducerFactory() {
@@ -213,6 +280,8 @@ public class KafkaConfig {
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
         props.put(ProducerConfig.ACKS_CONFIG, "1");
         props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "snappy");
+        props.put(ProducerConfig.LINGER_MS_CONFIG, protoLingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, protoBatchSize);
         return new DefaultKafkaProducerFactory<>(props);
     }
 
@@ -235,23 +304,69 @@ public class KafkaConfig {
         return new DefaultKafkaConsumerFactory<>(props);
     }
 
-    @Bean("protoKafkaListenerContainerFactory")
-    public ConcurrentKafkaListenerContainerFactory<String, byte[]> protoKafkaListenerContainerFactory(
+    /**
+     * Protobuf listener factory for the fast path.
+     * Listeners receive a whole poll (up to kafka.consumer.fast-path.max-poll-records) and acknowledge it once.
+     */
+    @Bean("protoBatchKafkaListenerContainerFactory")
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> protoBatchKafkaListenerContainerFactory(
             KafkaTemplate<String, Object> kafkaTemplate) {
         ConcurrentKafkaListenerContainerFactory<String, byte[]> factory =
             new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(protoConsumerFactory());
+        factory.setBatchListener(true);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setKafkaConsumerProperties(fastPathConsumerProperties());
 
-        // Configure error handler with retry logic
-        // Will retry 3 times with 5 seconds between attempts, then send to DLQ
+        // Whole batch is retried, then its records go to the fast-path DLQ
         DefaultErrorHandler errorHandler = new DefaultErrorHandler(
             new DeadLetterPublishingRecoverer(kafkaTemplate,
-                (record, ex) -> new TopicPartition(slowPathDlqTopic, -1)),
-            new FixedBackOff(5000L, 3L)
+                (record, ex) -> new TopicPartition(fastPathDlqTopic, -1)),
+            new FixedBackOff(1000L, 2L)
         );
         factory.setCommonErrorHandler(errorHandler);
 
         return factory;
     }
+
+    /**
+     * Protobuf listener factory for the slow path (history persistence).
+     * Listeners persist a whole poll in one transaction and acknowledge it after commit.
+     * The records of a failing batch are moved to the first retry tier at once.
+     */
+    @Bean("protoSlowPathBatchKafkaListenerContainerFactory")
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> protoSlowPathBatchKafkaListenerContainerFactory(
+            KafkaTemplate<String, Object> kafkaTemplate) {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory =
+            new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(protoConsumerFactory());
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setKafkaConsumerProperties(maxPollRecords(slowPathMaxPollRecords));
+        factory.setCommonErrorHandler(slowPathErrorHandler(kafkaTemplate));
+
+        return factory;
+    }
+
+    /**
+     * Retry tier topics of both slow-path topics, created by KafkaAdmin at startup so that routing a
+     * failed record never depends on broker-side topic auto-creation.
+     */
+    @Bean
+    public KafkaAdmin.NewTopics slowPathRetryTopics(
+            @Value("${kafka.topics.vehicle-positions}") String jsonTopic,
+            @Value("${kafka.topics.vehicle-positions-proto}") String protoTopic,
+            @Value("${kafka.retry.slow-path.topic-partitions:3}") int partitions,
+            @Value("${kafka.retry.slow-path.topic-replicas:1}") int replicas) {
+        List<NewTopic> topics = new ArrayList<>();
+        for (int tier = 1; tier <= slowPathRetryTopology.tiers(); tier++) {
+            for (String originTopic : List.of(protoTopic, jsonTopic)) {
+                topics.add(TopicBuilder.name(slowPathRetryTopology.retryTopic(originTopic, tier))
+                    .partitions(partitions)
+                    .replicas(replicas)
+                    .build());
+            }
+        }
+        return new KafkaAdmin.NewTopics(topics.toArray(NewTopic[]::new));
+    }
 }
@@ -2,6 +2,7 @@ package com.marszrut.gtfs_rt.config;
 
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.channel.DirectChannel;
@@ -31,6 +32,9 @@ public class MqttConfig {
     @Value("${mqtt.qos:1}")
     private int qos;
 
+    @Value("${mqtt.inbound.topic:/gtfsrt/vp/#}")
+    private String inboundTopic;
+
     @Bean
     public MqttPahoClientFactory mqttClientFactory() {
         DefaultMqttPahoClientFactory factory = new DefaultMqttPahoClientFactory();
@@ -56,12 +60,17 @@ public class MqttConfig {
         return new DirectChannel();
     }
 
+    /**
+     * Single MQTT v3 client receiving every vehicle message (mqtt.inbound.mode=V3, the default).
+     * With mqtt.inbound.mode=V5 the {@link com.marszrut.gtfs_rt.mqtt.SharedSubscriptionInbound} connections are used instead.
+     */
     @Bean
+    @ConditionalOnProperty(name = "mqtt.inbound.mode", havingValue = "V3", matchIfMissing = true)
     public MqttPahoMessageDrivenChannelAdapter mqttInbound() {
         MqttPahoMessageDrivenChannelAdapter adapter = new MqttPahoMessageDrivenChannelAdapter(
             clientId + "-" + System.currentTimeMillis(),
             mqttClientFactory(),
-            "/gtfsrt/vp/#"
+            inboundTopic
         );
 
         adapter.setQos(qos);
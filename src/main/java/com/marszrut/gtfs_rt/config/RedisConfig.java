@@ -1,57 +1,39 @@
 package com.marszrut.gtfs_rt.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.cache.CompactVehicleStateCodec;
+import com.marszrut.gtfs_rt.cache.FeedEntityVehicleStateCodec;
+import com.marszrut.gtfs_rt.cache.JsonVehicleStateCodec;
+import com.marszrut.gtfs_rt.cache.VehicleStateCodec;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.RedisSerializer;
-import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 /**
  * Configuration for Redis.
- * Sets up the RedisTemplate with appropriate serializers for keys and values.
+ * Selects the codec for cached vehicle state; cache access goes through the auto-configured StringRedisTemplate.
  */
 @Configuration
 public class RedisConfig {
 
     /**
-     * Creates a RedisTemplate for VehiclePosition objects.
-     * Uses String keys and JSON serialization for values.
+     * Creates the codec used for cached vehicle state values.
+     * - JSON: polymorphic JSON, readable with redis-cli (default)
+     * - FEED_ENTITY: canonical GTFS-RT FeedEntity wire bytes, appended to feeds without re-encoding
+     * - COMPACT: fixed binary layout keeping every domain field, smallest values and cheapest decode
      *
-     * @param connectionFactory the Redis connection factory
-     * @return configured RedisTemplate
+     * @param valueFormat configured value format
+     * @param converter converter between domain objects and GTFS-RT protobuf
+     * @return codec for the configured format
      */
     @Bean
-    public RedisTemplate<String, VehiclePosition> vehiclePositionRedisTemplate(
-            RedisConnectionFactory connectionFactory) {
-
-        RedisTemplate<String, VehiclePosition> template = new RedisTemplate<>();
-        template.setConnectionFactory(connectionFactory);
-
-        // Use StringRedisSerializer for keys
-        StringRedisSerializer stringSerializer = new StringRedisSerializer();
-        template.setKeySerializer(stringSerializer);
-
-        // Create ObjectMapper with JavaTimeModule for Instant serialization
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-
-        // Use RedisSerializer.json() for values (stores as JSON)
-        // This is the recommended approach in Spring Data Redis 4.0+
-        // Create a custom JSON serializer using the ObjectMapper
-        RedisSerializer<Object> jsonSerializer = RedisSerializer.json();
-        template.setValueSerializer(jsonSerializer);
-
-        // Set the same serializers for hash operations
-        template.setHashKeySerializer(stringSerializer);
-        template.setHashValueSerializer(jsonSerializer);
-
-        // Enable transaction support
-        template.setEnableTransactionSupport(true);
-
-        return template;
+    public VehicleStateCodec vehicleStateCodec(@Value("${gtfs.feed.cache.value-format:JSON}") String valueFormat,
+                                               VPConverter converter) {
+        return switch (valueFormat) {
+            case "JSON" -> new JsonVehicleStateCodec(converter);
+            case "FEED_ENTITY" -> new FeedEntityVehicleStateCodec(converter);
+            case "COMPACT" -> new CompactVehicleStateCodec(converter);
+            default -> throw new IllegalArgumentException("Unsupported gtfs.feed.cache.value-format: " + valueFormat);
+        };
     }
 }
@@ -0,0 +1,12 @@
+package com.marszrut.gtfs_rt.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables scheduled background tasks (feed snapshot refresh, cache maintenance).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
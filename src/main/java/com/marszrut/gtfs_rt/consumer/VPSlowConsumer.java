@@ -1,11 +1,10 @@
 package com.marszrut.gtfs_rt.consumer;
 
-import com.google.transit.realtime.GtfsRealtime;
-import com.marszrut.gtfs_rt.converter.VPConverter;
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
-import com.marszrut.gtfs_rt.repository.VPRepository;
+import com.marszrut.gtfs_rt.processing.HistoryThinningFilter;
+import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import com.marszrut.gtfs_rt.spool.SpoolingHistoryWriter;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.common.header.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -13,86 +12,76 @@ import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Slow consumer - reads protobuf from Kafka and persists to TimescaleDB.
  * Purpose: Store full vehicle position history for analysis.
- * Uses manual acknowledgment with retry logic for transient errors.
+ * Consumes whole polls: each batch is inserted in one transaction and acknowledged after commit.
+ * Positions without new information are dropped by the {@link HistoryThinningFilter} before the insert.
+ * While the database is unavailable, batches are spooled to local disk by the {@link SpoolingHistoryWriter}.
  */
 @Service
 public class VPSlowConsumer {
 
     private static final Logger logger = LoggerFactory.getLogger(VPSlowConsumer.class);
 
-    private final VPConverter converter;
-    private final VPRepository repository;
-
-    public VPSlowConsumer(VPConverter converter, VPRepository repository) {
-        this.converter = converter;
-        this.repository = repository;
+    private final VehiclePositionRecordDecoder decoder;
+    private final SpoolingHistoryWriter spoolingHistoryWriter;
+    private final HistoryWriter historyWriter;
+    private final HistoryThinningFilter thinningFilter;
+
+    public VPSlowConsumer(VehiclePositionRecordDecoder decoder, SpoolingHistoryWriter spoolingHistoryWriter,
+                          HistoryWriter historyWriter, HistoryThinningFilter thinningFilter) {
+        this.decoder = decoder;
+        this.spoolingHistoryWriter = spoolingHistoryWriter;
+        this.historyWriter = historyWriter;
+        this.thinningFilter = thinningFilter;
     }
 
     @KafkaListener(
         topics = "${kafka.topics.vehicle-positions-proto}",
         groupId = "${kafka.consumer.group-id-slow}",
-        containerFactory = "protoKafkaListenerContainerFactory"
+        containerFactory = "protoSlowPathBatchKafkaListenerContainerFactory"
     )
-    public void processVehiclePosition(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
-        try {
-            // Extract metadata from headers with null checks
-            Header feedIdHeader = record.headers().lastHeader("feedId");
-            Header agencyIdHeader = record.headers().lastHeader("agencyId");
-
-            if (feedIdHeader == null || agencyIdHeader == null) {
-                logger.error("Missing required headers (feedId or agencyId) for message: key={}, partition={}, offset={}",
-                            record.key(), record.partition(), record.offset());
-                ack.acknowledge(); // Acknowledge to skip bad message
-                return;
-            }
-
-            String feedId = new String(feedIdHeader.value(), StandardCharsets.UTF_8);
-            String agencyId = new String(agencyIdHeader.value(), StandardCharsets.UTF_8);
-
-            // Deserialize protobuf
-            GtfsRealtime.FeedEntity feedEntity = GtfsRealtime.FeedEntity.parseFrom(record.value());
-
-            // Convert to domain object
-            VehiclePosition vp = converter.mapFromFeedEntity(feedEntity, feedId, agencyId);
+    public void processVehiclePositions(List<ConsumerRecord<String, byte[]>> records, Acknowledgment ack) {
+        List<VehiclePosition> positions = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, byte[]> record : records) {
+            // Undecodable records are logged by the decoder and skipped
+            decoder.decode(record, positions);
+        }
 
-            if (vp == null) {
-                logger.warn("FeedEntity does not contain vehicle position: key={}, feedId={}, agencyId={}, offset={}",
-                           record.key(), feedId, agencyId, record.offset());
-                ack.acknowledge(); // Acknowledge to skip
-                return;
-            }
+        List<VehiclePosition> retained = thinningFilter.thin(positions);
 
-            // Save to TimescaleDB
-            repository.save(vp);
+        try {
+            // Save to TimescaleDB (or the local spool while it is down)
+            int inserted = spoolingHistoryWriter.persistHistoryBatch(retained);
+            thinningFilter.commit(retained);
 
-            logger.debug("Saved VP to TimescaleDB: vehicleId={}, feedId={}, agencyId={}, partition={}, offset={}",
-                        vp.getVid(), feedId, agencyId, record.partition(), record.offset());
+            logger.debug("Saved VP batch to TimescaleDB: records={}, rows={}", records.size(), inserted);
 
             ack.acknowledge();
 
         } catch (DataIntegrityViolationException e) {
-            // Data constraint violation - likely duplicate or invalid data
-            logger.error("Data integrity violation - skipping message: key={}, partition={}, offset={}, error={}",
-                        record.key(), record.partition(), record.offset(), e.getMessage());
-            ack.acknowledge(); // Acknowledge to skip bad data
-
-        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
-            // Invalid protobuf - non-retryable
-            logger.error("Invalid protobuf message - skipping: key={}, partition={}, offset={}, error={}",
-                        record.key(), record.partition(), record.offset(), e.getMessage());
-            ack.acknowledge(); // Acknowledge to skip bad message
+            // Data constraint violation in some row - isolate it instead of failing the whole poll
+            logger.warn("Data integrity violation in batch of {} rows, retrying row by row: {}",
+                       retained.size(), e.getMessage());
+            persistIndividually(retained);
+            ack.acknowledge();
+        }
+        // Transient errors that could not be spooled propagate: the batch goes to the retry tiers
+    }
 
-        } catch (Exception e) {
-            // Transient errors (DB connection, etc.) - should retry
-            logger.error("Slow consumer failed to process message (will retry): key={}, partition={}, offset={}, error={}",
-                        record.key(), record.partition(), record.offset(), e.getMessage(), e);
-            // Don't acknowledge - will retry via error handler
+    private void persistIndividually(List<VehiclePosition> positions) {
+        for (VehiclePosition vp : positions) {
+            try {
+                historyWriter.persistHistoryBatch(List.of(vp));
+                thinningFilter.commit(List.of(vp));
+            } catch (DataIntegrityViolationException e) {
+                logger.error("Data integrity violation - skipping row: vehicleId={}, timestamp={}, error={}",
+                            vp.getVid(), vp.getT(), e.getMessage());
+            }
         }
     }
 }
-
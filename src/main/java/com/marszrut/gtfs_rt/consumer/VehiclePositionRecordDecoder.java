@@ -0,0 +1,104 @@
+package com.marszrut.gtfs_rt.consumer;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.converter.VehiclePositionReader;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.util.InternCache;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes protobuf vehicle position records from the vp-proto topic.
+ * Shared by the fast and slow consumers: reads the feedId/agencyId headers,
+ * decodes the payload with a per-thread {@link VehiclePositionReader} and maps it to domain objects.
+ * Header values and string fields are interned, so records of the same feed, agency, vehicle, trip or stop
+ * share one String instance each.
+ *
+ * Two framings are understood, told apart by the "framing" header:
+ * - no header: the value is a single FeedEntity
+ * - "FeedMessage": the value is a FeedMessage carrying many entities of the record's feed/agency
+ */
+@Component
+public class VehiclePositionRecordDecoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehiclePositionRecordDecoder.class);
+
+    public static final String FEED_ID_HEADER = "feedId";
+    public static final String AGENCY_ID_HEADER = "agencyId";
+    public static final String FRAMING_HEADER = "framing";
+    public static final String FRAMING_FEED_MESSAGE = "FeedMessage";
+
+    private static final byte[] FRAMING_FEED_MESSAGE_BYTES = FRAMING_FEED_MESSAGE.getBytes(StandardCharsets.UTF_8);
+    private static final int HEADER_INTERN_CAPACITY = 1024;
+
+    private final VPConverter converter;
+    private final InternCache headerValues = new InternCache(HEADER_INTERN_CAPACITY);
+    private final ThreadLocal<VehiclePositionReader> readers;
+
+    public VehiclePositionRecordDecoder(
+            VPConverter converter,
+            @Value("${kafka.consumer.proto.string-intern-capacity:65536}") int stringInternCapacity) {
+        this.converter = converter;
+        InternCache strings = new InternCache(stringInternCapacity);
+        this.readers = ThreadLocal.withInitial(() -> new VehiclePositionReader(strings));
+    }
+
+    /**
+     * Decodes a record into vehicle positions, appending them to {@code positions}.
+     * Records that can never be processed (missing headers, invalid protobuf) and entities without a vehicle
+     * are logged and skipped.
+     *
+     * @param record Kafka record with FeedEntity or FeedMessage bytes and feedId/agencyId headers
+     * @param positions receives the decoded vehicle positions
+     * @return number of vehicle positions appended
+     */
+    public int decode(ConsumerRecord<String, byte[]> record, List<VehiclePosition> positions) {
+        Header feedIdHeader = record.headers().lastHeader(FEED_ID_HEADER);
+        Header agencyIdHeader = record.headers().lastHeader(AGENCY_ID_HEADER);
+
+        if (feedIdHeader == null || agencyIdHeader == null) {
+            logger.error("Missing required headers (feedId or agencyId) for message: key={}, partition={}, offset={}",
+                        record.key(), record.partition(), record.offset());
+            return 0;
+        }
+
+        String feedId = headerValues.intern(feedIdHeader.value()).value();
+        String agencyId = headerValues.intern(agencyIdHeader.value()).value();
+
+        VehiclePositionReader reader = readers.get();
+        reader.reset(record.value(), isFeedMessage(record));
+        int start = positions.size();
+        try {
+            while (reader.next()) {
+                VehiclePosition vp = converter.mapFromState(reader.state(), feedId, agencyId);
+                if (vp == null) {
+                    logger.warn("FeedEntity does not contain vehicle position: key={}, feedId={}, agencyId={}, offset={}",
+                               record.key(), feedId, agencyId, record.offset());
+                    continue;
+                }
+                positions.add(vp);
+            }
+        } catch (InvalidProtocolBufferException e) {
+            // Like parseFrom, a malformed record yields nothing, not the entities before the error
+            positions.subList(start, positions.size()).clear();
+            logger.error("Invalid protobuf message - skipping: key={}, partition={}, offset={}, error={}",
+                        record.key(), record.partition(), record.offset(), e.getMessage());
+            return 0;
+        }
+        return positions.size() - start;
+    }
+
+    private static boolean isFeedMessage(ConsumerRecord<String, byte[]> record) {
+        Header framing = record.headers().lastHeader(FRAMING_HEADER);
+        return framing != null && Arrays.equals(framing.value(), FRAMING_FEED_MESSAGE_BYTES);
+    }
+}
@@ -0,0 +1,84 @@
+package com.marszrut.gtfs_rt.controller;
+
+import com.marszrut.gtfs_rt.dto.RouteActivityDto;
+import com.marszrut.gtfs_rt.dto.StopHeadwayDto;
+import com.marszrut.gtfs_rt.service.AnalyticsService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Read-only historical analytics served from the continuous aggregates, not from raw history.
+ * Times are ISO-8601 instants; ranges are half-open [from, to).
+ */
+@RestController
+@RequestMapping("/analytics")
+public class AnalyticsController {
+
+    private final AnalyticsService analyticsService;
+
+    public AnalyticsController(AnalyticsService analyticsService) {
+        this.analyticsService = analyticsService;
+    }
+
+    /**
+     * Vehicles in service, report count and average occupancy per route and bucket.
+     *
+     * @param from range start
+     * @param to range end
+     * @param granularity bucket size, "1m" or "1h"
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param routeId optional route ID filter
+     * @return activity rows ordered by bucket
+     */
+    @GetMapping("/routes/activity")
+    public ResponseEntity<List<RouteActivityDto>> getRouteActivity(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(defaultValue = "1h") String granularity,
+            @RequestParam(required = false) String feedId,
+            @RequestParam(required = false) String agencyId,
+            @RequestParam(required = false) String routeId) {
+        try {
+            return ResponseEntity.ok(analyticsService.getRouteActivity(granularity, from, to, feedId, agencyId, routeId));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Observed arrivals and headways at the stops of a route.
+     *
+     * @param routeId route ID
+     * @param from range start
+     * @param to range end
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param stopId optional stop ID filter
+     * @return arrivals ordered by stop and time
+     */
+    @GetMapping("/routes/{routeId}/headways")
+    public ResponseEntity<List<StopHeadwayDto>> getHeadways(
+            @PathVariable String routeId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(required = false) String feedId,
+            @RequestParam(required = false) String agencyId,
+            @RequestParam(required = false) String stopId) {
+        try {
+            return ResponseEntity.ok(analyticsService.getHeadways(from, to, routeId, feedId, agencyId, stopId));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
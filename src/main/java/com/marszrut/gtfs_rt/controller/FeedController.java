@@ -1,8 +1,14 @@
 package com.marszrut.gtfs_rt.controller;
 
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.TextFormat;
 import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.service.FeedDelta;
 import com.marszrut.gtfs_rt.service.FeedService;
+import com.marszrut.gtfs_rt.service.FeedSnapshot;
+import com.marszrut.gtfs_rt.service.FeedSnapshotService;
+import com.marszrut.gtfs_rt.spatial.SpatialGridIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
@@ -10,6 +16,10 @@ import org.springframework.web.bind.annotation.*;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -23,13 +33,20 @@ public class FeedController {
     private static final Logger logger = LoggerFactory.getLogger(FeedController.class);
     private static final String PROTOBUF_CONTENT_TYPE = "application/x-protobuf";
     private static final String TEXT_CONTENT_TYPE = "text/plain";
+    private static final String FEED_VERSION_HEADER = "X-Feed-Version";
 
     private final FeedService feedService;
+    private final FeedSnapshotService feedSnapshotService;
+    private final SpatialGridIndex spatialGridIndex;
     private final int cacheTtlSeconds;
 
     public FeedController(FeedService feedService,
+                          FeedSnapshotService feedSnapshotService,
+                          SpatialGridIndex spatialGridIndex,
                           @org.springframework.beans.factory.annotation.Value("${gtfs.feed.cache.ttl-seconds}") int cacheTtlSeconds) {
         this.feedService = feedService;
+        this.feedSnapshotService = feedSnapshotService;
+        this.spatialGridIndex = spatialGridIndex;
         this.cacheTtlSeconds = cacheTtlSeconds;
     }
 
@@ -38,70 +55,230 @@ public class FeedController {
      * Supports both binary protobuf and ASCII text format based on Accept header.
      * - Accept: application/x-protobuf → binary format (production)
      * - Accept: text/plain → ASCII text format (development/debug)
-     * Supports HTTP 304 Not Modified for efficient caching.
+     * Supports HTTP 304 Not Modified through If-None-Match (strong ETag) and If-Modified-Since.
+     * The body is taken from a pre-encoded {@link FeedSnapshot}, so no feed is built or compressed per request;
+     * clients sending Accept-Encoding: gzip get the precompressed variant.
+     * Every response carries an opaque change-log version token in X-Feed-Version. With differential feeds
+     * enabled, a client passing that value back as {@code since} gets only the entities changed since then
+     * (DIFFERENTIAL, with is_deleted tombstones), or the full dataset when the version is too old or
+     * was issued by another replica.
+     * Map clients can restrict the feed to a viewport with {@code bbox=minLon,minLat,maxLon,maxLat}
+     * or to a circle with {@code lat}, {@code lon} and {@code radius} (meters), answered from the spatial index.
      *
      * @param feedId optional feed ID filter
      * @param agencyId optional agency ID filter
-     * @param ifModifiedSince HTTP If-Modified-Since header for conditional GET
+     * @param since X-Feed-Version token of the last feed seen by the client, for a differential feed
+     * @param bbox optional bounding box: minLon,minLat,maxLon,maxLat
+     * @param lat optional circle center latitude
+     * @param lon optional circle center longitude
+     * @param radius optional circle radius in meters
+     * @param ifNoneMatch HTTP If-None-Match header for conditional GET
+     * @param ifModifiedSince HTTP If-Modified-Since header for conditional GET (HTTP-date or epoch seconds)
      * @param accept HTTP Accept header to determine response format
+     * @param acceptEncoding HTTP Accept-Encoding header to select the content coding
      * @return GTFS-RT FeedMessage in requested format
      */
     @GetMapping(value = "/feed.pb", produces = {PROTOBUF_CONTENT_TYPE, TEXT_CONTENT_TYPE})
     public ResponseEntity<byte[]> getVehiclePositionFeed(
             @RequestParam(required = false) String feedId,
             @RequestParam(required = false) String agencyId,
-            @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) Long ifModifiedSince,
-            @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = PROTOBUF_CONTENT_TYPE) String accept) {
+            @RequestParam(required = false) String since,
+            @RequestParam(required = false) String bbox,
+            @RequestParam(required = false) Double lat,
+            @RequestParam(required = false) Double lon,
+            @RequestParam(required = false) Double radius,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSince,
+            @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = PROTOBUF_CONTENT_TYPE) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
 
-        logger.info("GTFS-RT feed requested: feedId={}, agencyId={}, ifModifiedSince={}, accept={}",
-                     feedId, agencyId, ifModifiedSince, accept);
+        logger.debug("GTFS-RT feed requested: feedId={}, agencyId={}, since={}, ifNoneMatch={}, ifModifiedSince={}, accept={}",
+                     feedId, agencyId, since, ifNoneMatch, ifModifiedSince, accept);
 
-        // Get last modified timestamp from Redis
-        long lastModified = feedService.getLastModifiedTimestamp();
+        boolean isTextFormat = accept != null && accept.contains("text/plain");
+
+        // Spatial queries bypass the snapshots and read only the vehicles in the area
+        if (bbox != null || lat != null || lon != null || radius != null) {
+            List<CachedEntity> entities = findInArea(feedId, agencyId, bbox, lat, lon, radius);
+            if (entities == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            return spatialResponse(entities, isTextFormat);
+        }
+
+        // Differential feed from the change log; falls through to the full dataset when not available
+        if (since != null) {
+            FeedDelta delta = feedSnapshotService.getDelta(feedId, agencyId, since);
+            if (delta != null) {
+                return differentialResponse(delta, since, isTextFormat, ifNoneMatch);
+            }
+            logger.debug("Version {} not in change log of this instance, serving full dataset", since);
+        }
+
+        // Pre-encoded snapshot, refreshed in the background
+        FeedSnapshot snapshot = feedSnapshotService.getSnapshot(feedId, agencyId);
+        long lastModified = snapshot.lastModified();
+
+        // Determine response encoding based on Accept-Encoding header
+        boolean isGzip = acceptsGzip(acceptEncoding);
+        String etag = snapshot.etag(isTextFormat, isGzip);
 
-        // Check if client has current data (HTTP 304 Not Modified)
-        if (ifModifiedSince != null && lastModified <= ifModifiedSince) {
-            logger.info("Returning 304 Not Modified - client has current data");
+        // Check if client has current data (HTTP 304 Not Modified).
+        // If-None-Match takes precedence over If-Modified-Since (RFC 9110, section 13.2.2)
+        boolean notModified = ifNoneMatch != null
+            ? etagMatches(ifNoneMatch, etag)
+            : ifModifiedSince != null && lastModified <= parseIfModifiedSince(ifModifiedSince);
+
+        if (notModified) {
+            logger.debug("Returning 304 Not Modified - client has current data");
             return ResponseEntity
                 .status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
                 .lastModified(Instant.ofEpochSecond(lastModified))
                 .cacheControl(CacheControl.maxAge(cacheTtlSeconds, TimeUnit.SECONDS))
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                .header(FEED_VERSION_HEADER, feedSnapshotService.versionToken(snapshot.version()))
                 .build();
         }
 
-        // Build complete feed message
-        GtfsRealtime.FeedMessage feedMessage = feedService.buildVehiclePositionFeed(feedId, agencyId);
-
-        // Determine response format based on Accept header
-        boolean isTextFormat = accept != null && accept.contains("text/plain");
         byte[] feedData;
         String contentType;
 
         if (isTextFormat) {
             // ASCII text format for debugging
-            String textFormat = TextFormat.printer()
-                .printToString(feedMessage);
-            feedData = textFormat.getBytes(StandardCharsets.UTF_8);
+            feedData = isGzip ? snapshot.textGzip() : snapshot.text();
             contentType = TEXT_CONTENT_TYPE + ";charset=UTF-8";
-            logger.info("Serving GTFS-RT feed in ASCII text format with {} entities, {} bytes",
-                        feedMessage.getEntityCount(), feedData.length);
+            logger.debug("Serving GTFS-RT feed in ASCII text format with {} entities, {} bytes, gzip={}",
+                        snapshot.entityCount(), feedData.length, isGzip);
         } else {
             // Binary protobuf format for production
-            feedData = feedMessage.toByteArray();
+            feedData = isGzip ? snapshot.protobufGzip() : snapshot.protobuf();
             contentType = PROTOBUF_CONTENT_TYPE;
-            logger.info("Serving GTFS-RT feed in binary protobuf format with {} entities, {} bytes",
-                        feedMessage.getEntityCount(), feedData.length);
+            logger.debug("Serving GTFS-RT feed in binary protobuf format with {} entities, {} bytes, gzip={}",
+                        snapshot.entityCount(), feedData.length, isGzip);
         }
 
         // Return with proper caching headers
-        return ResponseEntity
+        ResponseEntity.BodyBuilder response = ResponseEntity
             .ok()
             .contentType(MediaType.parseMediaType(contentType))
+            .eTag(etag)
             .lastModified(Instant.ofEpochSecond(lastModified))
             .cacheControl(CacheControl.maxAge(cacheTtlSeconds, TimeUnit.SECONDS))
+            .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+            .header(FEED_VERSION_HEADER, feedSnapshotService.versionToken(snapshot.version()));
+        if (isGzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(feedData);
+    }
+
+    /**
+     * Runs a bounding box or radius query. Returns null when the parameters are incomplete or invalid.
+     */
+    private List<CachedEntity> findInArea(String feedId, String agencyId, String bbox,
+                                          Double lat, Double lon, Double radius) {
+        if (bbox != null) {
+            String[] parts = bbox.split(",");
+            if (parts.length != 4) {
+                return null;
+            }
+            try {
+                double minLon = Double.parseDouble(parts[0].trim());
+                double minLat = Double.parseDouble(parts[1].trim());
+                double maxLon = Double.parseDouble(parts[2].trim());
+                double maxLat = Double.parseDouble(parts[3].trim());
+                if (minLat > maxLat || minLon > maxLon
+                    || Math.abs(minLat) > 90 || Math.abs(maxLat) > 90
+                    || Math.abs(minLon) > 180 || Math.abs(maxLon) > 180) {
+                    return null;
+                }
+                return spatialGridIndex.findInBoundingBox(minLat, minLon, maxLat, maxLon, feedId, agencyId);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        if (lat == null || lon == null || radius == null || radius <= 0 || Math.abs(lat) > 90 || Math.abs(lon) > 180) {
+            return null;
+        }
+        return spatialGridIndex.findWithinRadius(lat, lon, radius, feedId, agencyId);
+    }
+
+    /**
+     * Serves the result of a spatial query as a full dataset for the area.
+     * Carries no ETag: the body is encoded per request with a fresh header timestamp, and hashing it
+     * just to answer 304 would cost as much as sending it, since area queries are not cached.
+     */
+    private ResponseEntity<byte[]> spatialResponse(List<CachedEntity> entities, boolean isTextFormat) {
+        byte[] feedData = feedService.encodeFeed(entities);
+        String contentType = PROTOBUF_CONTENT_TYPE;
+        if (isTextFormat) {
+            feedData = toText(feedData);
+            contentType = TEXT_CONTENT_TYPE + ";charset=UTF-8";
+        }
+
+        logger.debug("Serving spatial GTFS-RT feed with {} entities, {} bytes", entities.size(), feedData.length);
+
+        return ResponseEntity
+            .ok()
+            .contentType(MediaType.parseMediaType(contentType))
+            .cacheControl(CacheControl.maxAge(cacheTtlSeconds, TimeUnit.SECONDS))
+            .varyBy(HttpHeaders.ACCEPT)
+            .body(feedData);
+    }
+
+    /**
+     * Serves a change-log delta. The filter is part of the URL, so the pair of versions identifies
+     * the delta content and serves as its strong ETag; only a request with a matching If-None-Match
+     * gets a 304. An unconditional request for an empty delta gets a header-only DIFFERENTIAL feed,
+     * which is how GTFS-RT says that nothing changed.
+     */
+    private ResponseEntity<byte[]> differentialResponse(FeedDelta delta, String since, boolean isTextFormat,
+                                                        String ifNoneMatch) {
+        String etag = "\"d" + since + "-" + delta.version() + (isTextFormat ? "-txt" : "-pb") + "\"";
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, etag)) {
+            logger.debug("Returning 304 Not Modified - client has current delta");
+            return ResponseEntity
+                .status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(CacheControl.maxAge(cacheTtlSeconds, TimeUnit.SECONDS))
+                .header(FEED_VERSION_HEADER, feedSnapshotService.versionToken(delta.version()))
+                .build();
+        }
+
+        byte[] feedData;
+        String contentType;
+        if (isTextFormat) {
+            feedData = toText(delta.protobuf());
+            contentType = TEXT_CONTENT_TYPE + ";charset=UTF-8";
+        } else {
+            feedData = delta.protobuf();
+            contentType = PROTOBUF_CONTENT_TYPE;
+        }
+
+        logger.debug("Serving differential GTFS-RT feed with {} entities, {} bytes, version={}",
+                    delta.entityCount(), feedData.length, delta.version());
+
+        return ResponseEntity
+            .ok()
+            .contentType(MediaType.parseMediaType(contentType))
+            .eTag(etag)
+            .cacheControl(CacheControl.maxAge(cacheTtlSeconds, TimeUnit.SECONDS))
+            .varyBy(HttpHeaders.ACCEPT)
+            .header(FEED_VERSION_HEADER, feedSnapshotService.versionToken(delta.version()))
             .body(feedData);
     }
 
+    private static byte[] toText(byte[] protobuf) {
+        try {
+            GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(protobuf);
+            return TextFormat.printer().printToString(feedMessage).getBytes(StandardCharsets.UTF_8);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Assembled an invalid FeedMessage", e);
+        }
+    }
+
     /**
      * Health check endpoint for feed availability.
      *
@@ -116,5 +293,70 @@ public class FeedController {
             String.format("GTFS-RT feed active. Last update: %d seconds ago", ageSeconds)
         );
     }
-}
 
+    /**
+     * True when Accept-Encoding lists gzip (or *) without q=0.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        rejected = Double.parseDouble(param.substring(2)) <= 0.0;
+                    } catch (NumberFormatException e) {
+                        rejected = true;
+                    }
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weak comparison of If-None-Match against the current tag, as required for GET.
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        String current = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Parses If-Modified-Since as an HTTP-date, falling back to plain epoch seconds
+     * for older clients. Returns -1 when the value cannot be parsed.
+     */
+    private static long parseIfModifiedSince(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ignored) {
+            // Not epoch seconds, try HTTP-date
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.marszrut.gtfs_rt.controller;
+
+import com.marszrut.gtfs_rt.stream.VehiclePositionStreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Controller for pushing vehicle position updates to subscribers over Server-Sent Events.
+ * Each "vehicle-positions" event carries a base64-encoded DIFFERENTIAL GTFS-RT FeedMessage
+ * with the latest update of every vehicle that changed since the previous event.
+ */
+@RestController
+@RequestMapping("/gtfs-rt")
+public class StreamController {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamController.class);
+
+    private final VehiclePositionStreamService streamService;
+
+    public StreamController(VehiclePositionStreamService streamService) {
+        this.streamService = streamService;
+    }
+
+    /**
+     * Opens a vehicle position stream.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param routeId optional route ID filter
+     * @return SSE stream of FeedMessage updates
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamVehiclePositions(
+            @RequestParam(required = false) String feedId,
+            @RequestParam(required = false) String agencyId,
+            @RequestParam(required = false) String routeId) {
+
+        logger.debug("Stream requested: feedId={}, agencyId={}, routeId={}", feedId, agencyId, routeId);
+
+        SseEmitter emitter = streamService.subscribe(feedId, agencyId, routeId);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many stream subscribers");
+        }
+        return emitter;
+    }
+}
@@ -115,6 +115,40 @@ public class VPConverter {
                 .build();
     }
 
+    /**
+     * Maps the fields read by {@link VehiclePositionReader} to domain VehiclePosition.
+     * Produces the same result as {@link #mapFromFeedEntity} for the entity the state was read from.
+     *
+     * @param state fields of the current entity
+     * @param feedId the feed identifier
+     * @param agencyId the agency identifier
+     * @return domain VehiclePosition entity, or null if the entity doesn't contain vehicle data
+     */
+    public VehiclePosition mapFromState(VehiclePositionState state, String feedId, String agencyId) {
+        if (!state.hasVehicle()) {
+            return null;
+        }
+
+        return VehiclePosition.builder()
+                .vid(state.entityId())
+                .lat((double) state.latitude())
+                .lon((double) state.longitude())
+                .t(state.hasTimestamp() ? Instant.ofEpochSecond(state.timestamp()) : Instant.now())
+                .fid(feedId != null ? feedId : "")
+                .aid(agencyId != null ? agencyId : "")
+                .rid(state.routeId())
+                .tid(state.tripId())
+                .did(state.directionId())
+                .sd(state.startDate())
+                .st(state.startTime())
+                .sid(state.stopId())
+                .ss(state.currentStatus())
+                .vl("")
+                .lp("")
+                .os(state.occupancyStatus())
+                .build();
+    }
+
     /**
      * Converts domain VehiclePosition entity back to GTFS-RT FeedEntity.
      * Used for serving aggregated feed to transit consumers.
@@ -0,0 +1,245 @@
+package com.marszrut.gtfs_rt.converter;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.util.InternCache;
+
+import java.io.IOException;
+
+/**
+ * Streaming, field-selective decoder for encoded FeedEntity and FeedMessage bytes.
+ * Instead of parsing the whole message tree with FeedEntity.parseFrom, it walks the wire format with a
+ * CodedInputStream and copies only the fields {@link VPConverter#mapFromFeedEntity} uses into a reused
+ * {@link VehiclePositionState}. Everything else (trip updates, alerts, unused vehicle fields, unknown and
+ * extension fields) is skipped without being materialized. Strings are read straight from the input bytes
+ * through an {@link InternCache}, so after warm-up an entity costs no allocation apart from strings not seen before.
+ *
+ * Results match parseFrom + mapFromFeedEntity: last value wins for repeated scalar fields, unknown enum numbers
+ * are ignored, and missing required fields we read (entity id, position latitude/longitude, FeedMessage header)
+ * fail the message. Required fields inside skipped sub-messages are not checked.
+ *
+ * Not thread-safe: use one reader per thread.
+ */
+public final class VehiclePositionReader {
+
+    private static final int LENGTH_DELIMITED = WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int VARINT = WireFormat.WIRETYPE_VARINT;
+    private static final int FIXED32 = WireFormat.WIRETYPE_FIXED32;
+
+    // FeedMessage
+    private static final int FEED_HEADER = 1 << 3 | LENGTH_DELIMITED;
+    private static final int FEED_ENTITY = 2 << 3 | LENGTH_DELIMITED;
+    // FeedEntity
+    private static final int ENTITY_ID = 1 << 3 | LENGTH_DELIMITED;
+    private static final int ENTITY_VEHICLE = 4 << 3 | LENGTH_DELIMITED;
+    // VehiclePosition
+    private static final int VEHICLE_TRIP = 1 << 3 | LENGTH_DELIMITED;
+    private static final int VEHICLE_POSITION = 2 << 3 | LENGTH_DELIMITED;
+    private static final int VEHICLE_STOP_ID = 3 << 3 | LENGTH_DELIMITED;
+    private static final int VEHICLE_CURRENT_STATUS = 4 << 3 | VARINT;
+    private static final int VEHICLE_TIMESTAMP = 5 << 3 | VARINT;
+    private static final int VEHICLE_OCCUPANCY_STATUS = 7 << 3 | VARINT;
+    // TripDescriptor
+    private static final int TRIP_TRIP_ID = 1 << 3 | LENGTH_DELIMITED;
+    private static final int TRIP_START_TIME = 2 << 3 | LENGTH_DELIMITED;
+    private static final int TRIP_START_DATE = 3 << 3 | LENGTH_DELIMITED;
+    private static final int TRIP_ROUTE_ID = 5 << 3 | LENGTH_DELIMITED;
+    private static final int TRIP_DIRECTION_ID = 6 << 3 | VARINT;
+    // Position
+    private static final int POSITION_LATITUDE = 1 << 3 | FIXED32;
+    private static final int POSITION_LONGITUDE = 2 << 3 | FIXED32;
+
+    private final InternCache strings;
+    private final VehiclePositionState state = new VehiclePositionState();
+
+    private byte[] data;
+    private CodedInputStream input;
+    private boolean feedMessage;
+    private boolean hasHeader;
+
+    /**
+     * @param strings cache the string fields are interned in; may be shared between readers
+     */
+    public VehiclePositionReader(InternCache strings) {
+        this.strings = strings;
+    }
+
+    /**
+     * Starts reading a new message.
+     *
+     * @param data encoded message
+     * @param feedMessage true if data is a FeedMessage, false if it is a single FeedEntity
+     */
+    public void reset(byte[] data, boolean feedMessage) {
+        this.data = data;
+        this.input = CodedInputStream.newInstance(data);
+        this.feedMessage = feedMessage;
+        this.hasHeader = false;
+    }
+
+    /**
+     * Reads the next entity of the message into {@link #state()}.
+     *
+     * @return true if an entity was read, false if the message has no more entities
+     * @throws InvalidProtocolBufferException if the message is malformed or misses a required field
+     */
+    public boolean next() throws InvalidProtocolBufferException {
+        if (input == null) {
+            return false;
+        }
+        try {
+            if (!feedMessage) {
+                readEntity();
+                input = null;
+                return true;
+            }
+
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (tag == FEED_ENTITY) {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    readEntity();
+                    input.popLimit(limit);
+                    return true;
+                }
+                if (tag == FEED_HEADER) {
+                    hasHeader = true;
+                }
+                skip(tag);
+            }
+            input = null;
+            if (!hasHeader) {
+                throw new InvalidProtocolBufferException("Message missing required fields: header");
+            }
+            return false;
+        } catch (InvalidProtocolBufferException e) {
+            input = null;
+            throw e;
+        } catch (IOException e) {
+            input = null;
+            throw new InvalidProtocolBufferException(e);
+        }
+    }
+
+    /**
+     * Fields of the entity last returned by {@link #next()}; overwritten by the following call.
+     */
+    public VehiclePositionState state() {
+        return state;
+    }
+
+    private void readEntity() throws IOException {
+        state.reset();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case ENTITY_ID -> state.entityId = readString();
+                case ENTITY_VEHICLE -> {
+                    state.hasVehicle = true;
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    readVehicle();
+                    input.popLimit(limit);
+                }
+                default -> skip(tag);
+            }
+        }
+
+        if (state.entityId == null) {
+            throw new InvalidProtocolBufferException("Message missing required fields: id");
+        }
+        if (state.hasPosition && !(state.hasLatitude && state.hasLongitude)) {
+            throw new InvalidProtocolBufferException(
+                "Message missing required fields: vehicle.position.latitude, vehicle.position.longitude");
+        }
+    }
+
+    private void readVehicle() throws IOException {
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case VEHICLE_TRIP -> {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    readTrip();
+                    input.popLimit(limit);
+                }
+                case VEHICLE_POSITION -> {
+                    state.hasPosition = true;
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    readPosition();
+                    input.popLimit(limit);
+                }
+                case VEHICLE_STOP_ID -> state.stopId = readString();
+                case VEHICLE_CURRENT_STATUS -> {
+                    int status = input.readEnum();
+                    if (GtfsRealtime.VehiclePosition.VehicleStopStatus.forNumber(status) != null) {
+                        state.currentStatus = status;
+                    }
+                }
+                case VEHICLE_TIMESTAMP -> {
+                    state.timestamp = input.readUInt64();
+                    state.hasTimestamp = true;
+                }
+                case VEHICLE_OCCUPANCY_STATUS -> {
+                    int status = input.readEnum();
+                    if (GtfsRealtime.VehiclePosition.OccupancyStatus.forNumber(status) != null) {
+                        state.occupancyStatus = status;
+                    }
+                }
+                default -> skip(tag);
+            }
+        }
+    }
+
+    private void readTrip() throws IOException {
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case TRIP_TRIP_ID -> state.tripId = readString();
+                case TRIP_START_TIME -> state.startTime = readString();
+                case TRIP_START_DATE -> state.startDate = readString();
+                case TRIP_ROUTE_ID -> state.routeId = readString();
+                case TRIP_DIRECTION_ID -> state.directionId = input.readUInt32();
+                default -> skip(tag);
+            }
+        }
+    }
+
+    private void readPosition() throws IOException {
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case POSITION_LATITUDE -> {
+                    state.latitude = input.readFloat();
+                    state.hasLatitude = true;
+                }
+                case POSITION_LONGITUDE -> {
+                    state.longitude = input.readFloat();
+                    state.hasLongitude = true;
+                }
+                default -> skip(tag);
+            }
+        }
+    }
+
+    /**
+     * Reads a string field without copying it: the bytes are looked up in place in the intern cache.
+     */
+    private String readString() throws IOException {
+        int length = input.readRawVarint32();
+        if (length == 0) {
+            return "";
+        }
+        int start = input.getTotalBytesRead();
+        input.skipRawBytes(length);
+        return strings.intern(data, start, start + length).value();
+    }
+
+    private void skip(int tag) throws IOException {
+        if (!input.skipField(tag)) {
+            // A stray end-group tag, which parseFrom rejects as well
+            throw new InvalidProtocolBufferException("Protocol message end-group tag did not match expected tag.");
+        }
+    }
+}
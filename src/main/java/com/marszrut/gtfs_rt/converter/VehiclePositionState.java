@@ -0,0 +1,114 @@
+package com.marszrut.gtfs_rt.converter;
+
+/**
+ * Mutable, primitive-typed holder for the FeedEntity fields we store, filled by {@link VehiclePositionReader}.
+ * One instance is reused for every entity a reader visits, so its values are only valid until the next entity;
+ * {@link VPConverter#mapFromState} copies them into a VehiclePosition.
+ * Absent strings are "", absent numbers 0, matching {@link VPConverter#mapFromFeedEntity}.
+ */
+public final class VehiclePositionState {
+
+    String entityId;
+    boolean hasVehicle;
+
+    String tripId;
+    String routeId;
+    int directionId;
+    String startDate;
+    String startTime;
+
+    boolean hasPosition;
+    boolean hasLatitude;
+    boolean hasLongitude;
+    float latitude;
+    float longitude;
+
+    boolean hasTimestamp;
+    long timestamp;
+
+    String stopId;
+    int currentStatus;
+    int occupancyStatus;
+
+    void reset() {
+        entityId = null;
+        hasVehicle = false;
+        tripId = "";
+        routeId = "";
+        directionId = 0;
+        startDate = "";
+        startTime = "";
+        hasPosition = false;
+        hasLatitude = false;
+        hasLongitude = false;
+        latitude = 0f;
+        longitude = 0f;
+        hasTimestamp = false;
+        timestamp = 0L;
+        stopId = "";
+        currentStatus = 0;
+        occupancyStatus = 0;
+    }
+
+    public String entityId() {
+        return entityId;
+    }
+
+    /**
+     * @return true if the entity carries a VehiclePosition
+     */
+    public boolean hasVehicle() {
+        return hasVehicle;
+    }
+
+    public String tripId() {
+        return tripId;
+    }
+
+    public String routeId() {
+        return routeId;
+    }
+
+    public int directionId() {
+        return directionId;
+    }
+
+    public String startDate() {
+        return startDate;
+    }
+
+    public String startTime() {
+        return startTime;
+    }
+
+    public float latitude() {
+        return latitude;
+    }
+
+    public float longitude() {
+        return longitude;
+    }
+
+    public boolean hasTimestamp() {
+        return hasTimestamp;
+    }
+
+    /**
+     * @return POSIX time in seconds
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public String stopId() {
+        return stopId;
+    }
+
+    public int currentStatus() {
+        return currentStatus;
+    }
+
+    public int occupancyStatus() {
+        return occupancyStatus;
+    }
+}
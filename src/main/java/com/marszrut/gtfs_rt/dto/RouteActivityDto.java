@@ -0,0 +1,23 @@
+package com.marszrut.gtfs_rt.dto;
+
+import java.time.Instant;
+
+/**
+ * Activity of one route in one time bucket, read from the vehicle activity rollups.
+ *
+ * @param bucket start of the bucket
+ * @param feedId feed identifier
+ * @param agencyId agency identifier
+ * @param routeId route identifier
+ * @param vehiclesInService distinct vehicles that reported on the route in the bucket
+ * @param samples number of raw position reports in the bucket
+ * @param averageOccupancy mean GTFS-RT occupancy status code over the reports that carried one, null if none did
+ */
+public record RouteActivityDto(Instant bucket,
+                               String feedId,
+                               String agencyId,
+                               String routeId,
+                               long vehiclesInService,
+                               long samples,
+                               Double averageOccupancy) {
+}
@@ -0,0 +1,19 @@
+package com.marszrut.gtfs_rt.dto;
+
+import java.time.Instant;
+
+/**
+ * Observed arrival of a vehicle at a stop and the gap to the previous arrival on the same route and stop.
+ *
+ * @param stopId stop identifier
+ * @param tripId trip identifier
+ * @param vehicleId vehicle identifier
+ * @param arrivedAt first STOPPED_AT report of the vehicle at the stop
+ * @param headwaySeconds seconds since the previous arrival, null for the first arrival in the range
+ */
+public record StopHeadwayDto(String stopId,
+                             String tripId,
+                             String vehicleId,
+                             Instant arrivedAt,
+                             Long headwaySeconds) {
+}
@@ -3,15 +3,19 @@ package com.marszrut.gtfs_rt.ingestion;
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
 import com.marszrut.gtfs_rt.processing.StateUpdateService;
 import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Kafka consumer for Vehicle Position messages - FAST PATH.
- * Receives fully deserialized VehiclePositionDomain objects directly from Kafka.
+ * Receives fully deserialized VehiclePositionDomain objects directly from Kafka, a whole poll at a time.
  * Processes messages for real-time state updates in Redis cache.
  */
 @Component
@@ -30,54 +34,58 @@ public class JsonVpFastPathListener {
     }
 
     /**
-     * Handles incoming vehicle position messages from Kafka for fast path processing.
-     * Receives fully deserialized VehiclePositionDomain objects.
-     * Updates Redis cache with current vehicle state.
+     * Handles a batch of vehicle position messages from Kafka for fast path processing.
+     * Invalid messages are skipped; the rest is coalesced per vehicle, written to Redis
+     * in one pipelined round trip and acknowledged once.
      *
-     * @param vehiclePosition the deserialized VehiclePositionDomain object
+     * @param records the polled records with deserialized VehiclePositionDomain values
      * @param acknowledgment Kafka acknowledgment for manual offset commit
      */
     @KafkaListener(
         topics = "${kafka.topics.vehicle-positions}",
         groupId = "vp-json-fast-path-group",
         concurrency = "1",
-        containerFactory = "kafkaListenerContainerFactory"
+        containerFactory = "batchKafkaListenerContainerFactory"
     )
-    public void handleVpFastPath(VehiclePosition vehiclePosition, Acknowledgment acknowledgment) {
-        try {
-            logger.info("===== [JSON FAST PATH] RECEIVED MESSAGE - vehicleId={}, lat={}, lon={}, timestamp={} =====",
-                    vehiclePosition.getVid(),
-                    vehiclePosition.getLat(),
-                    vehiclePosition.getLon(),
-                    vehiclePosition.getT());
+    public void handleVpFastPath(List<ConsumerRecord<String, VehiclePosition>> records, Acknowledgment acknowledgment) {
+        logger.debug("[JSON FAST PATH] Received batch of {} messages", records.size());
+
+        List<VehiclePosition> valid = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, VehiclePosition> record : records) {
+            VehiclePosition vehiclePosition = record.value();
 
             // Validate required fields before updating Redis
+            if (vehiclePosition == null) {
+                logger.error("[JSON FAST PATH] VALIDATION FAILED: message could not be deserialized. Skipping. partition={}, offset={}",
+                        record.partition(), record.offset());
+                continue;
+            }
             if (vehiclePosition.getLat() == null) {
                 logger.error("[JSON FAST PATH] VALIDATION FAILED: latitude is null. Skipping message. VehicleId={}",
                         vehiclePosition.getVid());
-                acknowledgment.acknowledge(); // Skip this message
-                return;
+                continue;
             }
-
             if (vehiclePosition.getLon() == null) {
                 logger.error("[JSON FAST PATH] VALIDATION FAILED: longitude is null. Skipping message. VehicleId={}",
                         vehiclePosition.getVid());
-                acknowledgment.acknowledge(); // Skip this message
-                return;
+                continue;
             }
+            valid.add(vehiclePosition);
+        }
 
+        try {
             // Fast path - Update current state in Redis
-            stateUpdateService.updateCurrentState(vehiclePosition);
+            int written = stateUpdateService.updateCurrentStates(valid);
 
-            // Acknowledge successful processing
+            // Acknowledge the whole poll once
             acknowledgment.acknowledge();
 
-            logger.info("[JSON FAST PATH] Updated Redis cache: vehicleId={}, lat={}, lon={}",
-                    vehiclePosition.getVid(), vehiclePosition.getLat(), vehiclePosition.getLon());
+            logger.debug("[JSON FAST PATH] Updated Redis cache: messages={}, vehicles={}", records.size(), written);
 
         } catch (Exception e) {
-            logger.error("[JSON FAST PATH] Failed to process vehicle position: {}", e.getMessage(), e);
-            // Don't acknowledge - message will be retried
+            logger.error("[JSON FAST PATH] Failed to process batch of {} vehicle positions: {}", records.size(), e.getMessage(), e);
+            // Don't acknowledge - batch will be retried by the error handler
+            throw e;
         }
     }
 }
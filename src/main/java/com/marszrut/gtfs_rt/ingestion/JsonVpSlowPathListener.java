@@ -1,27 +1,39 @@
 package com.marszrut.gtfs_rt.ingestion;
 
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.processing.HistoryThinningFilter;
 import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import com.marszrut.gtfs_rt.spool.SpoolingHistoryWriter;
 import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Kafka consumer for Vehicle Position messages - SLOW PATH.
- * Receives fully deserialized VehiclePositionDomain objects directly from Kafka.
+ * Receives fully deserialized VehiclePositionDomain objects directly from Kafka, a whole poll at a time.
  * Processes messages for historical persistence to TimescaleDB.
  */
 @Component
 public class JsonVpSlowPathListener {
 
     private static final Logger logger = LoggerFactory.getLogger(JsonVpSlowPathListener.class);
+    private final SpoolingHistoryWriter spoolingHistoryWriter;
     private final HistoryWriter historyWriter;
+    private final HistoryThinningFilter thinningFilter;
 
-    JsonVpSlowPathListener(HistoryWriter historyWriter) {
+    JsonVpSlowPathListener(SpoolingHistoryWriter spoolingHistoryWriter, HistoryWriter historyWriter,
+                           HistoryThinningFilter thinningFilter) {
+        this.spoolingHistoryWriter = spoolingHistoryWriter;
         this.historyWriter = historyWriter;
+        this.thinningFilter = thinningFilter;
     }
 
     @PostConstruct
@@ -30,43 +42,67 @@ public class JsonVpSlowPathListener {
     }
 
     /**
-     * Handles incoming vehicle position messages from Kafka for slow path processing.
-     * Receives fully deserialized VehiclePositionDomain objects.
-     * Persists data to TimescaleDB for historical record.
+     * Handles a batch of vehicle position messages from Kafka for slow path processing.
+     * Persists the whole poll to TimescaleDB in one transaction and acknowledges it after commit.
+     * Positions dropped by the history thinning filter are acknowledged without being stored.
+     * While the database is unavailable the batch is spooled to local disk and acknowledged.
+     * A data integrity violation is isolated by inserting the batch row by row and skipping the bad rows.
      *
-     * @param vehiclePosition the deserialized VehiclePositionDomain object
+     * @param records the polled records with deserialized VehiclePositionDomain values
      * @param acknowledgment Kafka acknowledgment for manual offset commit
      */
     @KafkaListener(
             topics = "${kafka.topics.vehicle-positions}",
-            groupId = "vp-json-slow-path-group",
+            groupId = "${kafka.consumer.group-id-json-slow}",
             concurrency = "1",
-            containerFactory = "slowPathKafkaListenerContainerFactory"
+            containerFactory = "slowPathBatchKafkaListenerContainerFactory"
     )
-    public void handleVpSlowPath(VehiclePosition vehiclePosition, Acknowledgment acknowledgment) {
-        try {
-            logger.info("===== [JSON SLOW PATH] RECEIVED MESSAGE - vehicleId={}, lat={}, lon={}, timestamp={} =====",
-                    vehiclePosition.getVid(),
-                    vehiclePosition.getLat(),
-                    vehiclePosition.getLon(),
-                    vehiclePosition.getT());
+    public void handleVpSlowPath(List<ConsumerRecord<String, VehiclePosition>> records, Acknowledgment acknowledgment) {
+        List<VehiclePosition> positions = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, VehiclePosition> record : records) {
+            if (record.value() == null) {
+                logger.error("[JSON SLOW PATH] Message could not be deserialized. Skipping. partition={}, offset={}",
+                        record.partition(), record.offset());
+                continue;
+            }
+            positions.add(record.value());
+        }
 
+        List<VehiclePosition> retained = thinningFilter.thin(positions);
+
+        try {
             // Slow path - Persist to TimescaleDB for historical record
-            historyWriter.persistHistory(vehiclePosition);
+            int inserted = spoolingHistoryWriter.persistHistoryBatch(retained);
+            thinningFilter.commit(retained);
 
-            // Acknowledge successful processing
+            // Acknowledge after the transaction has committed
             acknowledgment.acknowledge();
 
-            logger.info("[JSON SLOW PATH] Successfully persisted to database: vehicleId={}, lat={}, lon={}, timestamp={}",
-                    vehiclePosition.getVid(),
-                    vehiclePosition.getLat(),
-                    vehiclePosition.getLon(),
-                    vehiclePosition.getT());
+            logger.debug("[JSON SLOW PATH] Persisted batch to database: messages={}, rows={}", records.size(), inserted);
+
+        } catch (DataIntegrityViolationException e) {
+            // Data constraint violation in some row - isolate it instead of failing the whole poll
+            logger.warn("[JSON SLOW PATH] Data integrity violation in batch of {} rows, retrying row by row: {}",
+                    retained.size(), e.getMessage());
+            persistIndividually(retained);
+            acknowledgment.acknowledge();
 
         } catch (Exception e) {
-            logger.error("[JSON SLOW PATH] Failed to persist vehicle position: {}", e.getMessage(), e);
+            logger.error("[JSON SLOW PATH] Failed to persist batch of {} vehicle positions: {}", records.size(), e.getMessage(), e);
             // Spring Kafka's error handler will now forward this to the DLQ
             throw e;
         }
     }
+
+    private void persistIndividually(List<VehiclePosition> positions) {
+        for (VehiclePosition vp : positions) {
+            try {
+                historyWriter.persistHistoryBatch(List.of(vp));
+                thinningFilter.commit(List.of(vp));
+            } catch (DataIntegrityViolationException e) {
+                logger.error("[JSON SLOW PATH] Data integrity violation - skipping row: vehicleId={}, timestamp={}, error={}",
+                        vp.getVid(), vp.getT(), e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.marszrut.gtfs_rt.util.InternCache;
+import com.marszrut.gtfs_rt.util.InternCache.Interned;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Extracts feed, agency and vehicle IDs from Digitransit vehicle position topics:
+ * /gtfsrt/vp/{feedId}/{agencyId}/{agencyName}/{mode}/{routeId}/{directionId}/{headsign}/{tripId}/{stopId}/{startTime}/{vehicleId}/...
+ * The topic is scanned by index instead of split into an array of Strings, and the IDs are interned, so
+ * after warm-up a message costs no allocation for feed and agency (including their header bytes) or
+ * for vehicles seen before.
+ */
+@Component
+public class DigitransitTopicParser {
+
+    static final int FEED_LEVEL = 3;
+    static final int AGENCY_LEVEL = 4;
+    static final int VEHICLE_LEVEL = 13;
+
+    private static final int FEED_AGENCY_CACHE_CAPACITY = 1024;
+
+    /**
+     * IDs of one vehicle position topic.
+     *
+     * @param feedId interned feed ID and its header bytes
+     * @param agencyId interned agency ID and its header bytes
+     * @param vehicleId interned vehicle ID
+     */
+    public record DigitransitTopic(Interned feedId, Interned agencyId, String vehicleId) {
+    }
+
+    private final InternCache feedAgencyIds = new InternCache(FEED_AGENCY_CACHE_CAPACITY);
+    private final InternCache vehicleIds;
+
+    public DigitransitTopicParser(@Value("${mqtt.topic.vehicle-intern-capacity:65536}") int vehicleInternCapacity) {
+        this.vehicleIds = new InternCache(vehicleInternCapacity);
+    }
+
+    /**
+     * Parses a topic.
+     *
+     * @param topic MQTT topic
+     * @return the topic's IDs, or null if the topic has fewer than 14 levels or an empty feed, agency or vehicle ID
+     */
+    public DigitransitTopic parse(String topic) {
+        int feedStart = -1;
+        int feedEnd = -1;
+        int agencyStart = -1;
+        int agencyEnd = -1;
+
+        int start = 0;
+        for (int level = 0; level <= VEHICLE_LEVEL; level++) {
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                if (level < VEHICLE_LEVEL) {
+                    return null;
+                }
+                end = topic.length();
+            }
+
+            if (level == FEED_LEVEL) {
+                feedStart = start;
+                feedEnd = end;
+            } else if (level == AGENCY_LEVEL) {
+                agencyStart = start;
+                agencyEnd = end;
+            } else if (level == VEHICLE_LEVEL) {
+                if (feedStart == feedEnd || agencyStart == agencyEnd || start == end) {
+                    return null;
+                }
+                return new DigitransitTopic(
+                    feedAgencyIds.intern(topic, feedStart, feedEnd),
+                    feedAgencyIds.intern(topic, agencyStart, agencyEnd),
+                    vehicleIds.intern(topic, start, end).value());
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates FeedEntity payloads of one feed/agency into the wire bytes of a single GTFS-RT FeedMessage.
+ * MQTT payloads already are encoded FeedEntity messages, so each one is appended as-is behind the
+ * entity field tag and its length; nothing is parsed or re-encoded. The header is DIFFERENTIAL,
+ * since a batch only carries the vehicles that reported since the previous one.
+ */
+final class FeedMessageBatch {
+
+    private static final int HEADER_FIELD_TAG = (1 << 3) | 2;
+    private static final int ENTITY_FIELD_TAG = (2 << 3) | 2;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final String recordKey;
+    private final DigitransitTopic topic;
+    private final long createdAt;
+    private final long oldestEnqueuedAt;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+    private int entityCount;
+
+    /**
+     * @param recordKey Kafka record key of the batch
+     * @param topic IDs of the batch's feed/agency, for the record headers
+     * @param createdAt System.nanoTime() when the batch was opened, for the linger deadline
+     * @param oldestEnqueuedAt System.nanoTime() when its first message was handed to the bridge
+     * @param gtfsRealtimeVersion version written to the FeedMessage header
+     */
+    FeedMessageBatch(String recordKey, DigitransitTopic topic, long createdAt, long oldestEnqueuedAt,
+                     String gtfsRealtimeVersion) {
+        this.recordKey = recordKey;
+        this.topic = topic;
+        this.createdAt = createdAt;
+        this.oldestEnqueuedAt = oldestEnqueuedAt;
+        byte[] header = GtfsRealtime.FeedHeader.newBuilder()
+            .setGtfsRealtimeVersion(gtfsRealtimeVersion)
+            .setIncrementality(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL)
+            .setTimestamp(System.currentTimeMillis() / 1000)
+            .build()
+            .toByteArray();
+        writeField(HEADER_FIELD_TAG, header);
+    }
+
+    /**
+     * Appends an encoded FeedEntity.
+     */
+    void append(byte[] entity) {
+        writeField(ENTITY_FIELD_TAG, entity);
+        entityCount++;
+    }
+
+    String recordKey() {
+        return recordKey;
+    }
+
+    DigitransitTopic topic() {
+        return topic;
+    }
+
+    int entityCount() {
+        return entityCount;
+    }
+
+    int sizeBytes() {
+        return size;
+    }
+
+    long createdAt() {
+        return createdAt;
+    }
+
+    long oldestEnqueuedAt() {
+        return oldestEnqueuedAt;
+    }
+
+    /**
+     * Encoded FeedMessage.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void writeField(int tag, byte[] value) {
+        ensureCapacity(1 + 5 + value.length);
+        buffer[size++] = (byte) tag;
+        int length = value.length;
+        while ((length & ~0x7f) != 0) {
+            buffer[size++] = (byte) ((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        buffer[size++] = (byte) length;
+        System.arraycopy(value, 0, buffer, size, value.length);
+        size += value.length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
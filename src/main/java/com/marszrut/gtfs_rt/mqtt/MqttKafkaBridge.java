@@ -0,0 +1,405 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.marszrut.gtfs_rt.consumer.VehiclePositionRecordDecoder;
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the MQTT client from Kafka. {@link MqttVPConsumer} only parses the topic and hands the record
+ * to a bounded queue; dedicated workers drain it and publish with the protobuf KafkaTemplate.
+ * A Kafka stall therefore fills the queue instead of blocking the Paho callback thread until the broker
+ * drops the connection. Each worker has its own queue (mqtt.bridge.queue-capacity split evenly) and a
+ * vehicle always maps to the same worker, so one vehicle's updates are published in arrival order.
+ * When the vehicle's queue is full, mqtt.bridge.overflow-policy decides:
+ * - BLOCK: wait up to mqtt.bridge.max-block-ms for space, slowing the MQTT client down, then drop the message
+ * - DROP_NEWEST: drop the incoming message
+ * - DROP_OLDEST: drop the oldest queued message to make room (a newer position supersedes it anyway)
+ * Every send result is tracked, so Kafka failures are counted and logged instead of being lost.
+ *
+ * mqtt.bridge.framing selects the Kafka record layout on the vp-proto topic:
+ * - ENTITY: one record per MQTT message holding its FeedEntity, keyed by vehicle ID
+ * - FEED_MESSAGE: each worker packs the messages of one feed/agency into a FeedMessage record (see
+ *   {@link FeedMessageBatch}), flushed at mqtt.bridge.batch.max-entities, mqtt.bridge.batch.max-bytes or
+ *   after mqtt.bridge.batch.linger-ms. Vehicles are spread over mqtt.bridge.batch.shards record keys per
+ *   feed/agency, so one busy agency still uses several partitions while a vehicle always maps to the same key.
+ * Consumers understand both framings ({@link VehiclePositionRecordDecoder}), so the mode can be switched at any time.
+ *
+ * Metrics:
+ * - gtfs.mqtt.bridge.received - messages handed to the bridge (ingress rate)
+ * - gtfs.mqtt.bridge.dropped{reason=overflow|shutdown} - messages never sent to Kafka
+ * - gtfs.mqtt.bridge.queue.depth - messages waiting for a worker, over all queues
+ * - gtfs.mqtt.bridge.published{outcome=success|failure} - MQTT messages in completed Kafka sends
+ * - gtfs.mqtt.bridge.publish.latency - time from hand-off to Kafka acknowledgement (oldest message of a batch)
+ * - gtfs.mqtt.bridge.batch.entities - messages per FeedMessage record
+ */
+@Component
+public class MqttKafkaBridge implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttKafkaBridge.class);
+    private static final long POLL_TIMEOUT_MS = 100L;
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final String MQTT_TOPIC_HEADER = "mqttTopic";
+    private static final Header FRAMING_FEED_MESSAGE_HEADER = new RecordHeader(VehiclePositionRecordDecoder.FRAMING_HEADER,
+        VehiclePositionRecordDecoder.FRAMING_FEED_MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+    /**
+     * What to do with a message when the queue is full.
+     */
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP_NEWEST,
+        DROP_OLDEST
+    }
+
+    /**
+     * Layout of the records written to the vp-proto topic.
+     */
+    public enum Framing {
+        ENTITY,
+        FEED_MESSAGE
+    }
+
+    private record Pending(DigitransitTopic topic, byte[] payload, String mqttTopic, long enqueuedAt) {
+    }
+
+    private record BatchKey(String feedId, String agencyId, int shard) {
+    }
+
+    private final KafkaTemplate<String, byte[]> protoKafkaTemplate;
+    private final String protoTopic;
+    private final boolean topicHeader;
+    private final Framing framing;
+    private final int batchMaxEntities;
+    private final int batchMaxBytes;
+    private final long batchLingerNanos;
+    private final int batchShards;
+    private final String gtfsRealtimeVersion;
+    private final List<BlockingQueue<Pending>> queues;
+    private final OverflowPolicy overflowPolicy;
+    private final long maxBlockMs;
+    private final int workerCount;
+    private final int drainBatchSize;
+    private final long shutdownTimeoutMs;
+
+    private final Counter received;
+    private final Counter droppedOverflow;
+    private final Counter droppedShutdown;
+    private final Counter publishedSuccess;
+    private final Counter publishedFailure;
+    private final Timer publishLatency;
+    private final DistributionSummary batchEntities;
+
+    private final AtomicLong lastOverflowLog = new AtomicLong(System.nanoTime() - LOG_INTERVAL_NANOS);
+    private final AtomicLong lastFailureLog = new AtomicLong(System.nanoTime() - LOG_INTERVAL_NANOS);
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    public MqttKafkaBridge(KafkaTemplate<String, byte[]> protoKafkaTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${kafka.topics.vehicle-positions-proto}") String protoTopic,
+                           @Value("${mqtt.topic.header-enabled:true}") boolean topicHeader,
+                           @Value("${mqtt.bridge.queue-capacity:50000}") int queueCapacity,
+                           @Value("${mqtt.bridge.overflow-policy:BLOCK}") OverflowPolicy overflowPolicy,
+                           @Value("${mqtt.bridge.max-block-ms:100}") long maxBlockMs,
+                           @Value("${mqtt.bridge.workers:2}") int workerCount,
+                           @Value("${mqtt.bridge.drain-batch-size:500}") int drainBatchSize,
+                           @Value("${mqtt.bridge.shutdown-timeout-ms:5000}") long shutdownTimeoutMs,
+                           @Value("${mqtt.bridge.framing:ENTITY}") Framing framing,
+                           @Value("${mqtt.bridge.batch.max-entities:500}") int batchMaxEntities,
+                           @Value("${mqtt.bridge.batch.max-bytes:262144}") int batchMaxBytes,
+                           @Value("${mqtt.bridge.batch.linger-ms:50}") long batchLingerMs,
+                           @Value("${mqtt.bridge.batch.shards:8}") int batchShards,
+                           @Value("${gtfs.feed.version:2.0}") String gtfsRealtimeVersion) {
+        this.protoKafkaTemplate = protoKafkaTemplate;
+        this.protoTopic = protoTopic;
+        this.topicHeader = topicHeader;
+        this.framing = framing;
+        this.batchMaxEntities = batchMaxEntities;
+        this.batchMaxBytes = batchMaxBytes;
+        this.batchLingerNanos = TimeUnit.MILLISECONDS.toNanos(batchLingerMs);
+        this.batchShards = batchShards;
+        this.gtfsRealtimeVersion = gtfsRealtimeVersion;
+        this.overflowPolicy = overflowPolicy;
+        this.maxBlockMs = maxBlockMs;
+        this.workerCount = Math.max(1, workerCount);
+        int capacityPerWorker = Math.max(1, (queueCapacity + this.workerCount - 1) / this.workerCount);
+        this.queues = new ArrayList<>(this.workerCount);
+        for (int i = 0; i < this.workerCount; i++) {
+            queues.add(new ArrayBlockingQueue<>(capacityPerWorker));
+        }
+        this.drainBatchSize = drainBatchSize;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+
+        this.received = meterRegistry.counter("gtfs.mqtt.bridge.received");
+        this.droppedOverflow = meterRegistry.counter("gtfs.mqtt.bridge.dropped", "reason", "overflow");
+        this.droppedShutdown = meterRegistry.counter("gtfs.mqtt.bridge.dropped", "reason", "shutdown");
+        this.publishedSuccess = meterRegistry.counter("gtfs.mqtt.bridge.published", "outcome", "success");
+        this.publishedFailure = meterRegistry.counter("gtfs.mqtt.bridge.published", "outcome", "failure");
+        this.publishLatency = Timer.builder("gtfs.mqtt.bridge.publish.latency")
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+        this.batchEntities = DistributionSummary.builder("gtfs.mqtt.bridge.batch.entities")
+            .register(meterRegistry);
+        meterRegistry.gauge("gtfs.mqtt.bridge.queue.depth", this, MqttKafkaBridge::queuedMessages);
+    }
+
+    /**
+     * Hands a message to the publishing workers, applying the overflow policy if the queue is full.
+     * Called on the MQTT client thread.
+     *
+     * @param topic IDs parsed from the MQTT topic
+     * @param payload encoded FeedEntity
+     * @param mqttTopic MQTT topic, sent as a header in ENTITY framing if enabled
+     * @return true if the message was queued, false if it was dropped
+     */
+    public boolean submit(DigitransitTopic topic, byte[] payload, String mqttTopic) {
+        received.increment();
+        if (!running) {
+            droppedShutdown.increment();
+            return false;
+        }
+
+        Pending pending = new Pending(topic, payload, mqttTopic, System.nanoTime());
+        BlockingQueue<Pending> queue = queues.get(Math.floorMod(topic.vehicleId().hashCode(), workerCount));
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    if (queue.offer(pending, maxBlockMs, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            case DROP_NEWEST -> {
+                if (queue.offer(pending)) {
+                    return true;
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(pending)) {
+                    if (queue.poll() != null) {
+                        droppedOverflow.increment();
+                        logOverflow(queue);
+                    }
+                }
+                return true;
+            }
+        }
+
+        droppedOverflow.increment();
+        logOverflow(queue);
+        return false;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<Pending> queue = queues.get(i);
+            Thread worker = new Thread(() -> drain(queue), "mqtt-kafka-bridge-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("MQTT to Kafka bridge started: workers={}, queueCapacityPerWorker={}, overflowPolicy={}, framing={}",
+            workerCount, queues.get(0).remainingCapacity(), overflowPolicy, framing);
+    }
+
+    /**
+     * Stops accepting messages and lets the workers publish what is still queued, for up to
+     * mqtt.bridge.shutdown-timeout-ms. Whatever is left after that is counted as dropped.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        try {
+            for (Thread worker : workers) {
+                worker.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+
+        int remaining = queuedMessages();
+        queues.forEach(BlockingQueue::clear);
+        if (remaining > 0) {
+            droppedShutdown.increment(remaining);
+            logger.warn("MQTT to Kafka bridge stopped with {} unpublished messages", remaining);
+        }
+        protoKafkaTemplate.flush();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts before and stops after the MQTT inbound adapter (phase Integer.MAX_VALUE / 2), so no message
+     * arrives while the bridge is down and the queue is drained once input has stopped.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE / 4;
+    }
+
+    /**
+     * @return messages waiting for a worker, over all queues
+     */
+    int queuedMessages() {
+        int queued = 0;
+        for (BlockingQueue<Pending> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    private void drain(BlockingQueue<Pending> queue) {
+        List<Pending> batch = new ArrayList<>(drainBatchSize);
+        Map<BatchKey, FeedMessageBatch> open = framing == Framing.FEED_MESSAGE ? new HashMap<>() : null;
+        long pollTimeoutNanos = open != null
+            ? Math.min(TimeUnit.MILLISECONDS.toNanos(POLL_TIMEOUT_MS), Math.max(batchLingerNanos, 1L))
+            : TimeUnit.MILLISECONDS.toNanos(POLL_TIMEOUT_MS);
+        try {
+            while (running || !queue.isEmpty()) {
+                Pending first = queue.poll(pollTimeoutNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, drainBatchSize - 1);
+                    for (Pending pending : batch) {
+                        if (open == null) {
+                            publishEntity(pending);
+                        } else {
+                            append(open, pending);
+                        }
+                    }
+                    batch.clear();
+                }
+                if (open != null) {
+                    flushExpired(open);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (open != null) {
+                open.values().forEach(this::publishBatch);
+            }
+        }
+    }
+
+    private void publishEntity(Pending pending) {
+        DigitransitTopic topic = pending.topic();
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(protoTopic, topic.vehicleId(), pending.payload());
+        record.headers()
+            .add(new RecordHeader(VehiclePositionRecordDecoder.FEED_ID_HEADER, topic.feedId().utf8()))
+            .add(new RecordHeader(VehiclePositionRecordDecoder.AGENCY_ID_HEADER, topic.agencyId().utf8()));
+        if (topicHeader) {
+            record.headers().add(MQTT_TOPIC_HEADER, pending.mqttTopic().getBytes(StandardCharsets.UTF_8));
+        }
+        send(record, 1, pending.enqueuedAt());
+    }
+
+    private void append(Map<BatchKey, FeedMessageBatch> open, Pending pending) {
+        DigitransitTopic topic = pending.topic();
+        BatchKey key = new BatchKey(topic.feedId().value(), topic.agencyId().value(),
+            Math.floorMod(topic.vehicleId().hashCode(), batchShards));
+        FeedMessageBatch batch = open.computeIfAbsent(key,
+            k -> new FeedMessageBatch(k.feedId() + ":" + k.agencyId() + ":" + k.shard(), topic,
+                System.nanoTime(), pending.enqueuedAt(), gtfsRealtimeVersion));
+        batch.append(pending.payload());
+        if (batch.entityCount() >= batchMaxEntities || batch.sizeBytes() >= batchMaxBytes) {
+            open.remove(key);
+            publishBatch(batch);
+        }
+    }
+
+    private void flushExpired(Map<BatchKey, FeedMessageBatch> open) {
+        long now = System.nanoTime();
+        Iterator<FeedMessageBatch> batches = open.values().iterator();
+        while (batches.hasNext()) {
+            FeedMessageBatch batch = batches.next();
+            if (now - batch.createdAt() >= batchLingerNanos) {
+                batches.remove();
+                publishBatch(batch);
+            }
+        }
+    }
+
+    private void publishBatch(FeedMessageBatch batch) {
+        DigitransitTopic topic = batch.topic();
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(protoTopic, batch.recordKey(), batch.toByteArray());
+        record.headers()
+            .add(new RecordHeader(VehiclePositionRecordDecoder.FEED_ID_HEADER, topic.feedId().utf8()))
+            .add(new RecordHeader(VehiclePositionRecordDecoder.AGENCY_ID_HEADER, topic.agencyId().utf8()))
+            .add(FRAMING_FEED_MESSAGE_HEADER);
+        batchEntities.record(batch.entityCount());
+        send(record, batch.entityCount(), batch.oldestEnqueuedAt());
+    }
+
+    private void send(ProducerRecord<String, byte[]> record, int messages, long enqueuedAt) {
+        try {
+            protoKafkaTemplate.send(record).whenComplete((result, ex) -> {
+                publishLatency.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                if (ex == null) {
+                    publishedSuccess.increment(messages);
+                } else {
+                    onFailure(record, messages, ex);
+                }
+            });
+        } catch (Exception e) {
+            onFailure(record, messages, e);
+        }
+    }
+
+    private void onFailure(ProducerRecord<String, byte[]> record, int messages, Throwable error) {
+        publishedFailure.increment(messages);
+        if (shouldLog(lastFailureLog)) {
+            logger.error("Failed to publish MQTT messages to Kafka: topic={}, key={}, messages={}, error={}",
+                record.topic(), record.key(), messages, error.getMessage());
+        }
+    }
+
+    private void logOverflow(BlockingQueue<Pending> queue) {
+        if (shouldLog(lastOverflowLog)) {
+            logger.warn("MQTT to Kafka bridge queue full ({} queued, policy {}): dropping messages",
+                queue.size(), overflowPolicy);
+        }
+    }
+
+    /**
+     * Rate limit for per-message log lines, at most one per LOG_INTERVAL_NANOS; the counters keep the totals.
+     */
+    private static boolean shouldLog(AtomicLong lastLog) {
+        long now = System.nanoTime();
+        long last = lastLog.get();
+        return now - last >= LOG_INTERVAL_NANOS && lastLog.compareAndSet(last, now);
+    }
+}
@@ -1,35 +1,31 @@
 package com.marszrut.gtfs_rt.mqtt;
 
-import org.apache.kafka.clients.producer.ProducerRecord;
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.integration.annotation.ServiceActivator;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.messaging.Message;
 import org.springframework.stereotype.Service;
 
-import java.nio.charset.StandardCharsets;
-
 /**
  * Minimal MQTT consumer - receives protobuf from MQTT and pushes to Kafka.
  * Topic structure: /gtfsrt/vp/{feedId}/{agencyId}/.../{vehicleId}/...
  * Follows Digitransit MQTT topic format.
+ * Runs on the MQTT client thread, so it only parses the topic; building and publishing the Kafka records
+ * is done by {@link MqttKafkaBridge}. Topic IDs come from {@link DigitransitTopicParser}, whose interned
+ * header bytes are shared by all records.
  */
 @Service
 public class MqttVPConsumer {
 
     private static final Logger logger = LoggerFactory.getLogger(MqttVPConsumer.class);
-    private static final int MIN_TOPIC_PARTS = 14;
 
-    private final KafkaTemplate<String, byte[]> protoKafkaTemplate;
-    private final String protoTopic;
+    private final MqttKafkaBridge bridge;
+    private final DigitransitTopicParser topicParser;
 
-    public MqttVPConsumer(
-            KafkaTemplate<String, byte[]> protoKafkaTemplate,
-            @Value("${kafka.topics.vehicle-positions-proto}") String protoTopic) {
-        this.protoKafkaTemplate = protoKafkaTemplate;
-        this.protoTopic = protoTopic;
+    public MqttVPConsumer(MqttKafkaBridge bridge, DigitransitTopicParser topicParser) {
+        this.bridge = bridge;
+        this.topicParser = topicParser;
     }
 
     @ServiceActivator(inputChannel = "mqttInputChannel")
@@ -50,43 +46,18 @@ public class MqttVPConsumer {
             }
 
             // Parse Digitransit topic structure
-            String[] parts = mqttTopic.split("/");
-            if (parts.length < MIN_TOPIC_PARTS) {
-                logger.error("Invalid MQTT topic structure (expected {} parts, got {}): {}",
-                           MIN_TOPIC_PARTS, parts.length, mqttTopic);
+            DigitransitTopic topic = topicParser.parse(mqttTopic);
+            if (topic == null) {
+                logger.error("Invalid MQTT topic structure (expected at least {} levels with non-empty feedId, "
+                           + "agencyId and vehicleId): {}", DigitransitTopicParser.VEHICLE_LEVEL + 1, mqttTopic);
                 return;
             }
 
-            // Extract metadata from topic
-            String feedId = parts[3];
-            String agencyId = parts[4];
-            String vehicleId = parts[13];
-
-            // Validate extracted values
-            if (feedId.isEmpty() || agencyId.isEmpty() || vehicleId.isEmpty()) {
-                logger.error("Empty feedId, agencyId, or vehicleId in topic: {}", mqttTopic);
-                return;
+            if (bridge.submit(topic, protoPayload, mqttTopic)) {
+                logger.debug("Queued protobuf for Kafka: vehicleId={}, feedId={}, agencyId={}, payloadSize={}",
+                            topic.vehicleId(), topic.feedId().value(), topic.agencyId().value(), protoPayload.length);
             }
 
-            // Create Kafka record with metadata in headers
-            ProducerRecord<String, byte[]> record = new ProducerRecord<>(
-                protoTopic,
-                vehicleId,
-                protoPayload
-            );
-
-            record.headers()
-                .add("feedId", feedId.getBytes(StandardCharsets.UTF_8))
-                .add("agencyId", agencyId.getBytes(StandardCharsets.UTF_8))
-                .add("mqttTopic", mqttTopic.getBytes(StandardCharsets.UTF_8));
-
-            protoKafkaTemplate.send(record);
-
-            logger.debug("Pushed protobuf to Kafka: vehicleId={}, feedId={}, agencyId={}, payloadSize={}",
-                        vehicleId, feedId, agencyId, protoPayload.length);
-
-        } catch (ArrayIndexOutOfBoundsException e) {
-            logger.error("Failed to parse MQTT topic structure: topic={}, error={}", mqttTopic, e.getMessage());
         } catch (Exception e) {
             logger.error("Failed to process MQTT message: topic={}, error={}", mqttTopic, e.getMessage(), e);
         }
@@ -0,0 +1,146 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.context.IntegrationFlowContext;
+import org.springframework.integration.mqtt.inbound.Mqttv5PahoMessageDrivenChannelAdapter;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MQTT v5 inbound (mqtt.inbound.mode=V5) that spreads the vehicle topics over all instances.
+ * Opens mqtt.inbound.connections client connections, each subscribed to the shared subscription
+ * "$share/{mqtt.inbound.shared-group}/{mqtt.inbound.topic}". The broker delivers every message to one
+ * member of the group only, so replicas and connections split the load instead of each receiving everything,
+ * and ingest scales with both. All connections feed the same mqttInputChannel as the v3 adapter.
+ * The connections are registered as integration flows when the application starts and removed when it stops.
+ * <p>
+ * Per-vehicle order is not guaranteed: consecutive messages of one vehicle may go to different members,
+ * so an older position can reach Kafka and the cache after a newer one, until the vehicle's next update.
+ * Positions of one poll are still coalesced by timestamp in the cache. Where ordering matters, use a broker
+ * strategy that pins a topic to one member (e.g. EMQX {@code hash_topic}) or the V3 mode.
+ */
+@Component
+@ConditionalOnProperty(name = "mqtt.inbound.mode", havingValue = "V5")
+public class SharedSubscriptionInbound implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedSubscriptionInbound.class);
+
+    private final IntegrationFlowContext flowContext;
+    private final MessageChannel mqttInputChannel;
+    private final String brokerUrl;
+    private final String clientId;
+    private final String username;
+    private final String password;
+    private final int qos;
+    private final String topic;
+    private final String sharedGroup;
+    private final int connections;
+
+    private final List<String> flowIds = new ArrayList<>();
+    private volatile boolean running;
+
+    public SharedSubscriptionInbound(IntegrationFlowContext flowContext,
+                                     @Qualifier("mqttInputChannel") MessageChannel mqttInputChannel,
+                                     @Value("${mqtt.broker.url}") String brokerUrl,
+                                     @Value("${mqtt.client.id}") String clientId,
+                                     @Value("${mqtt.username:}") String username,
+                                     @Value("${mqtt.password:}") String password,
+                                     @Value("${mqtt.qos:1}") int qos,
+                                     @Value("${mqtt.inbound.topic:/gtfsrt/vp/#}") String topic,
+                                     @Value("${mqtt.inbound.shared-group:gtfs-rt}") String sharedGroup,
+                                     @Value("${mqtt.inbound.connections:4}") int connections) {
+        this.flowContext = flowContext;
+        this.mqttInputChannel = mqttInputChannel;
+        this.brokerUrl = brokerUrl;
+        this.clientId = clientId;
+        this.username = username;
+        this.password = password;
+        this.qos = qos;
+        this.topic = topic;
+        this.sharedGroup = sharedGroup;
+        this.connections = connections;
+    }
+
+    @Override
+    public void start() {
+        String sharedTopic = sharedTopic(sharedGroup, topic);
+        for (int i = 0; i < connections; i++) {
+            Mqttv5PahoMessageDrivenChannelAdapter adapter =
+                new Mqttv5PahoMessageDrivenChannelAdapter(connectionOptions(), clientId + "-" + i, sharedTopic);
+            adapter.setQos(qos);
+            adapter.setPayloadType(byte[].class);
+
+            String flowId = "mqttV5Inbound-" + i;
+            flowContext.registration(IntegrationFlow.from(adapter).channel(mqttInputChannel).get())
+                .id(flowId)
+                .autoStartup(false)
+                .register()
+                .start();
+            flowIds.add(flowId);
+        }
+        running = true;
+        logger.info("MQTT v5 inbound started: connections={}, subscription={}", connections, sharedTopic);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (String flowId : flowIds) {
+            try {
+                flowContext.remove(flowId);
+            } catch (Exception e) {
+                logger.warn("Failed to stop MQTT v5 inbound {}: {}", flowId, e.getMessage());
+            }
+        }
+        flowIds.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Same phase as the v3 inbound adapter: after {@link MqttKafkaBridge} on start, before it on stop.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE / 2;
+    }
+
+    /**
+     * Shared subscription filter for a topic filter, e.g. "$share/gtfs-rt//gtfsrt/vp/#" for "/gtfsrt/vp/#".
+     * The leading slash of Digitransit topics is part of the filter, hence the empty level.
+     */
+    static String sharedTopic(String group, String topic) {
+        return "$share/" + group + "/" + topic;
+    }
+
+    private MqttConnectionOptions connectionOptions() {
+        MqttConnectionOptions options = new MqttConnectionOptions();
+        options.setServerURIs(new String[]{brokerUrl});
+        // Shared subscription state lives on the broker, per-client sessions are not needed
+        options.setCleanStart(true);
+        options.setSessionExpiryInterval(0L);
+        options.setAutomaticReconnect(true);
+        options.setConnectionTimeout(30);
+        options.setKeepAliveInterval(60);
+
+        if (!username.isEmpty()) {
+            options.setUserName(username);
+            options.setPassword(password.getBytes(StandardCharsets.UTF_8));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,167 @@
+package com.marszrut.gtfs_rt.processing;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.util.GeoUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dead-band filter in front of the history writer.
+ * Keeps the last persisted state of every vehicle in memory and drops a position when the vehicle moved
+ * less than {@code minDistanceMeters} and its route, trip, stop, stop status and occupancy are unchanged.
+ * A keep-alive row is still written at least every {@code keepAlive}, so gaps in history always mean
+ * the vehicle stopped reporting. Out-of-order positions, and positions without a timestamp or coordinates,
+ * are passed through untouched.
+ * <p>
+ * State only advances in {@link #commit(List)}, after the rows are written, so a failed and redelivered
+ * batch is filtered against the same state again.
+ */
+@Component
+public class HistoryThinningFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryThinningFilter.class);
+
+    private final boolean enabled;
+    private final double minDistanceMeters;
+    private final long keepAliveMillis;
+    private final long stateTtlMillis;
+    private final Map<String, PersistedState> states = new ConcurrentHashMap<>();
+    private final Counter writtenCounter;
+    private final Counter droppedCounter;
+
+    public HistoryThinningFilter(MeterRegistry meterRegistry,
+                                 @Value("${gtfs.history.thinning.enabled:true}") boolean enabled,
+                                 @Value("${gtfs.history.thinning.min-distance-meters:15}") double minDistanceMeters,
+                                 @Value("${gtfs.history.thinning.keep-alive-seconds:60}") long keepAliveSeconds,
+                                 @Value("${gtfs.history.thinning.state-ttl-seconds:3600}") long stateTtlSeconds) {
+        this.enabled = enabled;
+        this.minDistanceMeters = minDistanceMeters;
+        this.keepAliveMillis = Duration.ofSeconds(keepAliveSeconds).toMillis();
+        this.stateTtlMillis = Duration.ofSeconds(stateTtlSeconds).toMillis();
+        this.writtenCounter = meterRegistry.counter("gtfs.history.thinning.rows", "outcome", "written");
+        this.droppedCounter = meterRegistry.counter("gtfs.history.thinning.rows", "outcome", "dropped");
+        meterRegistry.gauge("gtfs.history.thinning.tracked.vehicles", states, Map::size);
+    }
+
+    /**
+     * Selects the positions of a batch that carry new information.
+     * Positions of the same vehicle within the batch are compared against each other in order.
+     *
+     * @param positions decoded positions of one poll
+     * @return positions to persist, in their original order
+     */
+    public List<VehiclePosition> thin(List<VehiclePosition> positions) {
+        if (!enabled) {
+            return positions;
+        }
+
+        Map<String, PersistedState> pending = new HashMap<>();
+        List<VehiclePosition> retained = new ArrayList<>(positions.size());
+        for (VehiclePosition vp : positions) {
+            if (!isComparable(vp)) {
+                retained.add(vp);
+                continue;
+            }
+            String key = key(vp);
+            PersistedState last = pending.containsKey(key) ? pending.get(key) : states.get(key);
+            if (last == null || isSignificant(last, vp)) {
+                retained.add(vp);
+                if (last == null || isNewer(vp, last)) {
+                    pending.put(key, PersistedState.of(vp));
+                }
+            }
+        }
+
+        int dropped = positions.size() - retained.size();
+        if (dropped > 0) {
+            droppedCounter.increment(dropped);
+            logger.debug("History thinning dropped {} of {} positions", dropped, positions.size());
+        }
+        return retained;
+    }
+
+    /**
+     * Records positions as persisted. Call only after the write has committed.
+     *
+     * @param written positions returned by {@link #thin(List)} that were stored
+     */
+    public void commit(List<VehiclePosition> written) {
+        if (!enabled || written.isEmpty()) {
+            return;
+        }
+        for (VehiclePosition vp : written) {
+            if (!isComparable(vp)) {
+                continue;
+            }
+            PersistedState next = PersistedState.of(vp);
+            states.merge(key(vp), next, (previous, candidate) -> candidate.timestamp() > previous.timestamp() ? candidate : previous);
+        }
+        writtenCounter.increment(written.size());
+    }
+
+    /**
+     * Forgets vehicles that have not been persisted for {@code stateTtl}, bounding memory for retired vehicles.
+     */
+    @Scheduled(fixedDelayString = "${gtfs.history.thinning.sweep-interval-ms:60000}")
+    public void sweepStale() {
+        long cutoff = System.currentTimeMillis() - stateTtlMillis;
+        int before = states.size();
+        states.values().removeIf(state -> state.committedAt() < cutoff);
+        int removed = before - states.size();
+        if (removed > 0) {
+            logger.debug("Removed {} stale vehicles from history thinning state", removed);
+        }
+    }
+
+    private boolean isSignificant(PersistedState last, VehiclePosition vp) {
+        if (!isNewer(vp, last)) {
+            // Late or replayed position: not ours to judge against newer state
+            return true;
+        }
+        if (vp.getT().toEpochMilli() - last.timestamp() >= keepAliveMillis) {
+            return true;
+        }
+        if (!Objects.equals(last.routeId(), vp.getRid())
+            || !Objects.equals(last.tripId(), vp.getTid())
+            || !Objects.equals(last.stopId(), vp.getSid())
+            || last.stopStatus() != vp.getSs()
+            || !Objects.equals(last.occupancy(), vp.getOs())) {
+            return true;
+        }
+        return GeoUtils.distanceMeters(last.lat(), last.lon(), vp.getLat(), vp.getLon()) >= minDistanceMeters;
+    }
+
+    private static boolean isComparable(VehiclePosition vp) {
+        return vp.getT() != null && vp.getLat() != null && vp.getLon() != null;
+    }
+
+    private static boolean isNewer(VehiclePosition vp, PersistedState last) {
+        return vp.getT().toEpochMilli() > last.timestamp();
+    }
+
+    private static String key(VehiclePosition vp) {
+        return vp.getFid() + ':' + vp.getAid() + ':' + vp.getVid();
+    }
+
+    private record PersistedState(long timestamp, double lat, double lon, String routeId, String tripId,
+                                  String stopId, int stopStatus, Integer occupancy, long committedAt) {
+
+        static PersistedState of(VehiclePosition vp) {
+            return new PersistedState(vp.getT().toEpochMilli(), vp.getLat(), vp.getLon(), vp.getRid(), vp.getTid(),
+                vp.getSid(), vp.getSs(), vp.getOs(), System.currentTimeMillis());
+        }
+    }
+}
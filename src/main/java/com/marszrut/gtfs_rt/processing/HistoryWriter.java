@@ -1,44 +1,50 @@
 package com.marszrut.gtfs_rt.processing;
 
-import com.marszrut.gtfs_rt.repository.VehiclePositionRepository;
+import com.marszrut.gtfs_rt.repository.VehiclePositionBatchRepository;
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 
 /**
  * Service responsible for persisting vehicle position data to TimescaleDB.
  * This is the "slow path" - writes historical data for long-term storage and analysis.
+ * Batches from the slow-path listeners are written with multi-row INSERTs in a single transaction.
  */
 @Service
 public class HistoryWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(HistoryWriter.class);
-    private final VehiclePositionRepository repository;
+    private final VehiclePositionBatchRepository batchRepository;
 
 
-    HistoryWriter(VehiclePositionRepository repository) {
-        this.repository = repository;
+    HistoryWriter(VehiclePositionBatchRepository batchRepository) {
+        this.batchRepository = batchRepository;
     }
 
     /**
-     * Persists a vehicle position to TimescaleDB.
-     * Uses @Transactional to ensure data consistency.
+     * Persists a batch of vehicle positions to TimescaleDB in one transaction.
+     * Callers acknowledge the Kafka offsets only after this method returns, i.e. after commit.
+     * Positions already stored (same feed, vehicle and timestamp) are skipped, so retries and replays are safe.
      *
-     * @param vp the enriched vehicle position domain object
+     * @param positions the vehicle positions of one poll
+     * @return number of inserted rows, excluding skipped duplicates
      */
     @Transactional
-    public void persistHistory(VehiclePosition vp) {
+    public int persistHistoryBatch(List<VehiclePosition> positions) {
+        if (positions.isEmpty()) {
+            return 0;
+        }
         try {
-            repository.save(vp);
-            repository.flush(); // Force immediate write to database
-            logger.info("Persisted vehicle position to TimescaleDB: vehicleId={}, timestamp={}",
-                    vp.getVid(), vp.getT());
+            int inserted = batchRepository.insertAll(positions);
+            logger.debug("Persisted {} vehicle positions to TimescaleDB, {} duplicates skipped",
+                        inserted, positions.size() - inserted);
+            return inserted;
         } catch (Exception e) {
-            logger.error("Failed to persist vehicle position: vehicleId={}, error={}",
-                    vp.getVid(), e.getMessage(), e);
+            logger.error("Failed to persist batch of {} vehicle positions: error={}", positions.size(), e.getMessage());
             throw e;
         }
     }
@@ -1,12 +1,12 @@
 package com.marszrut.gtfs_rt.processing;
 
+import com.marszrut.gtfs_rt.cache.VehiclePositionCache;
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
+import java.util.List;
 
 /**
  * Service responsible for updating the current state of vehicle positions in Redis.
@@ -16,26 +16,22 @@ import java.time.Duration;
 public class StateUpdateService {
 
     private static final Logger logger = LoggerFactory.getLogger(StateUpdateService.class);
-    private static final String VEHICLE_POSITION_KEY_PREFIX = "vp:";
-    private static final Duration CACHE_TTL = Duration.ofMinutes(30); // Time-to-live for cache entries
 
-    private final RedisTemplate<String, VehiclePosition> redisTemplate;
+    private final VehiclePositionCache vehiclePositionCache;
 
-    public StateUpdateService(RedisTemplate<String, VehiclePosition> redisTemplate) {
-        this.redisTemplate = redisTemplate;
+    public StateUpdateService(VehiclePositionCache vehiclePositionCache) {
+        this.vehiclePositionCache = vehiclePositionCache;
     }
 
     /**
      * Updates the current state of a vehicle position in Redis.
-     * The key is constructed using the vehicle ID and the value is the domain object.
+     * The vehicle is stored under its feed/agency/vehicle key and registered in the feed/agency membership indexes.
      *
      * @param vehiclePosition the validated vehicle position domain object
      */
     public void updateCurrentState(VehiclePosition vehiclePosition) {
-        String key = buildRedisKey(vehiclePosition);
-
         try {
-            redisTemplate.opsForValue().set(key, vehiclePosition, CACHE_TTL);
+            vehiclePositionCache.put(vehiclePosition);
             logger.debug("Updated state for vehicle: {}", vehiclePosition.getVid());
         } catch (Exception e) {
             logger.error("Failed to update Redis state for vehicle: {}", vehiclePosition.getVid(), e);
@@ -44,21 +40,20 @@ public class StateUpdateService {
     }
 
     /**
-     * Builds a Redis key for a vehicle position.
-     * The format is "vp:{agencyId}:{vehicleId}" if agencyId is available,
-     * otherwise "vp:{vehicleId}".
+     * Updates the current state of a batch of vehicle positions in one pipelined Redis round trip.
+     * Positions of the same vehicle are coalesced to the newest one.
      *
-     * @param vehiclePosition the vehicle position domain object
-     * @return the Redis key
+     * @param vehiclePositions validated vehicle positions in arrival order
+     * @return number of vehicles written
      */
-    private String buildRedisKey(VehiclePosition vehiclePosition) {
-        StringBuilder keyBuilder = new StringBuilder(VEHICLE_POSITION_KEY_PREFIX);
-
-        if (vehiclePosition.getAid() != null && !vehiclePosition.getAid().isEmpty()) {
-            keyBuilder.append(vehiclePosition.getAid()).append(":");
+    public int updateCurrentStates(List<VehiclePosition> vehiclePositions) {
+        try {
+            int written = vehiclePositionCache.putAll(vehiclePositions);
+            logger.debug("Updated state for {} vehicles from {} positions", written, vehiclePositions.size());
+            return written;
+        } catch (Exception e) {
+            logger.error("Failed to update Redis state for batch of {} positions", vehiclePositions.size(), e);
+            throw new RuntimeException("Failed to update vehicle position state in Redis", e);
         }
-
-        keyBuilder.append(vehiclePosition.getVid());
-        return keyBuilder.toString();
     }
 }
@@ -0,0 +1,42 @@
+package com.marszrut.gtfs_rt.replay;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint controlling the slow-path DLQ replay.
+ * GET /actuator/dlqreplay returns progress; POST /actuator/dlqreplay/{action} with
+ * start, pause, resume or stop changes its state.
+ */
+@Component
+@Endpoint(id = "dlqreplay")
+public class SlowPathDlqReplayEndpoint {
+
+    private final SlowPathDlqReplayService replayService;
+
+    public SlowPathDlqReplayEndpoint(SlowPathDlqReplayService replayService) {
+        this.replayService = replayService;
+    }
+
+    @ReadOperation
+    public SlowPathDlqReplayService.ReplayStatus status() {
+        return replayService.status();
+    }
+
+    @WriteOperation
+    public SlowPathDlqReplayService.ReplayStatus control(@Selector String action) {
+        switch (action) {
+            case "start" -> replayService.start();
+            case "pause" -> replayService.pause();
+            case "resume" -> replayService.resume();
+            case "stop" -> replayService.stop();
+            default -> throw new InvalidEndpointRequestException("Unknown action: " + action,
+                "Action must be start, pause, resume or stop");
+        }
+        return replayService.status();
+    }
+}
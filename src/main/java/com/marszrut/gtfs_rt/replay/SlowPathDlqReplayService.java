@@ -0,0 +1,305 @@
+package com.marszrut.gtfs_rt.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marszrut.gtfs_rt.consumer.VehiclePositionRecordDecoder;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the slow-path DLQ into history after the cause of the failures (e.g. a database outage) is fixed.
+ * Drains the DLQ with its own consumer group in large polls, writes each poll with the batched
+ * (idempotent) history writer and commits the offsets after the write, so a stopped or failed replay
+ * resumes where it left off. Throughput is capped at {@code maxRecordsPerSecond} to leave database
+ * capacity for live ingest. Controlled through the {@code dlqreplay} actuator endpoint.
+ * <p>
+ * DLQ values are either JSON domain objects (JSON slow path) or FeedEntity protobuf (proto slow path,
+ * raw bytes, or base64 in a JSON string as written by older versions).
+ */
+@Service
+public class SlowPathDlqReplayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowPathDlqReplayService.class);
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    public enum State { IDLE, RUNNING, PAUSED, STOPPING, STOPPED, COMPLETED, FAILED }
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final VehiclePositionRecordDecoder decoder;
+    private final HistoryWriter historyWriter;
+    private final ObjectMapper objectMapper;
+    private final String dlqTopic;
+    private final String groupId;
+    private final int batchSize;
+    private final long maxRecordsPerSecond;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "dlq-replay"));
+
+    private final Counter replayedCounter;
+    private final Counter skippedCounter;
+    private final AtomicLong remaining = new AtomicLong();
+    private volatile double recordsPerSecond;
+    private volatile State state = State.IDLE;
+    private volatile boolean pauseRequested;
+    private volatile Instant startedAt;
+    private volatile String lastError;
+
+    public SlowPathDlqReplayService(@Qualifier("byteArrayConsumerFactory") ConsumerFactory<String, byte[]> consumerFactory,
+                                    VehiclePositionRecordDecoder decoder,
+                                    HistoryWriter historyWriter,
+                                    ObjectMapper objectMapper,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${kafka.topics.vehicle-positions.slow-path-dlq}") String dlqTopic,
+                                    @Value("${gtfs.dlq.replay.group-id:slow-path-dlq-replay}") String groupId,
+                                    @Value("${gtfs.dlq.replay.batch-size:5000}") int batchSize,
+                                    @Value("${gtfs.dlq.replay.max-records-per-second:5000}") long maxRecordsPerSecond) {
+        this.consumerFactory = consumerFactory;
+        this.decoder = decoder;
+        this.historyWriter = historyWriter;
+        this.objectMapper = objectMapper;
+        this.dlqTopic = dlqTopic;
+        this.groupId = groupId;
+        this.batchSize = batchSize;
+        this.maxRecordsPerSecond = maxRecordsPerSecond;
+        this.replayedCounter = meterRegistry.counter("gtfs.dlq.replay.replayed");
+        this.skippedCounter = meterRegistry.counter("gtfs.dlq.replay.skipped");
+        meterRegistry.gauge("gtfs.dlq.replay.remaining", remaining);
+        meterRegistry.gauge("gtfs.dlq.replay.rate", this, service -> service.recordsPerSecond);
+    }
+
+    /**
+     * Starts a replay from the group's committed offsets.
+     *
+     * @return false if a replay is already active
+     */
+    public synchronized boolean start() {
+        if (state == State.RUNNING || state == State.PAUSED || state == State.STOPPING) {
+            return false;
+        }
+        pauseRequested = false;
+        lastError = null;
+        startedAt = Instant.now();
+        state = State.RUNNING;
+        executor.execute(this::run);
+        logger.info("DLQ replay started: topic={}, group={}, batchSize={}, maxRecordsPerSecond={}",
+                   dlqTopic, groupId, batchSize, maxRecordsPerSecond);
+        return true;
+    }
+
+    public synchronized boolean pause() {
+        if (state != State.RUNNING) {
+            return false;
+        }
+        pauseRequested = true;
+        state = State.PAUSED;
+        logger.info("DLQ replay paused");
+        return true;
+    }
+
+    public synchronized boolean resume() {
+        if (state != State.PAUSED) {
+            return false;
+        }
+        pauseRequested = false;
+        state = State.RUNNING;
+        logger.info("DLQ replay resumed");
+        return true;
+    }
+
+    /**
+     * Stops after the current batch; committed progress is kept for the next start.
+     */
+    public synchronized boolean stop() {
+        if (state != State.RUNNING && state != State.PAUSED) {
+            return false;
+        }
+        state = State.STOPPING;
+        return true;
+    }
+
+    public ReplayStatus status() {
+        return new ReplayStatus(state, (long) replayedCounter.count(), (long) skippedCounter.count(),
+            remaining.get(), Math.round(recordsPerSecond), startedAt, lastError);
+    }
+
+    private void run() {
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(batchSize));
+        overrides.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+        try (Consumer<String, byte[]> consumer = consumerFactory.createConsumer(groupId, null, "-replay", overrides)) {
+            consumer.subscribe(List.of(dlqTopic));
+            long nextBatchAllowedAt = System.nanoTime();
+
+            while (state != State.STOPPING) {
+                if (pauseRequested) {
+                    // Keep polling while paused so the group membership stays alive
+                    consumer.pause(consumer.assignment());
+                    consumer.poll(POLL_TIMEOUT);
+                    continue;
+                }
+                consumer.resume(consumer.paused());
+
+                long batchStart = System.nanoTime();
+                ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty()) {
+                    if (updateRemaining(consumer) == 0 && !consumer.assignment().isEmpty()) {
+                        finish(State.COMPLETED);
+                        logger.info("DLQ replay completed: replayed={}, skipped={}",
+                                   (long) replayedCounter.count(), (long) skippedCounter.count());
+                        return;
+                    }
+                    continue;
+                }
+
+                replayBatch(records);
+                consumer.commitSync();
+                updateRemaining(consumer);
+
+                long elapsedNanos = System.nanoTime() - batchStart;
+                recordsPerSecond = records.count() * 1_000_000_000.0 / Math.max(elapsedNanos, 1);
+                nextBatchAllowedAt = throttle(nextBatchAllowedAt, records.count());
+            }
+            finish(State.STOPPED);
+            logger.info("DLQ replay stopped: replayed={}, remaining={}", (long) replayedCounter.count(), remaining.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(State.STOPPED);
+        } catch (Exception e) {
+            // Uncommitted batch is replayed again on the next start
+            lastError = e.getMessage();
+            finish(State.FAILED);
+            logger.error("DLQ replay failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void replayBatch(ConsumerRecords<String, byte[]> records) {
+        List<VehiclePosition> positions = new ArrayList<>(records.count());
+        for (ConsumerRecord<String, byte[]> record : records) {
+            if (decode(record, positions) == 0) {
+                skippedCounter.increment();
+            }
+        }
+
+        try {
+            int inserted = historyWriter.persistHistoryBatch(positions);
+            replayedCounter.increment(positions.size());
+            logger.debug("Replayed DLQ batch: records={}, inserted={}", records.count(), inserted);
+        } catch (DataIntegrityViolationException e) {
+            // Same isolation as the slow consumer: keep the good rows, skip the bad ones
+            for (VehiclePosition vp : positions) {
+                try {
+                    historyWriter.persistHistoryBatch(List.of(vp));
+                    replayedCounter.increment();
+                } catch (DataIntegrityViolationException rowError) {
+                    skippedCounter.increment();
+                    logger.warn("Skipping invalid DLQ row: vehicleId={}, timestamp={}, error={}",
+                               vp.getVid(), vp.getT(), rowError.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a DLQ record into {@code positions}; protobuf records may carry one entity or a whole FeedMessage.
+     *
+     * @return number of positions decoded, 0 if the record is skipped
+     */
+    private int decode(ConsumerRecord<String, byte[]> record, List<VehiclePosition> positions) {
+        byte[] value = record.value();
+        if (value == null || value.length == 0) {
+            return 0;
+        }
+        try {
+            if (value[0] == '{') {
+                positions.add(objectMapper.readValue(value, VehiclePosition.class));
+                return 1;
+            }
+            if (value[0] == '"') {
+                byte[] protobuf = Base64.getDecoder().decode(objectMapper.readValue(value, String.class));
+                return decoder.decode(new ConsumerRecord<>(record.topic(), record.partition(), record.offset(),
+                    record.timestamp(), record.timestampType(), ConsumerRecord.NULL_SIZE, protobuf.length,
+                    record.key(), protobuf, record.headers(), record.leaderEpoch()), positions);
+            }
+            return decoder.decode(record, positions);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Undecodable DLQ record - skipping: partition={}, offset={}, error={}",
+                       record.partition(), record.offset(), e.getMessage());
+            return 0;
+        }
+    }
+
+    private long updateRemaining(Consumer<String, byte[]> consumer) {
+        Set<TopicPartition> assignment = consumer.assignment();
+        long lag = 0;
+        for (Map.Entry<TopicPartition, Long> end : consumer.endOffsets(assignment).entrySet()) {
+            lag += Math.max(0, end.getValue() - consumer.position(end.getKey()));
+        }
+        remaining.set(lag);
+        return lag;
+    }
+
+    /**
+     * Sleeps so the long-run average stays at or below the configured rate.
+     *
+     * @return earliest start of the next batch
+     */
+    long throttle(long allowedAt, int records) throws InterruptedException {
+        if (maxRecordsPerSecond <= 0) {
+            return System.nanoTime();
+        }
+        long next = Math.max(allowedAt, System.nanoTime() - TimeUnit.SECONDS.toNanos(1))
+            + records * 1_000_000_000L / maxRecordsPerSecond;
+        long wait = next - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return next;
+    }
+
+    private synchronized void finish(State finalState) {
+        state = finalState;
+        pauseRequested = false;
+        recordsPerSecond = 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stop();
+        executor.shutdown();
+    }
+
+    /**
+     * Replay progress as reported by the actuator endpoint.
+     */
+    public record ReplayStatus(State state, long replayed, long skipped, long remaining,
+                               long recordsPerSecond, Instant startedAt, String lastError) {
+    }
+}
@@ -0,0 +1,151 @@
+package com.marszrut.gtfs_rt.repository;
+
+import com.marszrut.gtfs_rt.dto.RouteActivityDto;
+import com.marszrut.gtfs_rt.dto.StopHeadwayDto;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only queries over the analytics rollups created by Flyway V3
+ * (continuous aggregates on TimescaleDB, plain views otherwise). Never touches raw vehicle_positions.
+ */
+@Repository
+public class AnalyticsRepository {
+
+    /**
+     * Rollup resolution and the relation that holds it.
+     */
+    public enum Granularity {
+        MINUTE("vp_vehicle_activity_1m"),
+        HOUR("vp_vehicle_activity_1h");
+
+        private final String relation;
+
+        Granularity(String relation) {
+            this.relation = relation;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AnalyticsRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Vehicles in service, report count and average occupancy per route and bucket.
+     *
+     * @param granularity bucket size
+     * @param from inclusive range start
+     * @param to exclusive range end
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param routeId optional route ID filter
+     * @return one row per bucket and route, ordered by bucket then route
+     */
+    public List<RouteActivityDto> findRouteActivity(Granularity granularity, Instant from, Instant to,
+                                                    String feedId, String agencyId, String routeId) {
+        StringBuilder sql = new StringBuilder()
+            .append("SELECT bucket, feed_id, agency_id, route_id, count(*) AS vehicles, sum(samples) AS samples, ")
+            .append("sum(occupancy_sum)::double precision / nullif(sum(occupancy_samples), 0) AS avg_occupancy ")
+            .append("FROM ").append(granularity.relation)
+            .append(" WHERE bucket >= ? AND bucket < ?");
+        List<Object> params = new ArrayList<>(List.of(utc(from), utc(to)));
+        appendFilters(sql, params, feedId, agencyId, routeId);
+        sql.append(" GROUP BY bucket, feed_id, agency_id, route_id ORDER BY bucket, feed_id, agency_id, route_id");
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> new RouteActivityDto(
+            instant(rs, "bucket"),
+            rs.getString("feed_id"),
+            rs.getString("agency_id"),
+            rs.getString("route_id"),
+            rs.getLong("vehicles"),
+            rs.getLong("samples"),
+            nullableDouble(rs, "avg_occupancy")
+        ), params.toArray());
+    }
+
+    /**
+     * Observed arrivals per stop of one route with the headway to the previous arrival.
+     *
+     * @param from inclusive range start
+     * @param to exclusive range end
+     * @param routeId route ID
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param stopId optional stop ID filter
+     * @return arrivals ordered by stop then time
+     */
+    public List<StopHeadwayDto> findHeadways(Instant from, Instant to, String routeId,
+                                             String feedId, String agencyId, String stopId) {
+        // An arrival close to an hour boundary can appear in two buckets; keep its first report
+        StringBuilder sql = new StringBuilder()
+            .append("SELECT stop_id, trip_id, vehicle_id, arrived_at, ")
+            .append("EXTRACT(EPOCH FROM arrived_at - lag(arrived_at) OVER ")
+            .append("(PARTITION BY feed_id, agency_id, stop_id ORDER BY arrived_at))::bigint AS headway_seconds ")
+            .append("FROM (SELECT feed_id, agency_id, stop_id, trip_id, vehicle_id, min(arrived_at) AS arrived_at ")
+            .append("FROM vp_stop_arrivals_1h WHERE bucket >= ? AND bucket < ? AND arrived_at >= ? AND arrived_at < ?");
+        OffsetDateTime start = utc(from);
+        OffsetDateTime end = utc(to);
+        List<Object> params = new ArrayList<>(List.of(start.minusHours(1), end, start, end));
+        appendFilters(sql, params, feedId, agencyId, routeId);
+        if (stopId != null && !stopId.isEmpty()) {
+            sql.append(" AND stop_id = ?");
+            params.add(stopId);
+        }
+        sql.append(" GROUP BY feed_id, agency_id, stop_id, trip_id, vehicle_id) arrivals")
+            .append(" ORDER BY stop_id, arrived_at");
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> new StopHeadwayDto(
+            rs.getString("stop_id"),
+            rs.getString("trip_id"),
+            rs.getString("vehicle_id"),
+            instant(rs, "arrived_at"),
+            nullableLong(rs, "headway_seconds")
+        ), params.toArray());
+    }
+
+    private static void appendFilters(StringBuilder sql, List<Object> params,
+                                      String feedId, String agencyId, String routeId) {
+        if (feedId != null && !feedId.isEmpty()) {
+            sql.append(" AND feed_id = ?");
+            params.add(feedId);
+        }
+        if (agencyId != null && !agencyId.isEmpty()) {
+            sql.append(" AND agency_id = ?");
+            params.add(agencyId);
+        }
+        if (routeId != null && !routeId.isEmpty()) {
+            sql.append(" AND route_id = ?");
+            params.add(routeId);
+        }
+    }
+
+    private static OffsetDateTime utc(Instant instant) {
+        return OffsetDateTime.ofInstant(instant, ZoneOffset.UTC);
+    }
+
+    private static Double nullableDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Long nullableLong(ResultSet rs, String column) throws SQLException {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Instant instant(ResultSet rs, String column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column);
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+}
@@ -0,0 +1,113 @@
+package com.marszrut.gtfs_rt.repository;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Bulk writer for the vehicle_positions hypertable.
+ * Inserts rows with explicit multi-row INSERT statements, one statement per chunk, bypassing
+ * Hibernate (whose IDENTITY ids rule out insert batching). Ids are assigned by the BIGSERIAL default.
+ * Inserts are idempotent: rows whose (feed_id, vehicle_id, timestamp) already exist are skipped,
+ * so redelivered batches do not create duplicates.
+ * Must run inside the caller's transaction.
+ */
+@Repository
+public class VehiclePositionBatchRepository {
+
+    private static final String INSERT_PREFIX = "INSERT INTO vehicle_positions ("
+        + "feed_id, vehicle_id, agency_id, route_id, trip_id, direction_id, start_date, start_time, "
+        + "current_stop_id, current_stop_status, latitude, longitude, vehicle_label, license_plate, "
+        + "occupancy_status, timestamp) VALUES ";
+    private static final String ON_CONFLICT = " ON CONFLICT (feed_id, vehicle_id, timestamp) DO NOTHING";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 16;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int chunkSize;
+    private final String fullChunkSql;
+
+    public VehiclePositionBatchRepository(JdbcTemplate jdbcTemplate,
+                                          @Value("${gtfs.history.insert-chunk-size:500}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        // PostgreSQL allows at most 65535 bind parameters per statement
+        this.chunkSize = Math.min(chunkSize, 65535 / COLUMNS);
+        this.fullChunkSql = insertSql(this.chunkSize);
+    }
+
+    /**
+     * Inserts all positions that are not stored yet.
+     *
+     * @param positions rows to insert
+     * @return number of inserted rows, excluding rows skipped as duplicates
+     */
+    public int insertAll(List<VehiclePosition> positions) {
+        int inserted = 0;
+        for (int from = 0; from < positions.size(); from += chunkSize) {
+            List<VehiclePosition> chunk = positions.subList(from, Math.min(from + chunkSize, positions.size()));
+            String sql = chunk.size() == chunkSize ? fullChunkSql : insertSql(chunk.size());
+            inserted += jdbcTemplate.update(sql, ps -> bindChunk(ps, chunk));
+        }
+        return inserted;
+    }
+
+    private static void bindChunk(PreparedStatement ps, List<VehiclePosition> chunk) throws SQLException {
+        int index = 1;
+        for (VehiclePosition vp : chunk) {
+            ps.setString(index++, vp.getFid());
+            ps.setString(index++, vp.getVid());
+            ps.setString(index++, vp.getAid());
+            ps.setString(index++, vp.getRid());
+            ps.setString(index++, vp.getTid());
+            setInteger(ps, index++, vp.getDid());
+            ps.setString(index++, vp.getSd());
+            ps.setString(index++, vp.getSt());
+            ps.setString(index++, vp.getSid());
+            ps.setInt(index++, vp.getSs());
+            setDouble(ps, index++, vp.getLat());
+            setDouble(ps, index++, vp.getLon());
+            ps.setString(index++, vp.getVl());
+            ps.setString(index++, vp.getLp());
+            setInteger(ps, index++, vp.getOs());
+            ps.setObject(index++, vp.getT() != null ? OffsetDateTime.ofInstant(vp.getT(), ZoneOffset.UTC) : null);
+        }
+    }
+
+    private static void setInteger(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value != null) {
+            ps.setInt(index, value);
+        } else {
+            ps.setNull(index, Types.INTEGER);
+        }
+    }
+
+    private static void setDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value != null) {
+            ps.setDouble(index, value);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (ROW_PLACEHOLDERS.length() + 2)
+            + ON_CONFLICT.length());
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(ROW_PLACEHOLDERS);
+        }
+        sql.append(ON_CONFLICT);
+        return sql.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package com.marszrut.gtfs_rt.retry;
+
+import com.marszrut.gtfs_rt.consumer.VPSlowConsumer;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.ingestion.JsonVpSlowPathListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.listener.BatchAcknowledgingMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BiConsumer;
+
+/**
+ * Consumers of the slow-path retry tiers, one container per tier and payload type.
+ * Each container waits until the newest record of its poll is due, then hands the poll to the same
+ * handler as the main listener. Records of one tier share a delay, so waiting for the newest one
+ * never delays a later record; only that tier's container waits, never the main listeners.
+ * Failures are routed onward by the factory's error handler ({@link SlowPathRetryTopology#recoverer}).
+ */
+@Component
+public class SlowPathRetryListeners implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowPathRetryListeners.class);
+    private static final long MAX_POLL_INTERVAL_MARGIN_MS = 60_000L;
+
+    private final SlowPathRetryTopology topology;
+    private final List<ConcurrentMessageListenerContainer<?, ?>> containers = new ArrayList<>();
+    private volatile boolean running;
+
+    public SlowPathRetryListeners(SlowPathRetryTopology topology,
+                                  @Qualifier("protoSlowPathBatchKafkaListenerContainerFactory")
+                                  ConcurrentKafkaListenerContainerFactory<String, byte[]> protoFactory,
+                                  @Qualifier("slowPathBatchKafkaListenerContainerFactory")
+                                  ConcurrentKafkaListenerContainerFactory<String, VehiclePosition> jsonFactory,
+                                  VPSlowConsumer protoConsumer,
+                                  JsonVpSlowPathListener jsonListener,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${kafka.topics.vehicle-positions-proto}") String protoTopic,
+                                  @Value("${kafka.topics.vehicle-positions}") String jsonTopic,
+                                  @Value("${kafka.consumer.group-id-slow}") String protoGroupId,
+                                  @Value("${kafka.consumer.group-id-json-slow}") String jsonGroupId,
+                                  @Value("${kafka.retry.slow-path.max-poll-records:500}") int maxPollRecords) {
+        this.topology = topology;
+        for (int tier = 1; tier <= topology.tiers(); tier++) {
+            containers.add(createContainer(protoFactory, protoTopic, protoGroupId, tier, maxPollRecords,
+                meterRegistry, protoConsumer::processVehiclePositions));
+            containers.add(createContainer(jsonFactory, jsonTopic, jsonGroupId, tier, maxPollRecords,
+                meterRegistry, jsonListener::handleVpSlowPath));
+        }
+    }
+
+    private <V> ConcurrentMessageListenerContainer<String, V> createContainer(
+            ConcurrentKafkaListenerContainerFactory<String, V> factory, String originTopic, String groupId,
+            int tier, int maxPollRecords, MeterRegistry meterRegistry,
+            BiConsumer<List<ConsumerRecord<String, V>>, Acknowledgment> handler) {
+        String topic = topology.retryTopic(originTopic, tier);
+        Counter succeeded = meterRegistry.counter("gtfs.kafka.retry.succeeded",
+            "path", "slow", "tier", Integer.toString(tier));
+
+        ConcurrentMessageListenerContainer<String, V> container = factory.createContainer(topic);
+        container.getContainerProperties().setGroupId(groupId + "-retry-" + tier);
+        container.getContainerProperties().setKafkaConsumerProperties(consumerProperties(tier, maxPollRecords));
+        container.setBeanName("slowPathRetry-" + topic);
+        container.setupMessageListener((BatchAcknowledgingMessageListener<String, V>) (records, ack) -> {
+            if (!awaitDue(records, tier)) {
+                // Stopping: leave the poll unacknowledged so it is redelivered after restart
+                return;
+            }
+            handler.accept(records, ack);
+            succeeded.increment(records.size());
+        });
+        return container;
+    }
+
+    private Properties consumerProperties(int tier, int maxPollRecords) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(maxPollRecords));
+        // The listener may wait up to one tier delay per poll
+        properties.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG,
+            Long.toString(topology.delayMillis(tier) + MAX_POLL_INTERVAL_MARGIN_MS));
+        return properties;
+    }
+
+    /**
+     * Waits until the newest record of the poll is due.
+     *
+     * @return false if the listeners are stopping
+     */
+    private boolean awaitDue(List<? extends ConsumerRecord<?, ?>> records, int tier) {
+        if (records.isEmpty()) {
+            return true;
+        }
+        long dueAt = 0;
+        for (ConsumerRecord<?, ?> record : records) {
+            dueAt = Math.max(dueAt, topology.dueAtOf(record, tier));
+        }
+        try {
+            long wait;
+            while ((wait = dueAt - System.currentTimeMillis()) > 0) {
+                if (!running) {
+                    return false;
+                }
+                Thread.sleep(Math.min(wait, 1000L));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return running;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        containers.forEach(ConcurrentMessageListenerContainer::start);
+        logger.info("Started {} slow-path retry tier listeners", containers.size());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        containers.forEach(ConcurrentMessageListenerContainer::stop);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
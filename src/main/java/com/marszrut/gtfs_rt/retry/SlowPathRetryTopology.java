@@ -0,0 +1,133 @@
+package com.marszrut.gtfs_rt.retry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Non-blocking tiered retry topology for the slow path (history persistence).
+ * A record that fails on its main topic is published to retry tier 1 and the main listener moves on.
+ * Each tier is consumed by its own listener (see {@link SlowPathRetryListeners}) that waits out the
+ * tier's delay before reprocessing; a failure there moves the record to the next tier, and after the
+ * last tier to the slow-path DLQ.
+ * <p>
+ * Retry topics are named {@code <origin topic>.retry-<delay ms>}, e.g. {@code vp-proto.retry-30000}.
+ * Records carry their tier, origin topic and due time in headers.
+ */
+@Component
+public class SlowPathRetryTopology {
+
+    static final String TIER_HEADER = "gtfs-retry-tier";
+    static final String ORIGIN_TOPIC_HEADER = "gtfs-retry-origin-topic";
+    static final String DUE_AT_HEADER = "gtfs-retry-due-at";
+
+    private static final String DLQ_TIER = "dlq";
+
+    private final long[] delaysMillis;
+    private final String dlqTopic;
+    private final Map<String, Counter> routedCounters = new HashMap<>();
+
+    public SlowPathRetryTopology(MeterRegistry meterRegistry,
+                                 @Value("${kafka.retry.slow-path.delays-ms:5000,30000,300000}") long[] delaysMillis,
+                                 @Value("${kafka.topics.vehicle-positions.slow-path-dlq}") String dlqTopic) {
+        this.delaysMillis = Arrays.copyOf(delaysMillis, delaysMillis.length);
+        this.dlqTopic = dlqTopic;
+        for (int tier = 1; tier <= delaysMillis.length; tier++) {
+            routedCounters.put(Integer.toString(tier), routedCounter(meterRegistry, Integer.toString(tier)));
+        }
+        routedCounters.put(DLQ_TIER, routedCounter(meterRegistry, DLQ_TIER));
+    }
+
+    /**
+     * Creates the recoverer for slow-path error handlers: routes each failed record to its next tier.
+     *
+     * @param templates producers by value type, so retried records keep their original serialization
+     */
+    public DeadLetterPublishingRecoverer recoverer(Map<Class<?>, KafkaOperations<?, ?>> templates) {
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(templates,
+            (record, ex) -> destination(record));
+        recoverer.setHeadersFunction((record, ex) -> retryHeaders(record));
+        return recoverer;
+    }
+
+    public int tiers() {
+        return delaysMillis.length;
+    }
+
+    /**
+     * @param tier 1-based tier number
+     */
+    public long delayMillis(int tier) {
+        return delaysMillis[tier - 1];
+    }
+
+    /**
+     * @param originTopic main topic the records were first consumed from
+     * @param tier 1-based tier number
+     */
+    public String retryTopic(String originTopic, int tier) {
+        return originTopic + ".retry-" + delayMillis(tier);
+    }
+
+    TopicPartition destination(ConsumerRecord<?, ?> record) {
+        int next = tierOf(record) + 1;
+        if (next > tiers()) {
+            routedCounters.get(DLQ_TIER).increment();
+            return new TopicPartition(dlqTopic, -1);
+        }
+        routedCounters.get(Integer.toString(next)).increment();
+        // Partition chosen by key, so a vehicle's retries stay in order within a tier
+        return new TopicPartition(retryTopic(originTopicOf(record), next), -1);
+    }
+
+    Headers retryHeaders(ConsumerRecord<?, ?> record) {
+        int next = tierOf(record) + 1;
+        Headers headers = new RecordHeaders();
+        headers.add(ORIGIN_TOPIC_HEADER, originTopicOf(record).getBytes(StandardCharsets.UTF_8));
+        if (next <= tiers()) {
+            headers.add(TIER_HEADER, ByteBuffer.allocate(Integer.BYTES).putInt(next).array());
+            headers.add(DUE_AT_HEADER, ByteBuffer.allocate(Long.BYTES)
+                .putLong(System.currentTimeMillis() + delayMillis(next)).array());
+        }
+        return headers;
+    }
+
+    /**
+     * @return retry tier of the record, 0 for records from a main topic
+     */
+    static int tierOf(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(TIER_HEADER);
+        return header != null ? ByteBuffer.wrap(header.value()).getInt() : 0;
+    }
+
+    static String originTopicOf(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(ORIGIN_TOPIC_HEADER);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : record.topic();
+    }
+
+    /**
+     * @return epoch millis when the record may be retried, or its timestamp plus the tier delay without the header
+     */
+    long dueAtOf(ConsumerRecord<?, ?> record, int tier) {
+        Header header = record.headers().lastHeader(DUE_AT_HEADER);
+        return header != null ? ByteBuffer.wrap(header.value()).getLong() : record.timestamp() + delayMillis(tier);
+    }
+
+    private static Counter routedCounter(MeterRegistry meterRegistry, String tier) {
+        return meterRegistry.counter("gtfs.kafka.retry.routed", "path", "slow", "tier", tier);
+    }
+}
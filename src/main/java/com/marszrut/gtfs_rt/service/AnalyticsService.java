@@ -0,0 +1,81 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.marszrut.gtfs_rt.dto.RouteActivityDto;
+import com.marszrut.gtfs_rt.dto.StopHeadwayDto;
+import com.marszrut.gtfs_rt.repository.AnalyticsRepository;
+import com.marszrut.gtfs_rt.repository.AnalyticsRepository.Granularity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Historical analytics over the pre-aggregated vehicle position rollups.
+ * Validates the requested range so a query never scans more than {@code maxRange} of rollup buckets.
+ */
+@Service
+public class AnalyticsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyticsService.class);
+
+    private final AnalyticsRepository analyticsRepository;
+    private final Duration maxRange;
+
+    public AnalyticsService(AnalyticsRepository analyticsRepository,
+                            @Value("${gtfs.analytics.max-range-days:31}") long maxRangeDays) {
+        this.analyticsRepository = analyticsRepository;
+        this.maxRange = Duration.ofDays(maxRangeDays);
+    }
+
+    /**
+     * Route activity per bucket.
+     *
+     * @param granularity "1m" or "1h"
+     * @throws IllegalArgumentException on an unknown granularity or an invalid range
+     */
+    public List<RouteActivityDto> getRouteActivity(String granularity, Instant from, Instant to,
+                                                   String feedId, String agencyId, String routeId) {
+        Granularity resolved = parseGranularity(granularity);
+        validateRange(from, to);
+        logger.debug("Route activity query: granularity={}, from={}, to={}, feedId={}, agencyId={}, routeId={}",
+                    resolved, from, to, feedId, agencyId, routeId);
+        return analyticsRepository.findRouteActivity(resolved, from, to, feedId, agencyId, routeId);
+    }
+
+    /**
+     * Observed headways at the stops of a route.
+     *
+     * @throws IllegalArgumentException when the route is missing or the range is invalid
+     */
+    public List<StopHeadwayDto> getHeadways(Instant from, Instant to, String routeId,
+                                            String feedId, String agencyId, String stopId) {
+        if (routeId == null || routeId.isEmpty()) {
+            throw new IllegalArgumentException("routeId is required");
+        }
+        validateRange(from, to);
+        logger.debug("Headway query: from={}, to={}, routeId={}, feedId={}, agencyId={}, stopId={}",
+                    from, to, routeId, feedId, agencyId, stopId);
+        return analyticsRepository.findHeadways(from, to, routeId, feedId, agencyId, stopId);
+    }
+
+    private void validateRange(Instant from, Instant to) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        if (Duration.between(from, to).compareTo(maxRange) > 0) {
+            throw new IllegalArgumentException("Range exceeds " + maxRange.toDays() + " days");
+        }
+    }
+
+    private static Granularity parseGranularity(String granularity) {
+        return switch (granularity) {
+            case "1m" -> Granularity.MINUTE;
+            case "1h" -> Granularity.HOUR;
+            default -> throw new IllegalArgumentException("granularity must be 1m or 1h");
+        };
+    }
+}
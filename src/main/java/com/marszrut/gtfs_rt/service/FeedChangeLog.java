@@ -0,0 +1,123 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, versioned log of entity changes for one feed filter.
+ * Each recorded version holds the upserts and is_deleted tombstones that turn the previous
+ * dataset into the new one, so a client can catch up from any retained version with a
+ * DIFFERENTIAL feed. Only the newest {@code maxVersions} versions are kept.
+ * Thread-safe.
+ */
+public class FeedChangeLog {
+
+    private final int maxVersions;
+    private final Deque<VersionChanges> versions = new ArrayDeque<>();
+    private Map<String, byte[]> current = new HashMap<>();
+    private long latestVersion = -1;
+    private long floorVersion = -1;
+
+    public FeedChangeLog(int maxVersions) {
+        this.maxVersions = maxVersions;
+    }
+
+    /**
+     * Records the full dataset of a new version, diffing it against the previous one.
+     * The first recorded version only establishes the base state.
+     *
+     * @param version new version, greater than every previously recorded one
+     * @param entities complete dataset at that version
+     */
+    public synchronized void record(long version, List<CachedEntity> entities) {
+        Map<String, byte[]> next = new HashMap<>(entities.size() * 4 / 3 + 1);
+        for (CachedEntity entity : entities) {
+            next.put(entity.key(), entity.entity());
+        }
+
+        if (latestVersion < 0) {
+            current = next;
+            latestVersion = version;
+            floorVersion = version;
+            return;
+        }
+
+        List<CachedEntity> changes = new ArrayList<>();
+        for (CachedEntity entity : entities) {
+            if (!Arrays.equals(current.get(entity.key()), entity.entity())) {
+                changes.add(entity);
+            }
+        }
+        for (Map.Entry<String, byte[]> previous : current.entrySet()) {
+            if (!next.containsKey(previous.getKey())) {
+                changes.add(new CachedEntity(previous.getKey(), tombstone(previous.getValue())));
+            }
+        }
+
+        versions.addLast(new VersionChanges(version, changes));
+        while (versions.size() > maxVersions) {
+            floorVersion = versions.removeFirst().version();
+        }
+        current = next;
+        latestVersion = version;
+    }
+
+    /**
+     * Collects the changes made after {@code since}, keeping only the latest change per entity.
+     *
+     * @param since last version the client has seen
+     * @return changes ordered by key, or null when {@code since} is outside the retained window
+     */
+    public synchronized List<CachedEntity> changesSince(long since) {
+        if (latestVersion < 0 || since < floorVersion || since > latestVersion) {
+            return null;
+        }
+
+        Map<String, CachedEntity> merged = new LinkedHashMap<>();
+        for (VersionChanges entry : versions) {
+            if (entry.version() > since) {
+                for (CachedEntity change : entry.changes()) {
+                    merged.put(change.key(), change);
+                }
+            }
+        }
+
+        List<CachedEntity> changes = new ArrayList<>(merged.values());
+        changes.sort((a, b) -> a.key().compareTo(b.key()));
+        return changes;
+    }
+
+    public synchronized long latestVersion() {
+        return latestVersion;
+    }
+
+    /**
+     * Builds an is_deleted FeedEntity carrying the id of the removed entity.
+     */
+    private static byte[] tombstone(byte[] removed) {
+        String id;
+        try {
+            id = GtfsRealtime.FeedEntity.parseFrom(removed).getId();
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Change log holds an invalid FeedEntity", e);
+        }
+        return GtfsRealtime.FeedEntity.newBuilder()
+            .setId(id)
+            .setIsDeleted(true)
+            .build()
+            .toByteArray();
+    }
+
+    private record VersionChanges(long version, List<CachedEntity> changes) {
+    }
+}
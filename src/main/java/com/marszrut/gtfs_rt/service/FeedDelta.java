@@ -0,0 +1,11 @@
+package com.marszrut.gtfs_rt.service;
+
+/**
+ * Encoded DIFFERENTIAL FeedMessage bringing a client from one change-log version to another.
+ *
+ * @param version version the client is at after applying the delta
+ * @param protobuf encoded FeedMessage with the changed entities and is_deleted tombstones
+ * @param entityCount number of entities in the delta
+ */
+public record FeedDelta(long version, byte[] protobuf, int entityCount) {
+}
@@ -1,147 +1,139 @@
 package com.marszrut.gtfs_rt.service;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.transit.realtime.GtfsRealtime;
-import com.marszrut.gtfs_rt.converter.VPConverter;
-import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.cache.VehiclePositionCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Service for aggregating GTFS-RT feed data from Redis cache.
  * Builds complete FeedMessage for transit consumers.
+ * Entities are read from Redis as FeedEntity wire bytes and appended to the encoded header,
+ * so no per-entity protobuf builders are involved.
  */
 @Service
 public class FeedService {
 
     private static final Logger logger = LoggerFactory.getLogger(FeedService.class);
 
-    private final RedisTemplate<String, VehiclePosition> redisTemplate;
-    private final VPConverter converter;
+    private final VehiclePositionCache vehiclePositionCache;
     private final String feedVersion;
     private final String feedIncrementality;
 
-    public FeedService(RedisTemplate<String, VehiclePosition> redisTemplate,
-                       VPConverter converter,
+    public FeedService(VehiclePositionCache vehiclePositionCache,
                        @Value("${gtfs.feed.version}") String feedVersion,
                        @Value("${gtfs.feed.incrementality}") String feedIncrementality) {
-        this.redisTemplate = redisTemplate;
-        this.converter = converter;
+        this.vehiclePositionCache = vehiclePositionCache;
         this.feedVersion = feedVersion;
         this.feedIncrementality = feedIncrementality;
     }
 
     /**
-     * Builds a complete GTFS-RT FeedMessage with all vehicle positions from Redis.
+     * Retrieves vehicle positions from Redis as FeedEntity wire bytes.
+     * Only the vehicles registered in the matching feed/agency index are read.
+     * Entities are ordered by Redis key so that unchanged data always encodes to the same bytes.
      *
      * @param feedId optional feed ID filter
      * @param agencyId optional agency ID filter
-     * @return complete FeedMessage with header and entities
+     * @return list of encoded FeedEntity objects
      */
-    public GtfsRealtime.FeedMessage buildVehiclePositionFeed(String feedId, String agencyId) {
-        logger.debug("Building GTFS-RT feed for feedId={}, agencyId={}", feedId, agencyId);
+    public List<CachedEntity> getFeedEntities(String feedId, String agencyId) {
+        logger.debug("Reading GTFS-RT feed entities for feedId={}, agencyId={}", feedId, agencyId);
 
-        // Build feed header
-        GtfsRealtime.FeedHeader.Builder headerBuilder = GtfsRealtime.FeedHeader.newBuilder()
-            .setGtfsRealtimeVersion(feedVersion)
-            .setTimestamp(Instant.now().getEpochSecond());
-
-        // Set incrementality
-        if ("FULL_DATASET".equals(feedIncrementality)) {
-            headerBuilder.setIncrementality(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET);
-        } else if ("DIFFERENTIAL".equals(feedIncrementality)) {
-            headerBuilder.setIncrementality(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+        List<CachedEntity> entities = vehiclePositionCache.findEntities(feedId, agencyId);
+        if (entities.isEmpty()) {
+            logger.debug("No vehicle positions found in Redis for feedId={}, agencyId={}", feedId, agencyId);
         }
+        return entities;
+    }
 
-        // Retrieve all vehicle positions from Redis
-        List<GtfsRealtime.FeedEntity> entities = getVehiclePositionsFromRedis(feedId, agencyId);
-
-        logger.info("Built GTFS-RT feed with {} vehicle position entities", entities.size());
-
-        // Build and return complete feed message
-        return GtfsRealtime.FeedMessage.newBuilder()
-            .setHeader(headerBuilder.build())
-            .addAllEntity(entities)
-            .build();
+    /**
+     * Whether differential feeds are enabled (gtfs.feed.incrementality=DIFFERENTIAL).
+     * Full responses are still labelled FULL_DATASET; only change-log responses are DIFFERENTIAL.
+     */
+    public boolean isDifferentialEnabled() {
+        return "DIFFERENTIAL".equals(feedIncrementality);
     }
 
     /**
-     * Retrieves vehicle positions from Redis and converts to FeedEntity list.
+     * Encodes a full dataset FeedMessage from pre-encoded entities.
      *
-     * @param feedId optional feed ID filter
-     * @param agencyId optional agency ID filter
-     * @return list of FeedEntity objects
+     * @param entities encoded FeedEntity objects
+     * @return encoded FeedMessage
      */
-    private List<GtfsRealtime.FeedEntity> getVehiclePositionsFromRedis(String feedId, String agencyId) {
-        List<GtfsRealtime.FeedEntity> entities = new ArrayList<>();
+    public byte[] encodeFeed(List<CachedEntity> entities) {
+        return encodeFeed(entities, GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET);
+    }
 
-        // Get all keys matching the pattern "vp:*"
-        Set<String> keys = redisTemplate.keys("vp:*");
+    /**
+     * Encodes a FeedMessage from pre-encoded entities.
+     * Writes the header (field 1) and then appends every entity as a length-delimited field 2,
+     * which is exactly the wire format of a FeedMessage built through the protobuf API.
+     *
+     * @param entities encoded FeedEntity objects
+     * @param incrementality incrementality to declare in the header
+     * @return encoded FeedMessage
+     */
+    public byte[] encodeFeed(List<CachedEntity> entities, GtfsRealtime.FeedHeader.Incrementality incrementality) {
+        GtfsRealtime.FeedHeader header = buildHeader(incrementality);
 
-        if (keys == null || keys.isEmpty()) {
-            logger.warn("No vehicle positions found in Redis");
-            return entities;
+        int size = CodedOutputStream.computeMessageSize(GtfsRealtime.FeedMessage.HEADER_FIELD_NUMBER, header);
+        for (CachedEntity entity : entities) {
+            size += CodedOutputStream.computeByteArraySize(GtfsRealtime.FeedMessage.ENTITY_FIELD_NUMBER, entity.entity());
         }
 
-        logger.debug("Found {} vehicle position keys in Redis", keys.size());
-
-        // Retrieve each vehicle position and convert to FeedEntity
-        for (String key : keys) {
-            try {
-                VehiclePosition vp = redisTemplate.opsForValue().get(key);
-
-                if (vp != null) {
-                    // Apply filters if provided
-                    if (feedId != null && !feedId.isEmpty() && !feedId.equals(vp.getFid())) {
-                        continue;
-                    }
-                    if (agencyId != null && !agencyId.isEmpty() && !agencyId.equals(vp.getAid())) {
-                        continue;
-                    }
-
-                    // Convert to FeedEntity and add to list
-                    GtfsRealtime.FeedEntity entity = converter.entityToFeedEntity(vp);
-                    entities.add(entity);
-                }
-            } catch (Exception e) {
-                logger.error("Failed to retrieve or convert vehicle position for key {}: {}", key, e.getMessage());
+        byte[] feed = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(feed);
+        try {
+            output.writeMessage(GtfsRealtime.FeedMessage.HEADER_FIELD_NUMBER, header);
+            for (CachedEntity entity : entities) {
+                output.writeByteArray(GtfsRealtime.FeedMessage.ENTITY_FIELD_NUMBER, entity.entity());
             }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode FeedMessage", e);
         }
 
-        return entities;
+        logger.debug("Built GTFS-RT feed with {} vehicle position entities, {} bytes", entities.size(), size);
+        return feed;
     }
 
     /**
      * Gets the timestamp of the most recent vehicle position update.
+     * Reads the global last-write watermark, a single Redis GET.
      *
      * @return epoch timestamp of most recent update, or current time if none found
      */
     public long getLastModifiedTimestamp() {
-        Set<String> keys = redisTemplate.keys("vp:*");
-
-        if (keys == null || keys.isEmpty()) {
-            return Instant.now().getEpochSecond();
-        }
+        long watermark = getWatermark(null, null);
+        return watermark > 0 ? watermark / 1000 : Instant.now().getEpochSecond();
+    }
 
-        long maxTimestamp = 0;
-        for (String key : keys) {
-            VehiclePosition vp = redisTemplate.opsForValue().get(key);
-            if (vp != null && vp.getT() != null) {
-                long timestamp = vp.getT().getEpochSecond();
-                if (timestamp > maxTimestamp) {
-                    maxTimestamp = timestamp;
-                }
-            }
-        }
+    /**
+     * Gets the last-write watermark for the given filter.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @return epoch millis of the most recent cache write in scope, or 0 if none
+     */
+    public long getWatermark(String feedId, String agencyId) {
+        return vehiclePositionCache.getWatermark(feedId, agencyId);
+    }
 
-        return maxTimestamp > 0 ? maxTimestamp : Instant.now().getEpochSecond();
+    private GtfsRealtime.FeedHeader buildHeader(GtfsRealtime.FeedHeader.Incrementality incrementality) {
+        return GtfsRealtime.FeedHeader.newBuilder()
+            .setGtfsRealtimeVersion(feedVersion)
+            .setIncrementality(incrementality)
+            .setTimestamp(Instant.now().getEpochSecond())
+            .build();
     }
 }
-
@@ -0,0 +1,148 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.TextFormat;
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable, pre-encoded GTFS-RT feed for one feedId/agencyId filter.
+ * Built in the background by {@link FeedSnapshotService} and handed out as-is to every poller.
+ * The ASCII text variant is only needed for debugging, so it is rendered lazily once per snapshot.
+ * Gzip variants are likewise compressed at most once per snapshot, and every representation
+ * carries a strong ETag derived from the entity content digest.
+ */
+public final class FeedSnapshot {
+
+    private final byte[] protobuf;
+    private final byte[] contentDigest;
+    private final int entityCount;
+    private final long lastModified;
+    private final long builtAt;
+    private final long version;
+    private final String etagBase;
+
+    private volatile byte[] text;
+    private volatile byte[] protobufGzip;
+    private volatile byte[] textGzip;
+
+    public FeedSnapshot(byte[] protobuf, byte[] contentDigest, int entityCount, long lastModified, long builtAt,
+                        long version) {
+        this.protobuf = protobuf;
+        this.contentDigest = contentDigest;
+        this.entityCount = entityCount;
+        this.lastModified = lastModified;
+        this.builtAt = builtAt;
+        this.version = version;
+        this.etagBase = HexFormat.of().formatHex(contentDigest, 0, Math.min(contentDigest.length, 16));
+    }
+
+    /**
+     * Encoded FeedMessage bytes. Callers must not modify the returned array.
+     */
+    public byte[] protobuf() {
+        return protobuf;
+    }
+
+    /**
+     * FeedMessage in protobuf ASCII text format, rendered on first use.
+     */
+    public byte[] text() {
+        byte[] rendered = text;
+        if (rendered == null) {
+            try {
+                GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(protobuf);
+                rendered = TextFormat.printer().printToString(feedMessage).getBytes(StandardCharsets.UTF_8);
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalStateException("Snapshot contains an invalid FeedMessage", e);
+            }
+            text = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * Gzip-compressed protobuf bytes, compressed on first use.
+     */
+    public byte[] protobufGzip() {
+        byte[] compressed = protobufGzip;
+        if (compressed == null) {
+            compressed = gzip(protobuf);
+            protobufGzip = compressed;
+        }
+        return compressed;
+    }
+
+    /**
+     * Gzip-compressed ASCII text bytes, compressed on first use.
+     */
+    public byte[] textGzip() {
+        byte[] compressed = textGzip;
+        if (compressed == null) {
+            compressed = gzip(text());
+            textGzip = compressed;
+        }
+        return compressed;
+    }
+
+    /**
+     * Strong ETag (quoted) of one representation. Each format and content coding gets
+     * its own tag, since their bytes differ.
+     *
+     * @param textFormat true for the ASCII text format, false for protobuf
+     * @param gzip true for the gzip-encoded body
+     * @return quoted entity tag
+     */
+    public String etag(boolean textFormat, boolean gzip) {
+        return "\"" + etagBase + (textFormat ? "-txt" : "-pb") + (gzip ? "-gz" : "") + "\"";
+    }
+
+    /**
+     * SHA-256 over the entity section only, so two builds with the same vehicles compare equal
+     * even though their header timestamps differ.
+     */
+    public byte[] contentDigest() {
+        return contentDigest;
+    }
+
+    public int entityCount() {
+        return entityCount;
+    }
+
+    /**
+     * Epoch seconds when the entity content of this snapshot last changed.
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Epoch millis when the snapshot was encoded.
+     */
+    public long builtAt() {
+        return builtAt;
+    }
+
+    /**
+     * Change-log version of this snapshot; clients pass it back to request a differential feed.
+     */
+    public long version() {
+        return version;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream output = new GZIPOutputStream(buffer)) {
+            output.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to gzip feed snapshot", e);
+        }
+        return buffer.toByteArray();
+    }
+}
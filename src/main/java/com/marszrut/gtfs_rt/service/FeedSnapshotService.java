@@ -0,0 +1,322 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Materializes encoded GTFS-RT feeds in the background.
+ * Each distinct feedId/agencyId filter that has been requested gets its own {@link FeedSnapshot},
+ * rebuilt on a fixed cadence so request latency no longer depends on fleet size.
+ * A refresh tick only rebuilds when the filter's last-write watermark moved, plus a periodic
+ * full rebuild so that expired vehicles drop out of an otherwise idle feed.
+ * Filters that nobody polls for a while are evicted.
+ * Filters come straight from request parameters, so at most gtfs.feed.snapshot.max-filters are kept;
+ * a filter in which nothing was ever written (no watermark) or that arrives while the limit is reached
+ * is answered with a one-off build that is not cached, instead of growing the map.
+ * With differential feeds enabled every filter also keeps a {@link FeedChangeLog},
+ * fed from the same builds, from which DIFFERENTIAL deltas are served and memoized per version.
+ * Versions are only meaningful to the instance that issued them, so clients get them as opaque
+ * {@code <epoch>.<version>} tokens; a token from another replica or an earlier run of this one
+ * never matches the epoch and is answered with the full dataset.
+ */
+@Service
+public class FeedSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FeedSnapshotService.class);
+
+    private final FeedService feedService;
+    private final long idleEvictionMillis;
+    private final long fullRebuildIntervalMillis;
+    private final int maxVersions;
+    private final int maxSnapshots;
+    private final Map<SnapshotKey, SnapshotHolder> snapshots = new ConcurrentHashMap<>();
+    // Random per instance, so version tokens issued by other replicas or before a restart are rejected
+    private final String epoch = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+    private final AtomicLong versions = new AtomicLong();
+
+    public FeedSnapshotService(FeedService feedService,
+                               @Value("${gtfs.feed.snapshot.idle-eviction-seconds:300}") long idleEvictionSeconds,
+                               @Value("${gtfs.feed.snapshot.full-rebuild-interval-ms:5000}") long fullRebuildIntervalMillis,
+                               @Value("${gtfs.feed.differential.max-versions:120}") int maxVersions,
+                               @Value("${gtfs.feed.snapshot.max-filters:256}") int maxSnapshots) {
+        this.feedService = feedService;
+        this.idleEvictionMillis = idleEvictionSeconds * 1000L;
+        this.fullRebuildIntervalMillis = fullRebuildIntervalMillis;
+        this.maxVersions = maxVersions;
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    /**
+     * Returns the current snapshot for the given filter.
+     * The first request for a new filter builds it synchronously; later requests never wait for a build.
+     * Filters that are not kept (see class comment) are built for this request only.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @return latest materialized snapshot
+     */
+    public FeedSnapshot getSnapshot(String feedId, String agencyId) {
+        SnapshotKey key = SnapshotKey.of(feedId, agencyId);
+        SnapshotHolder holder = holder(key);
+        return holder != null ? currentSnapshot(holder) : buildOneOff(key);
+    }
+
+    /**
+     * Returns a DIFFERENTIAL feed with the changes made after the given version.
+     * Deltas are encoded once per (since, current version) pair and reused until the next change.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param sinceToken version token (see {@link #versionToken}) of the last feed the client has seen
+     * @return delta, or null when differential feeds are disabled, the filter is not kept,
+     *         the token was not issued by this instance or the version is no longer retained
+     */
+    public FeedDelta getDelta(String feedId, String agencyId, String sinceToken) {
+        if (!feedService.isDifferentialEnabled()) {
+            return null;
+        }
+        long since = parseVersionToken(sinceToken);
+        if (since < 0) {
+            return null;
+        }
+
+        SnapshotHolder holder = holder(SnapshotKey.of(feedId, agencyId));
+        if (holder == null) {
+            return null;
+        }
+        currentSnapshot(holder);
+
+        Map<Long, FeedDelta> memo = holder.deltas;
+        FeedDelta delta = memo.get(since);
+        if (delta != null) {
+            return delta;
+        }
+
+        long version;
+        List<CachedEntity> changes;
+        synchronized (holder) {
+            version = holder.changeLog.latestVersion();
+            changes = holder.changeLog.changesSince(since);
+            memo = holder.deltas;
+        }
+        if (changes == null) {
+            return null;
+        }
+
+        delta = new FeedDelta(version,
+            feedService.encodeFeed(changes, GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL),
+            changes.size());
+        if (memo.size() < maxVersions) {
+            memo.put(since, delta);
+        }
+        return delta;
+    }
+
+    /**
+     * Formats a snapshot or delta version as the opaque token handed to clients.
+     *
+     * @param version version issued by this instance
+     * @return {@code <epoch>.<version>}
+     */
+    public String versionToken(long version) {
+        return epoch + "." + version;
+    }
+
+    /**
+     * Parses a client token back into a version.
+     *
+     * @return version, or -1 when the token is malformed or carries another epoch
+     */
+    private long parseVersionToken(String token) {
+        int dot = epoch.length();
+        if (token.length() <= dot + 1 || !token.startsWith(epoch) || token.charAt(dot) != '.') {
+            return -1;
+        }
+        try {
+            long version = Long.parseLong(token.substring(dot + 1));
+            return version >= 0 ? version : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the filter's holder, registering it if the filter has data and the limit is not reached.
+     *
+     * @return holder, or null if the filter is not kept
+     */
+    private SnapshotHolder holder(SnapshotKey key) {
+        SnapshotHolder holder = snapshots.get(key);
+        if (holder == null) {
+            if (snapshots.size() >= maxSnapshots || feedService.getWatermark(key.feedId(), key.agencyId()) == 0) {
+                return null;
+            }
+            // The size check is repeated in the mapping function; concurrent first requests may still
+            // overshoot the limit by a few holders, which the idle eviction removes again
+            holder = snapshots.computeIfAbsent(key, k -> snapshots.size() < maxSnapshots ? newHolder(k) : null);
+            if (holder == null) {
+                return null;
+            }
+        }
+        holder.lastAccess = System.currentTimeMillis();
+        return holder;
+    }
+
+    private SnapshotHolder newHolder(SnapshotKey key) {
+        return new SnapshotHolder(key, new FeedChangeLog(maxVersions));
+    }
+
+    private FeedSnapshot currentSnapshot(SnapshotHolder holder) {
+        FeedSnapshot snapshot = holder.snapshot;
+        if (snapshot == null) {
+            synchronized (holder) {
+                if (holder.snapshot == null) {
+                    rebuild(holder, System.currentTimeMillis());
+                }
+                snapshot = holder.snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Builds a snapshot for a filter that is not kept. It gets a fresh version that no change log knows,
+     * so a client passing it back as {@code since} is answered with the full dataset.
+     */
+    private FeedSnapshot buildOneOff(SnapshotKey key) {
+        List<CachedEntity> entities = feedService.getFeedEntities(key.feedId(), key.agencyId());
+        logger.debug("Built uncached feed snapshot: feedId={}, agencyId={}, entities={}",
+                    key.feedId(), key.agencyId(), entities.size());
+        return newSnapshot(entities, contentDigest(entities), versions.incrementAndGet());
+    }
+
+    /**
+     * Rebuilds every active snapshot whose data changed and evicts filters that have not been requested recently.
+     * A failed rebuild keeps serving the previous snapshot.
+     */
+    @Scheduled(fixedDelayString = "${gtfs.feed.snapshot.refresh-interval-ms:250}")
+    public void refreshSnapshots() {
+        long now = System.currentTimeMillis();
+
+        for (SnapshotHolder holder : snapshots.values()) {
+            if (now - holder.lastAccess > idleEvictionMillis) {
+                snapshots.remove(holder.key);
+                logger.debug("Evicted idle feed snapshot: feedId={}, agencyId={}", holder.key.feedId(), holder.key.agencyId());
+                continue;
+            }
+
+            try {
+                synchronized (holder) {
+                    boolean fullRebuildDue = now - holder.lastBuild >= fullRebuildIntervalMillis;
+                    if (fullRebuildDue || feedService.getWatermark(holder.key.feedId(), holder.key.agencyId()) != holder.watermark) {
+                        rebuild(holder, now);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Failed to refresh feed snapshot: feedId={}, agencyId={}, error={}",
+                            holder.key.feedId(), holder.key.agencyId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the holder's snapshot. The watermark is read before the entities,
+     * so a write racing with the build is picked up by the next tick.
+     * When the entity content is unchanged the previous snapshot is kept as-is,
+     * so its bytes, version and Last-Modified time stay identical between refreshes.
+     */
+    private void rebuild(SnapshotHolder holder, long now) {
+        SnapshotKey key = holder.key;
+        long watermark = feedService.getWatermark(key.feedId(), key.agencyId());
+        List<CachedEntity> entities = feedService.getFeedEntities(key.feedId(), key.agencyId());
+        byte[] contentDigest = contentDigest(entities);
+
+        FeedSnapshot previous = holder.snapshot;
+        if (previous == null || !Arrays.equals(previous.contentDigest(), contentDigest)) {
+            long version = versions.incrementAndGet();
+            if (feedService.isDifferentialEnabled()) {
+                holder.changeLog.record(version, entities);
+                holder.deltas = new ConcurrentHashMap<>();
+            }
+
+            FeedSnapshot snapshot = newSnapshot(entities, contentDigest, version);
+            // Compress off the request path; most pollers ask for gzip
+            snapshot.protobufGzip();
+            holder.snapshot = snapshot;
+
+            logger.debug("Materialized feed snapshot: feedId={}, agencyId={}, version={}, entities={}, bytes={}",
+                        key.feedId(), key.agencyId(), version, snapshot.entityCount(), snapshot.protobuf().length);
+        }
+
+        holder.watermark = watermark;
+        holder.lastBuild = now;
+    }
+
+    private FeedSnapshot newSnapshot(List<CachedEntity> entities, byte[] contentDigest, long version) {
+        return new FeedSnapshot(
+            feedService.encodeFeed(entities),
+            contentDigest,
+            entities.size(),
+            Instant.now().getEpochSecond(),
+            System.currentTimeMillis(),
+            version
+        );
+    }
+
+    private static byte[] contentDigest(List<CachedEntity> entities) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        for (CachedEntity entity : entities) {
+            digest.update(entity.entity());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Normalized filter: null and empty mean "no filter".
+     */
+    private record SnapshotKey(String feedId, String agencyId) {
+
+        static SnapshotKey of(String feedId, String agencyId) {
+            return new SnapshotKey(
+                feedId == null || feedId.isEmpty() ? null : feedId,
+                agencyId == null || agencyId.isEmpty() ? null : agencyId
+            );
+        }
+    }
+
+    private static final class SnapshotHolder {
+
+        private final SnapshotKey key;
+        private volatile FeedSnapshot snapshot;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private final FeedChangeLog changeLog;
+        private volatile Map<Long, FeedDelta> deltas = new ConcurrentHashMap<>();
+        private long watermark;
+        private long lastBuild;
+
+        SnapshotHolder(SnapshotKey key, FeedChangeLog changeLog) {
+            this.key = key;
+            this.changeLog = changeLog;
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package com.marszrut.gtfs_rt.service;
 
+import com.marszrut.gtfs_rt.cache.VehicleKeys;
+import com.marszrut.gtfs_rt.cache.VehiclePositionCache;
 import com.marszrut.gtfs_rt.domain.VehiclePosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.TimeUnit;
 
 @Service
 public class VPService {
@@ -16,18 +16,15 @@ public class VPService {
     private static final Logger logger = LoggerFactory.getLogger(VPService.class);
 
     private final KafkaTemplate<String, VehiclePosition> kafkaTemplate;
-    private final RedisTemplate<String, VehiclePosition> redisTemplate;
+    private final VehiclePositionCache vehiclePositionCache;
     private final String topic;
-    private final int cacheTtlSeconds;
 
     public VPService(KafkaTemplate<String, VehiclePosition> kafkaTemplate,
-                     RedisTemplate<String, VehiclePosition> redisTemplate,
-                     @Value("${kafka.topics.vehicle-positions}") String topic,
-                     @Value("${gtfs.feed.cache.ttl-seconds}") int cacheTtlSeconds) {
+                     VehiclePositionCache vehiclePositionCache,
+                     @Value("${kafka.topics.vehicle-positions}") String topic) {
         this.kafkaTemplate = kafkaTemplate;
-        this.redisTemplate = redisTemplate;
+        this.vehiclePositionCache = vehiclePositionCache;
         this.topic = topic;
-        this.cacheTtlSeconds = cacheTtlSeconds;
     }
 
     /**
@@ -46,16 +43,15 @@ public class VPService {
     }
 
     /**
-     * Caches vehicle position in Redis with TTL.
-     * Key pattern: "vp:{vehicleId}"
+     * Caches vehicle position in Redis with TTL and registers it in the feed/agency indexes.
+     * Key pattern: "vp:{feedId:agencyId}:{vehicleId}", see {@link VehicleKeys}
      *
      * @param vp vehicle position to cache
      */
     private void cacheInRedis(VehiclePosition vp) {
         try {
-            String redisKey = "vp:" + vp.getVid();
-            redisTemplate.opsForValue().set(redisKey, vp, cacheTtlSeconds * 2L, TimeUnit.SECONDS);
-            logger.debug("Cached VehiclePosition in Redis with key: {}", redisKey);
+            vehiclePositionCache.put(vp);
+            logger.debug("Cached VehiclePosition in Redis with key: {}", VehicleKeys.vehicleKey(vp));
         } catch (Exception e) {
             logger.error("Failed to cache vehicle position in Redis: vehicleId={}, error={}",
                         vp.getVid(), e.getMessage());
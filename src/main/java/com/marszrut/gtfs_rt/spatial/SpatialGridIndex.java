@@ -0,0 +1,244 @@
+package com.marszrut.gtfs_rt.spatial;
+
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.cache.VehiclePositionUpdatedEvent;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.util.GeoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * In-process uniform grid over the latest vehicle positions, for viewport (bounding box) and radius queries.
+ * Maintained incrementally from {@link VehiclePositionUpdatedEvent}s: a vehicle moving to another cell
+ * is removed from its old cell in the same update. Entries expire with their cache entry and are
+ * purged by a periodic sweep; queries skip expired entries in the meantime.
+ * Cells are {@code cellSizeDegrees} squares in lat/lon; queries only visit the cells overlapping the area.
+ * Update events only cover this instance's writes, so {@link SpatialIndexSynchronizer} also loads
+ * the whole cache at startup and periodically, adding vehicles written by other replicas.
+ */
+@Component
+public class SpatialGridIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpatialGridIndex.class);
+
+    private final VPConverter converter;
+    private final double cellSizeDegrees;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> cells = new ConcurrentHashMap<>();
+
+    public SpatialGridIndex(VPConverter converter,
+                            @Value("${gtfs.spatial.cell-size-degrees:0.01}") double cellSizeDegrees) {
+        this.converter = converter;
+        this.cellSizeDegrees = cellSizeDegrees;
+    }
+
+    @EventListener
+    public void onVehiclePositionUpdated(VehiclePositionUpdatedEvent event) {
+        VehiclePosition vp = event.vehiclePosition();
+        if (vp.getLat() == null || vp.getLon() == null) {
+            return;
+        }
+        put(event.key(), vp, System.currentTimeMillis() + event.ttl().toMillis());
+    }
+
+    /**
+     * Adds or moves a vehicle. Updates of the same key are serialized by the entry map.
+     */
+    void put(String key, VehiclePosition vp, long expiresAt) {
+        put(key, vp, expiresAt, false);
+    }
+
+    /**
+     * Adds or moves a vehicle read back from the cache. An entry expiring later than {@code expiresAt}
+     * came from an update made after the read started and is kept.
+     */
+    void seed(String key, VehiclePosition vp, long expiresAt) {
+        put(key, vp, expiresAt, true);
+    }
+
+    private void put(String key, VehiclePosition vp, long expiresAt, boolean keepNewer) {
+        long cell = cellOf(vp.getLat(), vp.getLon());
+        entries.compute(key, (k, previous) -> {
+            if (keepNewer && previous != null && previous.expiresAt() > expiresAt) {
+                return previous;
+            }
+            if (previous != null && previous.cell() != cell) {
+                removeFromCell(previous.cell(), k);
+            }
+            if (previous == null || previous.cell() != cell) {
+                addToCell(cell, k);
+            }
+            return new Entry(vp, cell, expiresAt);
+        });
+    }
+
+    /**
+     * Finds live vehicles inside a bounding box.
+     *
+     * @param minLat southern edge
+     * @param minLon western edge
+     * @param maxLat northern edge
+     * @param maxLon eastern edge
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @return matching vehicles as FeedEntity wire bytes, ordered by key
+     */
+    public List<CachedEntity> findInBoundingBox(double minLat, double minLon, double maxLat, double maxLon,
+                                                String feedId, String agencyId) {
+        return toEntities(search(minLat, minLon, maxLat, maxLon, feedId, agencyId,
+            vp -> vp.getLat() >= minLat && vp.getLat() <= maxLat && vp.getLon() >= minLon && vp.getLon() <= maxLon));
+    }
+
+    /**
+     * Finds live vehicles within a radius of a point.
+     *
+     * @param lat center latitude
+     * @param lon center longitude
+     * @param radiusMeters search radius in meters
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @return matching vehicles as FeedEntity wire bytes, ordered by key
+     */
+    public List<CachedEntity> findWithinRadius(double lat, double lon, double radiusMeters,
+                                               String feedId, String agencyId) {
+        double latDelta = radiusMeters / GeoUtils.METERS_PER_DEGREE_LAT;
+        double cosLat = Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        double lonDelta = Math.min(180.0, latDelta / cosLat);
+
+        return toEntities(search(lat - latDelta, lon - lonDelta, lat + latDelta, lon + lonDelta, feedId, agencyId,
+            vp -> GeoUtils.distanceMeters(lat, lon, vp.getLat(), vp.getLon()) <= radiusMeters));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops expired vehicles from the grid.
+     */
+    @Scheduled(fixedDelayString = "${gtfs.spatial.sweep-interval-ms:10000}")
+    public void sweepExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+            if (candidate.getValue().expiresAt() <= now) {
+                String key = candidate.getKey();
+                Entry expired = entries.computeIfPresent(key, (k, entry) -> {
+                    if (entry.expiresAt() > now) {
+                        return entry;
+                    }
+                    removeFromCell(entry.cell(), k);
+                    return null;
+                });
+                if (expired == null) {
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            logger.debug("Removed {} expired vehicles from spatial index, {} remaining", removed, entries.size());
+        }
+    }
+
+    private List<Map.Entry<String, VehiclePosition>> search(double minLat, double minLon, double maxLat, double maxLon,
+                                                            String feedId, String agencyId,
+                                                            Predicate<VehiclePosition> inside) {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, VehiclePosition>> matches = new ArrayList<>();
+
+        long minRow = index(Math.max(minLat, -90.0));
+        long maxRow = index(Math.min(maxLat, 90.0));
+        long minCol = index(Math.max(minLon, -180.0));
+        long maxCol = index(Math.min(maxLon, 180.0));
+
+        if ((maxRow - minRow + 1) * (maxCol - minCol + 1) > cells.size()) {
+            // Area spans more cells than are occupied: scanning the occupied ones is cheaper
+            for (Map.Entry<Long, Set<String>> cell : cells.entrySet()) {
+                collect(cell.getKey(), cell.getValue(), now, feedId, agencyId, inside, matches);
+            }
+        } else {
+            for (long row = minRow; row <= maxRow; row++) {
+                for (long col = minCol; col <= maxCol; col++) {
+                    long cell = cellId(row, col);
+                    Set<String> keys = cells.get(cell);
+                    if (keys != null) {
+                        collect(cell, keys, now, feedId, agencyId, inside, matches);
+                    }
+                }
+            }
+        }
+
+        matches.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+        return matches;
+    }
+
+    private void collect(long cell, Set<String> keys, long now, String feedId, String agencyId,
+                         Predicate<VehiclePosition> inside,
+                         List<Map.Entry<String, VehiclePosition>> matches) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            // A vehicle being moved can briefly sit in two cells; only its current cell counts
+            if (entry == null || entry.cell() != cell || entry.expiresAt() <= now) {
+                continue;
+            }
+            VehiclePosition vp = entry.vehiclePosition();
+            if ((feedId == null || feedId.isEmpty() || feedId.equals(vp.getFid()))
+                && (agencyId == null || agencyId.isEmpty() || agencyId.equals(vp.getAid()))
+                && inside.test(vp)) {
+                matches.add(Map.entry(key, vp));
+            }
+        }
+    }
+
+    private List<CachedEntity> toEntities(List<Map.Entry<String, VehiclePosition>> matches) {
+        List<CachedEntity> entities = new ArrayList<>(matches.size());
+        for (Map.Entry<String, VehiclePosition> match : matches) {
+            entities.add(new CachedEntity(match.getKey(), converter.entityToFeedEntity(match.getValue()).toByteArray()));
+        }
+        return entities;
+    }
+
+    private void addToCell(long cell, String key) {
+        // Mutate inside compute so a concurrent removal of the emptied cell cannot drop the key
+        cells.compute(cell, (c, keys) -> {
+            Set<String> members = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            members.add(key);
+            return members;
+        });
+    }
+
+    private void removeFromCell(long cell, String key) {
+        cells.computeIfPresent(cell, (c, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private long cellOf(double lat, double lon) {
+        return cellId(index(lat), index(lon));
+    }
+
+    private long index(double degrees) {
+        return (long) Math.floor(degrees / cellSizeDegrees);
+    }
+
+    private static long cellId(long row, long col) {
+        return (row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    private record Entry(VehiclePosition vehiclePosition, long cell, long expiresAt) {
+    }
+}
@@ -0,0 +1,75 @@
+package com.marszrut.gtfs_rt.spatial;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.cache.VehicleKeys;
+import com.marszrut.gtfs_rt.cache.VehiclePositionCache;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Loads every cached vehicle into the {@link SpatialGridIndex}: first right after startup, so area queries
+ * work before the first updates arrive, then every gtfs.spatial.resync-interval-ms.
+ * The index is otherwise fed only by this instance's writes, so with several replicas sharing the Kafka
+ * partitions the resync is what brings in the vehicles written elsewhere; they lag by up to one interval.
+ * Loaded vehicles expire one cache TTL after the read, the latest their cache entry can expire.
+ */
+@Component
+public class SpatialIndexSynchronizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpatialIndexSynchronizer.class);
+
+    private final SpatialGridIndex spatialGridIndex;
+    private final VehiclePositionCache vehiclePositionCache;
+    private final VPConverter converter;
+    private final long entryTtlMillis;
+
+    public SpatialIndexSynchronizer(SpatialGridIndex spatialGridIndex,
+                                    VehiclePositionCache vehiclePositionCache,
+                                    VPConverter converter,
+                                    @Value("${gtfs.feed.cache.entry-ttl-seconds:60}") long entryTtlSeconds) {
+        this.spatialGridIndex = spatialGridIndex;
+        this.vehiclePositionCache = vehiclePositionCache;
+        this.converter = converter;
+        this.entryTtlMillis = entryTtlSeconds * 1000L;
+    }
+
+    /**
+     * Reads all live vehicles from the cache into the index, keeping entries updated during the read.
+     */
+    @Scheduled(fixedDelayString = "${gtfs.spatial.resync-interval-ms:30000}")
+    public void resync() {
+        long expiresAt = System.currentTimeMillis() + entryTtlMillis;
+        List<CachedEntity> cached;
+        try {
+            cached = vehiclePositionCache.findEntities(null, null);
+        } catch (Exception e) {
+            logger.warn("Failed to load vehicles into spatial index: {}", e.getMessage());
+            return;
+        }
+
+        int loaded = 0;
+        for (CachedEntity value : cached) {
+            try {
+                GtfsRealtime.FeedEntity entity = GtfsRealtime.FeedEntity.parseFrom(value.entity());
+                if (!entity.hasVehicle() || !entity.getVehicle().hasPosition()) {
+                    continue;
+                }
+                VehiclePosition vp = converter.mapFromFeedEntity(entity,
+                    VehicleKeys.feedIdOf(value.key()), VehicleKeys.agencyIdOf(value.key()));
+                spatialGridIndex.seed(value.key(), vp, expiresAt);
+                loaded++;
+            } catch (Exception e) {
+                logger.error("Failed to load cached vehicle {} into spatial index: {}", value.key(), e.getMessage());
+            }
+        }
+        logger.debug("Loaded {} cached vehicles into spatial index, {} indexed", loaded, spatialGridIndex.size());
+    }
+}
@@ -0,0 +1,95 @@
+package com.marszrut.gtfs_rt.spool;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+/**
+ * Circuit breaker for history writes to PostgreSQL.
+ * Opens after {@code failureThreshold} consecutive availability failures; while open, writes skip the
+ * database. After {@code openDuration} a single caller is let through as a probe (half-open):
+ * success closes the circuit, failure opens it again. Callers must settle every probe: a data error
+ * still proves the database is reachable and counts as success, otherwise no caller is ever let through.
+ */
+@Component
+public class DatabaseCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseCircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openDurationMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+
+    public DatabaseCircuitBreaker(MeterRegistry meterRegistry,
+                                  @Value("${gtfs.history.db-circuit.failure-threshold:3}") int failureThreshold,
+                                  @Value("${gtfs.history.db-circuit.open-duration-ms:10000}") long openDurationMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+        meterRegistry.gauge("gtfs.history.db.circuit.state", this, breaker -> breaker.state().ordinal());
+    }
+
+    /**
+     * @return true if the caller may try the database now
+     */
+    public synchronized boolean allowRequest() {
+        return switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> false;
+            case OPEN -> {
+                if (System.currentTimeMillis() < openUntil) {
+                    yield false;
+                }
+                state = State.HALF_OPEN;
+                yield true;
+            }
+        };
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Database circuit closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                logger.warn("Database circuit opened after {} consecutive failures", consecutiveFailures);
+            }
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openDurationMillis;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * Whether an exception means the database is unreachable, as opposed to a problem with the data.
+     */
+    public static boolean isUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException
+                || cause instanceof TransientDataAccessResourceException
+                || cause instanceof RecoverableDataAccessException
+                || cause instanceof CannotCreateTransactionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,327 @@
+package com.marszrut.gtfs_rt.spool;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only spool of vehicle positions on local disk, used by the slow path while the database is down.
+ * Records are appended to memory-mapped segment files of {@code segmentSizeBytes}; a full segment is
+ * sealed and a new one started. Segments are drained oldest first and deleted once written to the database.
+ * <p>
+ * Frame layout: {@code int length, int crc32, length bytes of JSON}. A zero length marks the end of a
+ * segment; a frame with a bad checksum (torn write) ends it as well. Segments left over from a previous
+ * run are picked up for draining at startup.
+ */
+@Component
+public class HistorySpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistorySpool.class);
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSizeBytes;
+    private final long maxBytes;
+    private final ObjectMapper objectMapper;
+    private final Deque<Segment> sealed = new ArrayDeque<>();
+    private final Counter spooledCounter;
+    private final Counter rejectedCounter;
+    private Segment active;
+    private long nextSequence;
+    private long sealedBytes;
+
+    public HistorySpool(ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${gtfs.history.spool.enabled:false}") boolean enabled,
+                        @Value("${gtfs.history.spool.directory:./data/history-spool}") Path directory,
+                        @Value("${gtfs.history.spool.segment-size-bytes:67108864}") int segmentSizeBytes,
+                        @Value("${gtfs.history.spool.max-bytes:2147483648}") long maxBytes) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.maxBytes = maxBytes;
+        this.spooledCounter = meterRegistry.counter("gtfs.history.spool.records.spooled");
+        this.rejectedCounter = meterRegistry.counter("gtfs.history.spool.records.rejected");
+        meterRegistry.gauge("gtfs.history.spool.bytes", this, HistorySpool::spooledBytes);
+        meterRegistry.gauge("gtfs.history.spool.segments", this, HistorySpool::segmentCount);
+
+        if (enabled) {
+            recover();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends a batch and flushes it to disk. The batch is stored whole or not at all.
+     *
+     * @param positions positions to spool
+     * @return false when the spool is disabled or the batch would exceed the size cap
+     */
+    public synchronized boolean append(List<VehiclePosition> positions) {
+        if (!enabled) {
+            return false;
+        }
+        List<byte[]> payloads = new ArrayList<>(positions.size());
+        long needed = 0;
+        for (VehiclePosition vp : positions) {
+            byte[] payload = serialize(vp);
+            if (payload.length + FRAME_HEADER_BYTES + Integer.BYTES > segmentSizeBytes) {
+                throw new IllegalArgumentException("Spool record larger than segment: " + payload.length);
+            }
+            payloads.add(payload);
+            needed += payload.length + FRAME_HEADER_BYTES;
+        }
+        if (spooledBytes() + needed > maxBytes) {
+            rejectedCounter.increment(positions.size());
+            logger.warn("History spool full ({} of {} bytes) - rejecting {} positions",
+                       spooledBytes(), maxBytes, positions.size());
+            return false;
+        }
+
+        for (byte[] payload : payloads) {
+            // Keep room for the zero end marker
+            if (active.buffer.remaining() < payload.length + FRAME_HEADER_BYTES + Integer.BYTES) {
+                rotate();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            active.buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            active.records++;
+        }
+        active.buffer.force();
+        spooledCounter.increment(positions.size());
+        return true;
+    }
+
+    /**
+     * Drains the oldest segment into {@code sink} in chunks of {@code batchSize} and deletes it.
+     * If the sink throws, the chunks already written are remembered and the rest is retried on the next call.
+     *
+     * @param sink writes a chunk to the database, throwing on failure
+     * @return number of records drained
+     */
+    public int drainOldest(Consumer<List<VehiclePosition>> sink, int batchSize) {
+        Segment segment;
+        synchronized (this) {
+            if (!enabled) {
+                return 0;
+            }
+            if (sealed.isEmpty() && active.records > 0) {
+                rotate();
+            }
+            segment = sealed.peekFirst();
+        }
+        if (segment == null) {
+            return 0;
+        }
+
+        int drained = 0;
+        List<VehiclePosition> chunk = new ArrayList<>(batchSize);
+        int position = segment.drainPosition;
+        int next;
+        while ((next = readFrame(segment, position, chunk)) >= 0) {
+            position = next;
+            if (chunk.size() == batchSize) {
+                sink.accept(chunk);
+                drained += chunk.size();
+                segment.drainPosition = position;
+                chunk = new ArrayList<>(batchSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            sink.accept(chunk);
+            drained += chunk.size();
+        }
+
+        synchronized (this) {
+            sealed.removeFirst();
+            sealedBytes -= segment.usedBytes;
+        }
+        delete(segment);
+        return drained;
+    }
+
+    public synchronized long spooledBytes() {
+        return sealedBytes + (active != null ? active.buffer.position() : 0);
+    }
+
+    public synchronized int segmentCount() {
+        return sealed.size() + (active != null && active.records > 0 ? 1 : 0);
+    }
+
+    /**
+     * Reads one frame at {@code position} into {@code out}.
+     *
+     * @return position of the next frame, or -1 at the end of the segment
+     */
+    private int readFrame(Segment segment, int position, List<VehiclePosition> out) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (position + FRAME_HEADER_BYTES > buffer.limit()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + FRAME_HEADER_BYTES + length > buffer.limit()) {
+            return -1;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(position + FRAME_HEADER_BYTES, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+            logger.warn("Corrupt frame in spool segment {} at {} - ignoring rest of segment", segment.path, position);
+            return -1;
+        }
+        try {
+            out.add(objectMapper.readValue(payload, VehiclePosition.class));
+        } catch (IOException e) {
+            logger.warn("Unreadable record in spool segment {} at {}: {}", segment.path, position, e.getMessage());
+        }
+        return position + FRAME_HEADER_BYTES + length;
+    }
+
+    /**
+     * Finds the end of the valid frames of a recovered segment.
+     */
+    private static int endOf(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + FRAME_HEADER_BYTES <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_HEADER_BYTES + length > buffer.limit()) {
+                break;
+            }
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private void recover() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> leftovers;
+            try (Stream<Path> files = Files.list(directory)) {
+                leftovers = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+            }
+            for (Path path : leftovers) {
+                Segment segment = map(path, FileChannel.MapMode.READ_ONLY, Files.size(path));
+                segment.usedBytes = endOf(segment);
+                sealed.addLast(segment);
+                sealedBytes += segment.usedBytes;
+                nextSequence = Math.max(nextSequence, sequenceOf(path) + 1);
+            }
+            if (!leftovers.isEmpty()) {
+                logger.info("History spool recovered {} segments ({} bytes) from {}", leftovers.size(), sealedBytes, directory);
+            }
+            active = createSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot initialize history spool in " + directory, e);
+        }
+    }
+
+    private void rotate() {
+        active.buffer.force();
+        active.usedBytes = active.buffer.position();
+        sealed.addLast(active);
+        sealedBytes += active.usedBytes;
+        try {
+            active = createSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create history spool segment", e);
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mapping past the end extends the (sparse) file; the mapping outlives the channel
+            return new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSizeBytes));
+        }
+    }
+
+    private static Segment map(Path path, FileChannel.MapMode mode, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Segment(path, channel.map(mode, 0, size));
+        }
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private byte[] serialize(VehiclePosition vp) {
+        try {
+            return objectMapper.writeValueAsBytes(vp);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serialize vehicle position for spool", e);
+        }
+    }
+
+    private static void delete(Segment segment) {
+        try {
+            // The mapping is released by GC; on Linux the deleted file's space is freed then
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Cannot delete drained spool segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (active == null) {
+            return;
+        }
+        if (active.records == 0) {
+            delete(active);
+        } else {
+            active.buffer.force();
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int records;
+        private int usedBytes;
+        private int drainPosition;
+
+        private Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
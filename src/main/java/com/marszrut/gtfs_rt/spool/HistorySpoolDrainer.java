@@ -0,0 +1,100 @@
+package com.marszrut.gtfs_rt.spool;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Loads spooled history back into the database once it is reachable.
+ * Each run drains whole segments, oldest first, with the batched history writer; rows that made it into
+ * the database before a crash are skipped by the idempotent insert. Runs only while the database circuit
+ * admits requests, so the drainer doubles as the half-open probe when no live traffic arrives.
+ */
+@Component
+public class HistorySpoolDrainer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistorySpoolDrainer.class);
+
+    private final HistorySpool spool;
+    private final HistoryWriter historyWriter;
+    private final DatabaseCircuitBreaker circuitBreaker;
+    private final int batchSize;
+    private final int maxSegmentsPerRun;
+    private final Counter drainedCounter;
+    private volatile double recordsPerSecond;
+
+    public HistorySpoolDrainer(HistorySpool spool,
+                               HistoryWriter historyWriter,
+                               DatabaseCircuitBreaker circuitBreaker,
+                               MeterRegistry meterRegistry,
+                               @Value("${gtfs.history.spool.drain-batch-size:5000}") int batchSize,
+                               @Value("${gtfs.history.spool.drain-max-segments-per-run:4}") int maxSegmentsPerRun) {
+        this.spool = spool;
+        this.historyWriter = historyWriter;
+        this.circuitBreaker = circuitBreaker;
+        this.batchSize = batchSize;
+        this.maxSegmentsPerRun = maxSegmentsPerRun;
+        this.drainedCounter = meterRegistry.counter("gtfs.history.spool.records.drained");
+        meterRegistry.gauge("gtfs.history.spool.drain.rate", this, drainer -> drainer.recordsPerSecond);
+    }
+
+    @Scheduled(fixedDelayString = "${gtfs.history.spool.drain-interval-ms:1000}")
+    public void drain() {
+        if (!spool.isEnabled() || spool.segmentCount() == 0) {
+            recordsPerSecond = 0;
+            return;
+        }
+        if (!circuitBreaker.allowRequest()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long drained = 0;
+        try {
+            for (int i = 0; i < maxSegmentsPerRun && spool.segmentCount() > 0; i++) {
+                drained += spool.drainOldest(this::persistChunk, batchSize);
+            }
+            circuitBreaker.recordSuccess();
+            if (drained > 0) {
+                logger.info("Drained {} spooled positions, {} bytes still spooled", drained, spool.spooledBytes());
+            }
+        } catch (RuntimeException e) {
+            if (DatabaseCircuitBreaker.isUnavailable(e)) {
+                circuitBreaker.recordFailure();
+                logger.warn("Spool drain interrupted, database unavailable: {}", e.getMessage());
+            } else {
+                // The database answered; settle a half-open probe so the circuit does not stay half-open
+                circuitBreaker.recordSuccess();
+                logger.error("Spool drain failed, retrying next run: {}", e.getMessage(), e);
+            }
+        } finally {
+            recordsPerSecond = drained * 1_000_000_000.0 / Math.max(System.nanoTime() - start, 1);
+        }
+    }
+
+    private void persistChunk(List<VehiclePosition> chunk) {
+        try {
+            historyWriter.persistHistoryBatch(chunk);
+        } catch (DataIntegrityViolationException e) {
+            // Same isolation as the slow consumer, so one bad row cannot wedge the spool
+            for (VehiclePosition vp : chunk) {
+                try {
+                    historyWriter.persistHistoryBatch(List.of(vp));
+                } catch (DataIntegrityViolationException rowError) {
+                    logger.error("Data integrity violation - dropping spooled row: vehicleId={}, timestamp={}, error={}",
+                                vp.getVid(), vp.getT(), rowError.getMessage());
+                }
+            }
+        }
+        drainedCounter.increment(chunk.size());
+    }
+}
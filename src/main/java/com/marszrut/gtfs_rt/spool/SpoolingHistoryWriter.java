@@ -0,0 +1,66 @@
+package com.marszrut.gtfs_rt.spool;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Slow-path entry point for history writes: the batched {@link HistoryWriter} guarded by the
+ * {@link DatabaseCircuitBreaker}, with the {@link HistorySpool} as fallback.
+ * While the circuit is open, batches go straight to the spool and the caller acknowledges them as usual;
+ * a batch that fails because the database is unreachable is spooled too. Data errors and failures
+ * with the spool disabled or full are rethrown to the caller's error handling.
+ */
+@Service
+public class SpoolingHistoryWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingHistoryWriter.class);
+
+    private final HistoryWriter historyWriter;
+    private final HistorySpool spool;
+    private final DatabaseCircuitBreaker circuitBreaker;
+
+    public SpoolingHistoryWriter(HistoryWriter historyWriter, HistorySpool spool, DatabaseCircuitBreaker circuitBreaker) {
+        this.historyWriter = historyWriter;
+        this.spool = spool;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Persists a batch to the database, or to the spool while the database is unavailable.
+     *
+     * @param positions the vehicle positions of one poll
+     * @return number of rows inserted into the database (0 when spooled)
+     */
+    public int persistHistoryBatch(List<VehiclePosition> positions) {
+        if (positions.isEmpty()) {
+            return 0;
+        }
+        if (spool.isEnabled() && !circuitBreaker.allowRequest() && spool.append(positions)) {
+            logger.debug("Database circuit open - spooled {} positions", positions.size());
+            return 0;
+        }
+
+        try {
+            int inserted = historyWriter.persistHistoryBatch(positions);
+            circuitBreaker.recordSuccess();
+            return inserted;
+        } catch (RuntimeException e) {
+            if (!DatabaseCircuitBreaker.isUnavailable(e)) {
+                // The database answered; settle a half-open probe so the circuit does not stay half-open
+                circuitBreaker.recordSuccess();
+                throw e;
+            }
+            circuitBreaker.recordFailure();
+            if (spool.append(positions)) {
+                logger.warn("Database unavailable - spooled {} positions: {}", positions.size(), e.getMessage());
+                return 0;
+            }
+            throw e;
+        }
+    }
+}
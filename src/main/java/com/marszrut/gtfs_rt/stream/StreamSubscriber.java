@@ -0,0 +1,128 @@
+package com.marszrut.gtfs_rt.stream;
+
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One push subscriber with its filter and conflating send buffer.
+ * Pending updates are keyed by vehicle, so a slow client only ever holds the latest update per vehicle;
+ * the buffer is additionally capped at {@code maxPending} vehicles, dropping the oldest beyond that.
+ */
+final class StreamSubscriber {
+
+    private final String feedId;
+    private final String agencyId;
+    private final String routeId;
+    private final SseEmitter emitter;
+    private final int maxPending;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private Map<String, byte[]> pending = new LinkedHashMap<>();
+    private volatile boolean closed;
+
+    StreamSubscriber(String feedId, String agencyId, String routeId, SseEmitter emitter, int maxPending) {
+        this.feedId = emptyToNull(feedId);
+        this.agencyId = emptyToNull(agencyId);
+        this.routeId = emptyToNull(routeId);
+        this.emitter = emitter;
+        this.maxPending = maxPending;
+    }
+
+    boolean matches(VehiclePosition vp) {
+        return (feedId == null || feedId.equals(vp.getFid()))
+            && (agencyId == null || agencyId.equals(vp.getAid()))
+            && (routeId == null || routeId.equals(vp.getRid()));
+    }
+
+    /**
+     * Queues an update without blocking.
+     *
+     * @return what happened to the buffer
+     */
+    OfferResult offer(String key, byte[] entity) {
+        lock.lock();
+        try {
+            if (closed) {
+                return OfferResult.CLOSED;
+            }
+            OfferResult result = OfferResult.QUEUED;
+            if (pending.put(key, entity) != null) {
+                result = OfferResult.CONFLATED;
+            } else if (pending.size() > maxPending) {
+                Iterator<String> eldest = pending.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                result = OfferResult.DROPPED;
+            }
+            available.signal();
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for pending updates and takes all of them.
+     *
+     * @param timeoutMillis how long to wait before returning an empty batch
+     * @return pending updates in arrival order, empty on timeout or close
+     */
+    List<CachedEntity> drain(long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (pending.isEmpty() && !closed) {
+                if (remaining <= 0) {
+                    return List.of();
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+
+            Map<String, byte[]> batch = pending;
+            pending = new LinkedHashMap<>();
+            List<CachedEntity> entities = new ArrayList<>(batch.size());
+            batch.forEach((key, entity) -> entities.add(new CachedEntity(key, entity)));
+            return entities;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.clear();
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    SseEmitter emitter() {
+        return emitter;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    enum OfferResult {
+        QUEUED, CONFLATED, DROPPED, CLOSED
+    }
+}
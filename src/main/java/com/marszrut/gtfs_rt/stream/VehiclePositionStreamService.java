@@ -0,0 +1,219 @@
+package com.marszrut.gtfs_rt.stream;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.cache.VehiclePositionUpdatedEvent;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.service.FeedService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes vehicle position updates to Server-Sent Events subscribers.
+ * Driven by {@link VehiclePositionUpdatedEvent}s from the cache write path. The listener only hands the
+ * update to a bounded queue, so the Kafka/MQTT thread that wrote the cache never pays for the fan-out;
+ * a single dispatcher thread encodes each update once and offers it to every matching subscriber's
+ * conflating buffer. Updates arriving while the queue is full are dropped and counted.
+ * Every subscriber gets its own virtual thread that drains the buffer and sends one
+ * DIFFERENTIAL FeedMessage (base64 protobuf) per batch, or a heartbeat comment when idle.
+ * <p>
+ * The events are in-process, so a subscriber only sees vehicles written by this instance: with several
+ * replicas sharing the Kafka partitions (or MQTT shared subscriptions) each stream carries a subset
+ * of the fleet. Deployments serving the stream should route it to a replica that consumes every
+ * partition, or run the stream on a dedicated instance.
+ */
+@Service
+public class VehiclePositionStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehiclePositionStreamService.class);
+    private static final String EVENT_NAME = "vehicle-positions";
+
+    private final VPConverter converter;
+    private final FeedService feedService;
+    private final int maxSubscribers;
+    private final int maxPendingPerSubscriber;
+    private final long heartbeatIntervalMillis;
+    private final Set<StreamSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // Reserved before a subscriber is added, so concurrent subscribes cannot overshoot the limit
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final BlockingQueue<VehiclePositionUpdatedEvent> fanOutQueue;
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter conflatedCounter;
+    private final Counter droppedCounter;
+    private final Counter overflowCounter;
+
+    public VehiclePositionStreamService(VPConverter converter,
+                                        FeedService feedService,
+                                        MeterRegistry meterRegistry,
+                                        @Value("${gtfs.stream.max-subscribers:10000}") int maxSubscribers,
+                                        @Value("${gtfs.stream.max-pending-per-subscriber:5000}") int maxPendingPerSubscriber,
+                                        @Value("${gtfs.stream.heartbeat-interval-ms:15000}") long heartbeatIntervalMillis,
+                                        @Value("${gtfs.stream.fan-out-queue-capacity:50000}") int fanOutQueueCapacity) {
+        this.converter = converter;
+        this.feedService = feedService;
+        this.maxSubscribers = maxSubscribers;
+        this.maxPendingPerSubscriber = maxPendingPerSubscriber;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.fanOutQueue = new ArrayBlockingQueue<>(fanOutQueueCapacity);
+        this.conflatedCounter = meterRegistry.counter("gtfs.stream.updates.conflated");
+        this.droppedCounter = meterRegistry.counter("gtfs.stream.updates.dropped");
+        this.overflowCounter = meterRegistry.counter("gtfs.stream.updates.overflow");
+        meterRegistry.gauge("gtfs.stream.subscribers", subscribers, Set::size);
+        meterRegistry.gauge("gtfs.stream.fan-out.queue.size", fanOutQueue, BlockingQueue::size);
+    }
+
+    @PostConstruct
+    public void startDispatcher() {
+        senders.execute(this::runDispatcher);
+    }
+
+    /**
+     * Registers a new subscriber and starts its sender.
+     *
+     * @param feedId optional feed ID filter
+     * @param agencyId optional agency ID filter
+     * @param routeId optional route ID filter
+     * @return emitter for the response, or null when the subscriber limit is reached
+     */
+    public SseEmitter subscribe(String feedId, String agencyId, String routeId) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            logger.warn("Rejecting stream subscriber: limit of {} reached", maxSubscribers);
+            return null;
+        }
+
+        // No server-side timeout; dead connections are detected by failing heartbeats
+        SseEmitter emitter = new SseEmitter(0L);
+        StreamSubscriber subscriber = new StreamSubscriber(feedId, agencyId, routeId, emitter, maxPendingPerSubscriber);
+
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(e -> unsubscribe(subscriber));
+
+        subscribers.add(subscriber);
+        senders.execute(() -> runSender(subscriber));
+
+        logger.debug("Stream subscriber added: feedId={}, agencyId={}, routeId={}, subscribers={}",
+                    feedId, agencyId, routeId, subscribers.size());
+        return emitter;
+    }
+
+    /**
+     * Hands a cache write to the dispatcher. Runs on the writing thread, so it never blocks.
+     */
+    @EventListener
+    public void onVehiclePositionUpdated(VehiclePositionUpdatedEvent event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        if (!fanOutQueue.offer(event)) {
+            overflowCounter.increment();
+        }
+    }
+
+    private void runDispatcher() {
+        List<VehiclePositionUpdatedEvent> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(fanOutQueue.take());
+                fanOutQueue.drainTo(batch);
+                for (VehiclePositionUpdatedEvent event : batch) {
+                    fanOut(event);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Offers one update to matching subscribers, encoding it at most once.
+     */
+    private void fanOut(VehiclePositionUpdatedEvent event) {
+        VehiclePosition vp = event.vehiclePosition();
+        try {
+            byte[] entity = null;
+            for (StreamSubscriber subscriber : subscribers) {
+                if (!subscriber.matches(vp)) {
+                    continue;
+                }
+                if (entity == null) {
+                    entity = converter.entityToFeedEntity(vp).toByteArray();
+                }
+                switch (subscriber.offer(event.key(), entity)) {
+                    case CONFLATED -> conflatedCounter.increment();
+                    case DROPPED -> droppedCounter.increment();
+                    default -> {
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // A bad update must not stop the dispatcher
+            logger.error("Failed to push vehicle update: key={}, error={}", event.key(), e.getMessage());
+        }
+    }
+
+    private void runSender(StreamSubscriber subscriber) {
+        SseEmitter emitter = subscriber.emitter();
+        try {
+            while (!subscriber.isClosed()) {
+                List<CachedEntity> batch = subscriber.drain(heartbeatIntervalMillis);
+                if (subscriber.isClosed()) {
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    continue;
+                }
+
+                byte[] feed = feedService.encodeFeed(batch, GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+                emitter.send(SseEmitter.event()
+                    .name(EVENT_NAME)
+                    .data(Base64.getEncoder().encodeToString(feed)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Stream subscriber disconnected: {}", e.getMessage());
+        } finally {
+            unsubscribe(subscriber);
+            emitter.complete();
+        }
+    }
+
+    private void unsubscribe(StreamSubscriber subscriber) {
+        subscriber.close();
+        if (subscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+            logger.debug("Stream subscriber removed, subscribers={}", subscribers.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(this::unsubscribe);
+        senders.shutdownNow();
+    }
+}
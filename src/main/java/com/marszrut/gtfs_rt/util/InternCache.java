@@ -0,0 +1,112 @@
+package com.marszrut.gtfs_rt.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bounded cache of canonical identifier Strings (feed, agency, vehicle, trip, stop IDs...) together with their UTF-8 bytes.
+ * Lookups take a region of a larger String or raw UTF-8 bytes, so a hit allocates nothing: the same
+ * String and byte[] instances are returned for every message of the same feed, agency or vehicle.
+ *
+ * The cache is a direct-mapped table: a colliding ID replaces the previous entry, so memory stays bounded
+ * by the capacity whatever the input. It is safe for concurrent use without locking; entries are immutable
+ * and a lost race only costs a miss. Values longer than {@link #MAX_LENGTH} are never cached.
+ */
+public final class InternCache {
+
+    public static final int MAX_LENGTH = 128;
+
+    /**
+     * A canonical ID and its UTF-8 encoding. The byte array is shared and must not be modified.
+     *
+     * @param value canonical String
+     * @param utf8 UTF-8 bytes of the value
+     */
+    public record Interned(String value, byte[] utf8) {
+    }
+
+    private final Interned[] table;
+    private final int mask;
+
+    /**
+     * @param capacity number of table slots, rounded up to a power of two
+     */
+    public InternCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.table = new Interned[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the canonical entry for the characters of {@code source} between {@code start} and {@code end}.
+     *
+     * @param source String containing the ID
+     * @param start index of the first character
+     * @param end index after the last character
+     * @return canonical entry
+     */
+    public Interned intern(String source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int slot = spread(hash) & mask;
+        Interned entry = table[slot];
+        if (entry != null && entry.value().length() == length && entry.value().regionMatches(0, source, start, length)) {
+            return entry;
+        }
+
+        String value = source.substring(start, end);
+        Interned created = new Interned(value, value.getBytes(StandardCharsets.UTF_8));
+        if (length <= MAX_LENGTH) {
+            table[slot] = created;
+        }
+        return created;
+    }
+
+    /**
+     * Returns the canonical entry for UTF-8 encoded bytes, e.g. a Kafka header value.
+     *
+     * @param utf8 encoded ID
+     * @return canonical entry
+     */
+    public Interned intern(byte[] utf8) {
+        return intern(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Returns the canonical entry for the UTF-8 bytes of {@code source} between {@code start} and {@code end},
+     * e.g. a string field inside an encoded protobuf message.
+     *
+     * @param source bytes containing the encoded ID
+     * @param start index of the first byte
+     * @param end index after the last byte
+     * @return canonical entry
+     */
+    public Interned intern(byte[] source, int start, int end) {
+        // Same hash as the String lookup for ASCII IDs, so both lookups share entries
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + (source[i] & 0xff);
+        }
+
+        int slot = spread(hash) & mask;
+        Interned entry = table[slot];
+        if (entry != null && Arrays.equals(entry.utf8(), 0, entry.utf8().length, source, start, end)) {
+            return entry;
+        }
+
+        Interned created = new Interned(new String(source, start, end - start, StandardCharsets.UTF_8),
+            Arrays.copyOfRange(source, start, end));
+        if (created.value().length() <= MAX_LENGTH) {
+            table[slot] = created;
+        }
+        return created;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,64 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Builds the natural key index of vehicle_positions after V4 has removed the duplicates.
+ * <p>
+ * On a hypertable the index is built with {@code timescaledb.transaction_per_chunk}: every chunk is
+ * indexed in its own transaction, so inserts wait only while the chunk they write to is being indexed,
+ * which in practice is the newest chunk for the duration of its own build. A single CREATE UNIQUE INDEX
+ * would hold a SHARE lock on every chunk and block all inserts until the whole hypertable is indexed.
+ * That option cannot be used on a plain table, or from a DO block or function, so the branch on the
+ * extension is made here rather than in SQL. On plain PostgreSQL the index is built in one statement
+ * that blocks inserts for the whole build.
+ * <p>
+ * A per-chunk build that fails part way leaves an invalid index behind; it is dropped on the next run,
+ * so repair and re-run the migration.
+ */
+public class V4_1__vehicle_positions_natural_key_index extends BaseJavaMigration {
+
+    private static final String INDEX_NAME = "uq_vehicle_positions_feed_vehicle_time";
+
+    private static final String CREATE_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_NAME
+        + " ON vehicle_positions (feed_id, vehicle_id, timestamp)";
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        // transaction_per_chunk commits on its own and is rejected inside a transaction block
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (Statement statement = context.getConnection().createStatement()) {
+            if (exists(statement, "SELECT 1 FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid "
+                    + "WHERE c.relname = '" + INDEX_NAME + "' AND NOT i.indisvalid")) {
+                statement.execute("DROP INDEX " + INDEX_NAME);
+            }
+
+            if (isHypertable(statement)) {
+                statement.execute(CREATE_INDEX + " WITH (timescaledb.transaction_per_chunk)");
+            } else {
+                statement.execute(CREATE_INDEX);
+            }
+        }
+    }
+
+    private static boolean isHypertable(Statement statement) throws SQLException {
+        return exists(statement, "SELECT 1 FROM pg_extension WHERE extname = 'timescaledb'")
+            && exists(statement, "SELECT 1 FROM timescaledb_information.hypertables "
+                + "WHERE hypertable_name = 'vehicle_positions'");
+    }
+
+    private static boolean exists(Statement statement, String query) throws SQLException {
+        try (ResultSet result = statement.executeQuery(query)) {
+            return result.next();
+        }
+    }
+}
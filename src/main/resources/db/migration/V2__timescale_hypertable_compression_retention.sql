@@ -0,0 +1,46 @@
+-- Convert vehicle_positions into a TimescaleDB hypertable with compression and retention policies.
+-- Chunk interval and policy intervals come from Flyway placeholders (spring.flyway.placeholders.*).
+-- On a PostgreSQL server without the timescaledb extension only the indexes are created,
+-- so plain PostgreSQL keeps working for local development and tests.
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_available_extensions WHERE name = 'timescaledb') THEN
+        CREATE EXTENSION IF NOT EXISTS timescaledb;
+
+        -- Time chunking on the message timestamp; existing rows are moved into chunks.
+        -- (id, timestamp) is already the primary key, which satisfies the hypertable unique-index rule.
+        PERFORM create_hypertable(
+            'vehicle_positions',
+            'timestamp',
+            chunk_time_interval => INTERVAL '${vp_chunk_interval}',
+            migrate_data => true,
+            if_not_exists => true
+        );
+
+        -- Native compression: one segment per vehicle, rows ordered by time inside a segment
+        ALTER TABLE vehicle_positions SET (
+            timescaledb.compress,
+            timescaledb.compress_segmentby = 'vehicle_id',
+            timescaledb.compress_orderby = 'timestamp DESC'
+        );
+
+        PERFORM add_compression_policy('vehicle_positions', INTERVAL '${vp_compress_after}', if_not_exists => true);
+        PERFORM add_retention_policy('vehicle_positions', INTERVAL '${vp_retention}', if_not_exists => true);
+    ELSE
+        RAISE NOTICE 'timescaledb extension not available - vehicle_positions stays a plain table';
+    END IF;
+END
+$$;
+
+-- Per-vehicle history (VehiclePositionRepository.findByVidAndTAfterOrderByTDesc)
+CREATE INDEX IF NOT EXISTS idx_vehicle_positions_vehicle_time
+    ON vehicle_positions (vehicle_id, timestamp DESC);
+
+-- Per-trip history (VehiclePositionRepository.findByTidOrderByTDesc)
+CREATE INDEX IF NOT EXISTS idx_vehicle_positions_trip_time
+    ON vehicle_positions (trip_id, timestamp DESC);
+
+-- Feed/agency scoped time ranges (analytics, exports)
+CREATE INDEX IF NOT EXISTS idx_vehicle_positions_feed_agency_time
+    ON vehicle_positions (feed_id, agency_id, timestamp DESC);
@@ -0,0 +1,103 @@
+-- Rollups for historical analytics, served by AnalyticsRepository instead of scanning raw vehicle_positions.
+--
+-- vp_vehicle_activity_1m  one row per vehicle per minute per feed/agency/route:
+--                         sample count and occupancy sum/count (vehicles in service = rows per bucket)
+-- vp_vehicle_activity_1h  same per hour, rolled up from the 1-minute aggregate
+-- vp_stop_arrivals_1h     first STOPPED_AT observation per trip/vehicle/stop, the input for observed headways
+--
+-- With TimescaleDB these are continuous aggregates with refresh policies. On plain PostgreSQL
+-- they are ordinary views over the raw table with the same columns, so the API keeps working (slowly).
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_extension WHERE extname = 'timescaledb') THEN
+        EXECUTE $cagg$
+            CREATE MATERIALIZED VIEW IF NOT EXISTS vp_vehicle_activity_1m
+            WITH (timescaledb.continuous) AS
+            SELECT time_bucket(INTERVAL '1 minute', timestamp) AS bucket,
+                   feed_id,
+                   agency_id,
+                   route_id,
+                   vehicle_id,
+                   count(*) AS samples,
+                   count(occupancy_status) AS occupancy_samples,
+                   sum(occupancy_status) AS occupancy_sum
+            FROM vehicle_positions
+            GROUP BY bucket, feed_id, agency_id, route_id, vehicle_id
+            WITH NO DATA
+        $cagg$;
+
+        -- Hierarchical continuous aggregate on top of the 1-minute rollup
+        EXECUTE $cagg$
+            CREATE MATERIALIZED VIEW IF NOT EXISTS vp_vehicle_activity_1h
+            WITH (timescaledb.continuous) AS
+            SELECT time_bucket(INTERVAL '1 hour', bucket) AS bucket,
+                   feed_id,
+                   agency_id,
+                   route_id,
+                   vehicle_id,
+                   sum(samples) AS samples,
+                   sum(occupancy_samples) AS occupancy_samples,
+                   sum(occupancy_sum) AS occupancy_sum
+            FROM vp_vehicle_activity_1m
+            GROUP BY 1, feed_id, agency_id, route_id, vehicle_id
+            WITH NO DATA
+        $cagg$;
+
+        EXECUTE $cagg$
+            CREATE MATERIALIZED VIEW IF NOT EXISTS vp_stop_arrivals_1h
+            WITH (timescaledb.continuous) AS
+            SELECT time_bucket(INTERVAL '1 hour', timestamp) AS bucket,
+                   feed_id,
+                   agency_id,
+                   route_id,
+                   current_stop_id AS stop_id,
+                   trip_id,
+                   vehicle_id,
+                   min(timestamp) AS arrived_at
+            FROM vehicle_positions
+            WHERE current_stop_status = 1
+            GROUP BY bucket, feed_id, agency_id, route_id, current_stop_id, trip_id, vehicle_id
+            WITH NO DATA
+        $cagg$;
+
+        PERFORM add_continuous_aggregate_policy('vp_vehicle_activity_1m',
+            start_offset => INTERVAL '2 hours', end_offset => INTERVAL '1 minute',
+            schedule_interval => INTERVAL '1 minute', if_not_exists => true);
+        PERFORM add_continuous_aggregate_policy('vp_vehicle_activity_1h',
+            start_offset => INTERVAL '3 days', end_offset => INTERVAL '1 hour',
+            schedule_interval => INTERVAL '30 minutes', if_not_exists => true);
+        PERFORM add_continuous_aggregate_policy('vp_stop_arrivals_1h',
+            start_offset => INTERVAL '1 day', end_offset => INTERVAL '5 minutes',
+            schedule_interval => INTERVAL '5 minutes', if_not_exists => true);
+    ELSE
+        CREATE OR REPLACE VIEW vp_vehicle_activity_1m AS
+        SELECT date_trunc('minute', timestamp) AS bucket,
+               feed_id, agency_id, route_id, vehicle_id,
+               count(*) AS samples,
+               count(occupancy_status) AS occupancy_samples,
+               sum(occupancy_status) AS occupancy_sum
+        FROM vehicle_positions
+        GROUP BY 1, feed_id, agency_id, route_id, vehicle_id;
+
+        CREATE OR REPLACE VIEW vp_vehicle_activity_1h AS
+        SELECT date_trunc('hour', timestamp) AS bucket,
+               feed_id, agency_id, route_id, vehicle_id,
+               count(*) AS samples,
+               count(occupancy_status) AS occupancy_samples,
+               sum(occupancy_status) AS occupancy_sum
+        FROM vehicle_positions
+        GROUP BY 1, feed_id, agency_id, route_id, vehicle_id;
+
+        CREATE OR REPLACE VIEW vp_stop_arrivals_1h AS
+        SELECT date_trunc('hour', timestamp) AS bucket,
+               feed_id, agency_id, route_id,
+               current_stop_id AS stop_id,
+               trip_id, vehicle_id,
+               min(timestamp) AS arrived_at
+        FROM vehicle_positions
+        WHERE current_stop_status = 1
+        GROUP BY 1, feed_id, agency_id, route_id, current_stop_id, trip_id, vehicle_id;
+    END IF;
+END
+$$;
@@ -0,0 +1,53 @@
+-- Natural key for vehicle_positions: one row per (feed_id, vehicle_id, timestamp).
+-- Redelivered Kafka batches (error-handler retries, DLQ replays, rebalances) are written with
+-- INSERT ... ON CONFLICT DO NOTHING against this index, so they no longer create duplicates.
+-- The index contains the hypertable time column, as TimescaleDB requires for unique indexes.
+--
+-- Requires TimescaleDB 2.11 or later: older versions reject ON CONFLICT on compressed chunks.
+--
+-- This script only removes the duplicates; the unique index itself is built by the Java migration
+-- db.migration.V4_1__vehicle_positions_natural_key_index, one chunk per transaction on a hypertable.
+--
+-- Runs outside a single transaction (see V4__vehicle_positions_natural_key.sql.conf): duplicates
+-- are removed one chunk per transaction, so only the chunk being deduplicated is locked, never the
+-- whole table. On plain PostgreSQL the table is deduplicated in one statement that blocks writers
+-- until it finishes. Every step is idempotent; after a failure, repair and re-run the migration.
+
+-- Remove duplicates written before the key existed, keeping the first inserted row.
+-- row_number() over one chunk at a time replaces a self-join over the whole unindexed table.
+DO $$
+DECLARE
+    chunk RECORD;
+    dedup CONSTANT TEXT :=
+        'DELETE FROM %1$s WHERE ctid IN ('
+        || 'SELECT ctid FROM (SELECT ctid, row_number() OVER ('
+        || 'PARTITION BY feed_id, vehicle_id, timestamp ORDER BY id) AS rn FROM %1$s) ranked '
+        || 'WHERE rn > 1)';
+    has_duplicates BOOLEAN;
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_extension WHERE extname = 'timescaledb') THEN
+        FOR chunk IN
+            SELECT format('%I.%I', chunk_schema, chunk_name)::regclass AS name, is_compressed
+            FROM timescaledb_information.chunks
+            WHERE hypertable_name = 'vehicle_positions'
+            ORDER BY range_start
+        LOOP
+            IF chunk.is_compressed THEN
+                -- Compressed chunks are only decompressed when they actually hold duplicates
+                EXECUTE format('SELECT EXISTS (SELECT 1 FROM %s GROUP BY feed_id, vehicle_id, timestamp '
+                    || 'HAVING count(*) > 1)', chunk.name) INTO has_duplicates;
+                IF has_duplicates THEN
+                    PERFORM decompress_chunk(chunk.name);
+                    EXECUTE format(dedup, chunk.name);
+                    PERFORM compress_chunk(chunk.name);
+                END IF;
+            ELSE
+                EXECUTE format(dedup, chunk.name);
+            END IF;
+            COMMIT;
+        END LOOP;
+    ELSE
+        EXECUTE format(dedup, 'vehicle_positions');
+    END IF;
+END
+$$;
@@ -0,0 +1,67 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for the compact binary vehicle state codec.
+ */
+class CompactVehicleStateCodecTest {
+
+    private final CompactVehicleStateCodec codec = new CompactVehicleStateCodec(new VPConverter());
+
+    @Test
+    void testRoundTrip_allFields() {
+        VehiclePosition vp = VehiclePosition.builder()
+            .id(42L)
+            .vid("vehicle_001")
+            .fid("feed_1")
+            .aid("agency_1")
+            .rid("route_1")
+            .tid("trip_1")
+            .did(1)
+            .sd("20260114")
+            .st("07:42:00")
+            .sid("stop_żółw")
+            .ss(1)
+            .vl("HR-217")
+            .lp("KR 2147A")
+            .os(3)
+            .lat(50.0646501)
+            .lon(-19.9449799)
+            .t(Instant.parse("2026-01-14T07:58:31.250Z"))
+            .build();
+
+        VehiclePosition decoded = codec.decode(codec.encode(vp));
+
+        assertThat(decoded).usingRecursiveComparison().ignoringFields("id").isEqualTo(vp);
+        assertThat(decoded.getId()).isNull();
+    }
+
+    @Test
+    void testRoundTrip_nullFields() {
+        VehiclePosition vp = VehiclePosition.builder()
+            .vid("vehicle_001")
+            .lat(50.06)
+            .lon(19.94)
+            .t(Instant.parse("2026-01-14T07:58:31Z"))
+            .build();
+
+        VehiclePosition decoded = codec.decode(codec.encode(vp));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(vp);
+    }
+
+    @Test
+    void testDecode_otherFormat_fails() {
+        assertThatThrownBy(() -> codec.decode("{\"vid\":\"x\"}".getBytes()))
+            .isInstanceOf(SerializationException.class);
+    }
+}
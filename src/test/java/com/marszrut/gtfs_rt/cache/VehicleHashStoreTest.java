@@ -0,0 +1,103 @@
+package com.marszrut.gtfs_rt.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the value layout and the sweeper of the vehicle hash store.
+ */
+class VehicleHashStoreTest {
+
+    @Test
+    void testWithExpiry_roundTrip() {
+        byte[] value = {0, 1, 2, (byte) 0xff};
+
+        byte[] stored = VehicleHashStore.withExpiry(1768377511250L, value);
+
+        assertThat(stored).hasSize(VehicleHashStore.EXPIRY_DIGITS + value.length);
+        assertThat(new String(stored, 0, VehicleHashStore.EXPIRY_DIGITS, StandardCharsets.US_ASCII)).isEqualTo("1768377511250");
+        assertThat(VehicleHashStore.expiresAt(stored)).isEqualTo(1768377511250L);
+        assertThat(VehicleHashStore.payload(stored)).containsExactly(value);
+    }
+
+    @Test
+    void testWithExpiry_smallTimestamp_zeroPadded() {
+        byte[] stored = VehicleHashStore.withExpiry(42L, new byte[0]);
+
+        assertThat(new String(stored, StandardCharsets.US_ASCII)).isEqualTo("0000000000042");
+        assertThat(VehicleHashStore.expiresAt(stored)).isEqualTo(42L);
+    }
+
+    @Test
+    void testExpiresAt_missingPrefix_treatedAsExpired() {
+        assertThat(VehicleHashStore.expiresAt("{\"vid\":\"1\"}".getBytes(StandardCharsets.UTF_8))).isZero();
+        assertThat(VehicleHashStore.expiresAt(new byte[3])).isZero();
+    }
+
+    @Test
+    void testVehicleKeyOfHashField_matchesVehicleKey() {
+        String hashKey = VehicleKeys.hashKey("feed_1", "agency_1");
+
+        assertThat(hashKey).isEqualTo("vph:{feed_1:agency_1}");
+        assertThat(VehicleKeys.vehicleKeyOfHashField(hashKey, "v1")).isEqualTo(VehicleKeys.vehicleKey("feed_1", "agency_1", "v1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSweep_scriptNotCached_loadsScriptAndRepeats() {
+        RedisScriptingCommands scripting = mock(RedisScriptingCommands.class);
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.scriptingCommands()).thenReturn(scripting);
+        List<String> shas = new ArrayList<>();
+        when(scripting.evalSha(anyString(), any(ReturnType.class), anyInt(), any(byte[][].class))).thenAnswer(call -> {
+            shas.add(call.getArgument(0));
+            return null;
+        });
+
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        SetOperations<String, String> setOperations = mock(SetOperations.class);
+        when(setOperations.members(VehicleHashStore.REGISTRY_PREFIX + VehiclePositionCache.SCOPE_ALL))
+            .thenReturn(Set.of(VehicleKeys.hashKey("feed_1", "agency_1")));
+        when(template.opsForSet()).thenReturn(setOperations);
+        List<Boolean> loaded = new ArrayList<>();
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(call -> {
+            ((RedisCallback<?>) call.getArgument(0)).doInRedis(connection);
+            if (loaded.isEmpty()) {
+                throw new RedisSystemException("NOSCRIPT No matching script", null);
+            }
+            return List.of(3L);
+        });
+        when(template.execute(any(RedisCallback.class))).thenAnswer(call -> {
+            loaded.add(true);
+            return ((RedisCallback<?>) call.getArgument(0)).doInRedis(connection);
+        });
+
+        long removed = new VehicleHashStore(template).sweep(System.currentTimeMillis());
+
+        assertThat(removed).isEqualTo(3L);
+        assertThat(loaded).hasSize(1);
+        verify(scripting).scriptLoad(VehicleHashStore.SWEEP_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+        assertThat(shas).hasSize(2).containsOnly(VehicleHashStore.SWEEP_SCRIPT.getSha1());
+        verify(scripting, never()).eval(any(byte[].class), any(ReturnType.class), anyInt(), any(byte[][].class));
+    }
+}
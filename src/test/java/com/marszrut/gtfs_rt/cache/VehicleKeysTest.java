@@ -0,0 +1,37 @@
+package com.marszrut.gtfs_rt.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the vehicle key scheme.
+ */
+class VehicleKeysTest {
+
+    @Test
+    void testVehicleKey_missingIds_empty() {
+        assertThat(VehicleKeys.vehicleKey("feed_1", "agency_1", "v1")).isEqualTo("vp:{feed_1:agency_1}:v1");
+        assertThat(VehicleKeys.vehicleKey("feed_1", null, "v1")).isEqualTo("vp:{feed_1:}:v1");
+        assertThat(VehicleKeys.vehicleKey(null, null, "v1")).isEqualTo("vp:{:}:v1");
+    }
+
+    @Test
+    void testFeedAndAgencyOf_parsedFromHashTag() {
+        assertThat(VehicleKeys.feedIdOf("vp:{feed_1:agency_1}:v1")).isEqualTo("feed_1");
+        assertThat(VehicleKeys.agencyIdOf("vp:{feed_1:agency_1}:v1")).isEqualTo("agency_1");
+        assertThat(VehicleKeys.agencyIdOf("vp:{feed_1:}:v:1")).isNull();
+        assertThat(VehicleKeys.feedIdOf("vp:{:}:v1")).isNull();
+    }
+
+    @Test
+    void testKeysOfOnePair_sameSlot() {
+        int slot = ClusterSlotHashUtil.calculateSlot(VehicleKeys.hashKey("feed_1", "agency_1"));
+
+        assertThat(ClusterSlotHashUtil.calculateSlot(VehicleKeys.vehicleKey("feed_1", "agency_1", "v1"))).isEqualTo(slot);
+        assertThat(ClusterSlotHashUtil.calculateSlot(VehicleKeys.vehicleKey("feed_1", "agency_1", "v2"))).isEqualTo(slot);
+        assertThat(ClusterSlotHashUtil.calculateSlot(
+            VehiclePositionCache.INDEX_PREFIX + "fa:" + VehicleKeys.tag("feed_1", "agency_1"))).isEqualTo(slot);
+    }
+}
@@ -0,0 +1,248 @@
+package com.marszrut.gtfs_rt.cache;
+
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.connection.RedisSetCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the last-write watermarks and the membership indexes of the vehicle position cache.
+ * Redis is replaced by a mocked connection whose EVALSHA applies the watermark script to an in-memory map
+ * and whose ZRANGEBYSCORE answers from in-memory pair indexes.
+ */
+class VehiclePositionCacheTest {
+
+    private final Map<String, String> values = new HashMap<>();
+    private final CompactVehicleStateCodec codec = new CompactVehicleStateCodec(new VPConverter());
+    private final RedisScriptingCommands scripting = mock(RedisScriptingCommands.class);
+    private final RedisStringCommands strings = mock(RedisStringCommands.class);
+    private final RedisZSetCommands zSets = mock(RedisZSetCommands.class);
+    private final RedisSetCommands sets = mock(RedisSetCommands.class);
+    private final Map<String, Set<String>> indexes = new HashMap<>();
+    private final Set<String> registry = new TreeSet<>();
+    private final List<String> ranged = new ArrayList<>();
+    private final List<VehiclePositionUpdatedEvent> events = new ArrayList<>();
+    private VehiclePositionCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.stringCommands()).thenReturn(strings);
+        when(connection.zSetCommands()).thenReturn(zSets);
+        when(connection.setCommands()).thenReturn(sets);
+        when(zSets.zRangeByScore(any(byte[].class), anyDouble(), anyDouble())).thenAnswer(call -> {
+            ranged.add(new String((byte[]) call.getArgument(0), StandardCharsets.UTF_8));
+            return null;
+        });
+        when(connection.scriptingCommands()).thenReturn(scripting);
+        when(scripting.evalSha(anyString(), any(ReturnType.class), anyInt(), any(byte[][].class))).thenAnswer(call -> {
+            assertThat((String) call.getArgument(0)).isEqualTo(VehiclePositionCache.RAISE_WATERMARK_SCRIPT.getSha1());
+            String key = new String((byte[]) call.getArgument(3), StandardCharsets.UTF_8);
+            long timestamp = Long.parseLong(new String((byte[]) call.getArgument(4), StandardCharsets.UTF_8));
+            values.merge(key, Long.toString(timestamp), (current, raised) ->
+                Long.parseLong(raised) > Long.parseLong(current) ? raised : current);
+            return 0L;
+        });
+
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(call -> {
+            ranged.clear();
+            ((RedisCallback<?>) call.getArgument(0)).doInRedis(connection);
+            return ranged.stream().map(key -> indexes.getOrDefault(key, Set.of())).toList();
+        });
+        // Every indexed vehicle still has its value
+        List<Object> chunks = new ArrayList<>();
+        when(strings.mGet(any(byte[][].class))).thenAnswer(call -> {
+            List<byte[]> chunk = new ArrayList<>();
+            for (Object key : call.getArguments()) {
+                String vehicleKey = new String((byte[]) key, StandardCharsets.UTF_8);
+                chunk.add(codec.encode(vehicle(vehicleKey.substring(vehicleKey.lastIndexOf(':') + 1),
+                    VehicleKeys.feedIdOf(vehicleKey), VehicleKeys.agencyIdOf(vehicleKey))));
+            }
+            chunks.add(chunk);
+            return null;
+        });
+        when(template.executePipelined(any(RedisCallback.class), any(RedisSerializer.class))).thenAnswer(call -> {
+            chunks.clear();
+            ((RedisCallback<?>) call.getArgument(0)).doInRedis(connection);
+            return List.copyOf(chunks);
+        });
+        SetOperations<String, String> setOperations = mock(SetOperations.class);
+        when(setOperations.members(VehiclePositionCache.INDEX_REGISTRY)).thenReturn(registry);
+        when(template.opsForSet()).thenReturn(setOperations);
+        when(template.opsForZSet()).thenReturn(mock(ZSetOperations.class));
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(valueOperations.get(anyString())).thenAnswer(call -> values.get((String) call.getArgument(0)));
+        when(template.opsForValue()).thenReturn(valueOperations);
+
+        cache = new VehiclePositionCache(template, codec,
+            500, "KEYS", 60, event -> events.add((VehiclePositionUpdatedEvent) event));
+    }
+
+    @Test
+    void testPutAll_raisesWatermarkOfEveryScope() throws Exception {
+        cache.putAll(List.of(vehicle("vehicle_001", "feed_1", "agency_1")));
+        long all = cache.getWatermark(null, null);
+        long feed = cache.getWatermark("feed_1", null);
+        long agency = cache.getWatermark(null, "agency_1");
+        long pair = cache.getWatermark("feed_1", "agency_1");
+
+        assertThat(List.of(all, feed, agency, pair)).allMatch(watermark -> watermark > 0);
+        assertThat(cache.getWatermark("feed_2", null)).isZero();
+
+        Thread.sleep(5);
+        cache.putAll(List.of(vehicle("vehicle_001", "feed_1", "agency_1")));
+
+        assertThat(cache.getWatermark(null, null)).isGreaterThan(all);
+        assertThat(cache.getWatermark("feed_1", null)).isGreaterThan(feed);
+        assertThat(cache.getWatermark(null, "agency_1")).isGreaterThan(agency);
+        assertThat(cache.getWatermark("feed_1", "agency_1")).isGreaterThan(pair);
+        verify(scripting, never()).eval(any(byte[].class), any(ReturnType.class), anyInt(), any(byte[][].class));
+    }
+
+    @Test
+    void testPutAll_otherScope_leavesWatermarkUnchanged() throws Exception {
+        cache.putAll(List.of(vehicle("vehicle_001", "feed_1", "agency_1")));
+        long feed = cache.getWatermark("feed_1", null);
+
+        Thread.sleep(5);
+        cache.putAll(List.of(vehicle("vehicle_002", "feed_2", "agency_2")));
+
+        assertThat(cache.getWatermark("feed_1", null)).isEqualTo(feed);
+        assertThat(cache.getWatermark("feed_2", "agency_2")).isGreaterThan(feed);
+        assertThat(cache.getWatermark(null, null)).isEqualTo(cache.getWatermark("feed_2", null));
+    }
+
+    @Test
+    void testPutAll_sameVehicle_keepsNewestByTimestamp() {
+        Instant t0 = Instant.parse("2026-01-14T07:42:00Z");
+        VehiclePosition newest = vehicle("vehicle_001", "feed_1", "agency_1", t0.plusSeconds(20));
+        VehiclePosition late = vehicle("vehicle_001", "feed_1", "agency_1", t0.plusSeconds(10));
+        VehiclePosition tie = vehicle("vehicle_002", "feed_1", "agency_1", t0);
+
+        int written = cache.putAll(List.of(
+            vehicle("vehicle_001", "feed_1", "agency_1", t0), vehicle("vehicle_002", "feed_1", "agency_1", t0),
+            newest, late, tie));
+
+        assertThat(written).isEqualTo(2);
+        verify(strings, times(2)).set(any(byte[].class), any(byte[].class), any(Expiration.class),
+            any(RedisStringCommands.SetOption.class));
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).vehiclePosition()).isSameAs(newest);
+        // Equal timestamps: the later entry wins
+        assertThat(events.get(1).vehiclePosition()).isSameAs(tie);
+        assertThat(cache.putAll(List.of())).isZero();
+    }
+
+    @Test
+    void testPutAll_indexesPairOnlyAndRegistersOncePerBatch() {
+        cache.putAll(List.of(
+            vehicle("vehicle_001", "feed_1", "agency_1"), vehicle("vehicle_002", "feed_1", "agency_1"),
+            vehicle("vehicle_003", "feed_2", null)));
+
+        verify(zSets, times(2)).zAdd(eq(bytes("vpidx:fa:{feed_1:agency_1}")), anyDouble(), any(byte[].class));
+        verify(zSets).zAdd(eq(bytes("vpidx:fa:{feed_2:}")), anyDouble(), any(byte[].class));
+        verify(zSets, times(3)).zAdd(any(byte[].class), anyDouble(), any(byte[].class));
+        verify(sets).sAdd(bytes(VehiclePositionCache.INDEX_REGISTRY),
+            bytes("vpidx:fa:{feed_1:agency_1}"), bytes("vpidx:fa:{feed_2:}"));
+    }
+
+    @Test
+    void testFindEntities_feedFilter_readsRegisteredPairIndexesOfFeed() {
+        index("feed_1", "agency_1", "vehicle_001");
+        index("feed_1", "agency_2", "vehicle_002");
+        index("feed_1", null, "vehicle_003");
+        index("feed_2", "agency_1", "vehicle_004");
+        // Left over from the former per-feed index; never read
+        registry.add("vpidx:f:feed_1");
+
+        List<CachedEntity> feed = cache.findEntities("feed_1", null);
+        List<CachedEntity> agency = cache.findEntities(null, "agency_1");
+        List<CachedEntity> pair = cache.findEntities("feed_2", "agency_1");
+        List<CachedEntity> all = cache.findEntities(null, null);
+
+        assertThat(feed).extracting(CachedEntity::key).containsExactly(
+            VehicleKeys.vehicleKey("feed_1", "agency_1", "vehicle_001"),
+            VehicleKeys.vehicleKey("feed_1", "agency_2", "vehicle_002"),
+            VehicleKeys.vehicleKey("feed_1", null, "vehicle_003"));
+        assertThat(agency).extracting(CachedEntity::key).containsExactly(
+            VehicleKeys.vehicleKey("feed_1", "agency_1", "vehicle_001"),
+            VehicleKeys.vehicleKey("feed_2", "agency_1", "vehicle_004"));
+        assertThat(pair).extracting(CachedEntity::key).containsExactly(
+            VehicleKeys.vehicleKey("feed_2", "agency_1", "vehicle_004"));
+        assertThat(all).hasSize(4);
+    }
+
+    /**
+     * Puts a vehicle into its pair index and registers the index, as a write would.
+     */
+    private void index(String feedId, String agencyId, String vehicleId) {
+        String indexKey = VehiclePositionCache.INDEX_PREFIX + "fa:" + VehicleKeys.tag(feedId, agencyId);
+        indexes.computeIfAbsent(indexKey, k -> new TreeSet<>()).add(VehicleKeys.vehicleKey(feedId, agencyId, vehicleId));
+        registry.add(indexKey);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static VehiclePosition vehicle(String vehicleId, String feedId, String agencyId) {
+        return vehicle(vehicleId, feedId, agencyId, Instant.now());
+    }
+
+    private static VehiclePosition vehicle(String vehicleId, String feedId, String agencyId, Instant timestamp) {
+        return VehiclePosition.builder()
+            .vid(vehicleId)
+            .fid(feedId)
+            .aid(agencyId)
+            .rid("route_52")
+            .tid("trip_1")
+            .did(0)
+            .sd("20260114")
+            .st("07:42:00")
+            .sid("stop_1")
+            .ss(0)
+            .vl("")
+            .lp("")
+            .os(0)
+            .lat(50.0647)
+            .lon(19.945)
+            .t(timestamp)
+            .build();
+    }
+}
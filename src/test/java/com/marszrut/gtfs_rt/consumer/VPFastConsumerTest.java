@@ -0,0 +1,114 @@
+package com.marszrut.gtfs_rt.consumer;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.VehiclePositionCache;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for the batch fast-path consumer of the vp-proto topic.
+ */
+class VPFastConsumerTest {
+
+    private final StubCache cache = new StubCache();
+    private final VPFastConsumer consumer = new VPFastConsumer(
+        new VehiclePositionRecordDecoder(new VPConverter(), 1024), cache);
+    private int acks;
+    private final Acknowledgment ack = () -> acks++;
+
+    @Test
+    void testProcessVehiclePositions_undecodableRecordsSkipped() {
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+            record(0, entity("vehicle_001", 1_768_377_511L).toByteArray(), true),
+            record(1, new byte[]{(byte) 0xFF, 0x01, 0x02}, true),
+            record(2, entity("vehicle_002", 1_768_377_511L).toByteArray(), false),
+            record(3, GtfsRealtime.FeedEntity.newBuilder().setId("alert_1").build().toByteArray(), true),
+            record(4, entity("vehicle_003", 1_768_377_511L).toByteArray(), true));
+
+        consumer.processVehiclePositions(records, ack);
+
+        assertThat(cache.batches).hasSize(1);
+        assertThat(cache.batches.get(0)).extracting(VehiclePosition::getVid)
+            .containsExactly("vehicle_001", "vehicle_003");
+        assertThat(acks).isEqualTo(1);
+    }
+
+    @Test
+    void testProcessVehiclePositions_wholePollHandedToCacheInOrder() {
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+            record(0, entity("vehicle_001", 1_768_377_511L).toByteArray(), true),
+            record(1, entity("vehicle_001", 1_768_377_521L).toByteArray(), true));
+
+        consumer.processVehiclePositions(records, ack);
+
+        assertThat(cache.batches).hasSize(1);
+        assertThat(cache.batches.get(0)).extracting(vp -> vp.getT().getEpochSecond())
+            .containsExactly(1_768_377_511L, 1_768_377_521L);
+    }
+
+    @Test
+    void testProcessVehiclePositions_cacheFailure_notAcknowledged() {
+        cache.failure = new QueryTimeoutException("Redis timeout");
+
+        assertThatThrownBy(() -> consumer.processVehiclePositions(
+            List.of(record(0, entity("vehicle_001", 1_768_377_511L).toByteArray(), true)), ack))
+            .isSameAs(cache.failure);
+        assertThat(acks).isZero();
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset, byte[] value, boolean withHeaders) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("vp-proto", 0, offset, "key", value);
+        if (withHeaders) {
+            record.headers().add(VehiclePositionRecordDecoder.FEED_ID_HEADER, "feed_1".getBytes(StandardCharsets.UTF_8));
+            record.headers().add(VehiclePositionRecordDecoder.AGENCY_ID_HEADER, "agency_1".getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    private static GtfsRealtime.FeedEntity entity(String vehicleId, long timestamp) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+            .setId(vehicleId)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(50.0647f)
+                    .setLongitude(19.945f)
+                    .build())
+                .setTimestamp(timestamp)
+                .build())
+            .build();
+    }
+
+    /**
+     * Records the batches handed to the cache instead of writing them to Redis.
+     */
+    private static final class StubCache extends VehiclePositionCache {
+
+        private final List<List<VehiclePosition>> batches = new ArrayList<>();
+        private RuntimeException failure;
+
+        StubCache() {
+            super(null, null, 500, "KEYS", 60, event -> { });
+        }
+
+        @Override
+        public int putAll(Collection<VehiclePosition> positions) {
+            if (failure != null) {
+                throw failure;
+            }
+            batches.add(List.copyOf(positions));
+            return positions.size();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.marszrut.gtfs_rt.controller;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.service.FeedService;
+import com.marszrut.gtfs_rt.service.FeedSnapshotService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for conditional GET, content coding and ETags of the aggregated feed endpoint.
+ */
+class FeedControllerTest {
+
+    private static final String PROTOBUF = "application/x-protobuf";
+
+    private final StubFeedService feedService = new StubFeedService();
+    private final FeedSnapshotService snapshotService = new FeedSnapshotService(feedService, 300, 60_000, 10, 10);
+    private final FeedController controller = new FeedController(feedService, snapshotService, null, 10);
+
+    @Test
+    void testGetFeed_matchingIfNoneMatch_returnsNotModified() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        ResponseEntity<byte[]> first = get("feed_1", null, null, null);
+        String etag = first.getHeaders().getETag();
+
+        ResponseEntity<byte[]> strong = get("feed_1", null, etag, null);
+        ResponseEntity<byte[]> weak = get("feed_1", null, "\"other\", W/" + etag, null);
+
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(etag).startsWith("\"").doesNotStartWith("W/");
+        assertThat(strong.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(strong.getHeaders().getETag()).isEqualTo(etag);
+        assertThat(strong.getBody()).isNull();
+        assertThat(weak.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
+    @Test
+    void testGetFeed_changedContent_returnsNewBody() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        String etag = get("feed_1", null, null, null).getHeaders().getETag();
+
+        feedService.put("feed_1", entity("vehicle_001", 50.5f));
+        snapshotService.refreshSnapshots();
+        ResponseEntity<byte[]> response = get("feed_1", null, etag, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getETag()).isNotEqualTo(etag);
+    }
+
+    @Test
+    void testGetFeed_acceptsGzip_returnsCompressedVariant() throws IOException {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        ResponseEntity<byte[]> plain = get("feed_1", null, null, null);
+
+        ResponseEntity<byte[]> gzip = get("feed_1", null, null, "br, gzip;q=0.8");
+
+        assertThat(gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gzip.getHeaders().getVary()).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(gunzip(gzip.getBody())).isEqualTo(plain.getBody());
+        assertThat(gzip.getHeaders().getETag()).isNotEqualTo(plain.getHeaders().getETag());
+        assertThat(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isNull();
+    }
+
+    @Test
+    void testGetFeed_gzipRejected_returnsIdentity() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        String gzipEtag = get("feed_1", null, null, "gzip").getHeaders().getETag();
+
+        ResponseEntity<byte[]> rejected = get("feed_1", null, null, "gzip;q=0, identity");
+        ResponseEntity<byte[]> otherCoding = get("feed_1", null, gzipEtag, "identity");
+
+        assertThat(rejected.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(otherCoding.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(otherCoding.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isNull();
+    }
+
+    @Test
+    void testAcceptsGzip_parsesQualityValues() {
+        assertThat(FeedController.acceptsGzip(null)).isFalse();
+        assertThat(FeedController.acceptsGzip("GZIP")).isTrue();
+        assertThat(FeedController.acceptsGzip("*")).isTrue();
+        assertThat(FeedController.acceptsGzip("gzip;q=0.0")).isFalse();
+        assertThat(FeedController.acceptsGzip("gzip;q=abc")).isFalse();
+        assertThat(FeedController.acceptsGzip("deflate, br")).isFalse();
+    }
+
+    @Test
+    void testGetFeed_differential_carriesEtagAndHonoursIfNoneMatch() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        String since = get("feed_1", null, null, null).getHeaders().getFirst("X-Feed-Version");
+        feedService.put("feed_1", entity("vehicle_001", 50.5f));
+        snapshotService.refreshSnapshots();
+
+        ResponseEntity<byte[]> delta = get("feed_1", since, null, null);
+        String etag = delta.getHeaders().getETag();
+        ResponseEntity<byte[]> repeated = get("feed_1", since, etag, null);
+
+        assertThat(delta.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(etag).isNotNull().doesNotStartWith("W/");
+        assertThat(repeated.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(repeated.getHeaders().getETag()).isEqualTo(etag);
+    }
+
+    @Test
+    void testGetFeed_differentialWithoutChanges_returnsHeaderOnlyFeed() throws Exception {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        String since = get("feed_1", null, null, null).getHeaders().getFirst("X-Feed-Version");
+
+        ResponseEntity<byte[]> response = get("feed_1", since, null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getETag()).isNotNull();
+        GtfsRealtime.FeedMessage message = GtfsRealtime.FeedMessage.parseFrom(response.getBody());
+        assertThat(message.getHeader().getIncrementality())
+            .isEqualTo(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+        assertThat(message.getEntityCount()).isZero();
+    }
+
+    @Test
+    void testGetFeed_foreignVersionToken_returnsFullDataset() throws Exception {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        FeedSnapshotService otherReplica = new FeedSnapshotService(feedService, 300, 60_000, 10, 10);
+        String foreign = otherReplica.versionToken(otherReplica.getSnapshot("feed_1", null).version());
+
+        ResponseEntity<byte[]> response = get("feed_1", foreign, null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getFirst("X-Feed-Version")).isNotEqualTo(foreign);
+        assertThat(GtfsRealtime.FeedMessage.parseFrom(response.getBody()).getHeader().getIncrementality())
+            .isEqualTo(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET);
+    }
+
+    @Test
+    void testGetFeed_areaOutOfRange_returnsBadRequest() {
+        ResponseEntity<byte[]> bbox = controller.getVehiclePositionFeed(null, null, null, "19.9,50.0,20.0,91.0",
+            null, null, null, null, null, PROTOBUF, null);
+        ResponseEntity<byte[]> radius = controller.getVehiclePositionFeed(null, null, null, null,
+            50.0, 181.0, 500.0, null, null, PROTOBUF, null);
+        ResponseEntity<byte[]> notNumeric = controller.getVehiclePositionFeed(null, null, null, "a,b,c,d",
+            null, null, null, null, null, PROTOBUF, null);
+
+        assertThat(bbox.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(radius.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(notNumeric.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    private ResponseEntity<byte[]> get(String feedId, String since, String ifNoneMatch, String acceptEncoding) {
+        return controller.getVehiclePositionFeed(feedId, null, since, null, null, null, null,
+            ifNoneMatch, null, PROTOBUF, acceptEncoding);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return input.readAllBytes();
+        }
+    }
+
+    private static CachedEntity entity(String id, float lat) {
+        GtfsRealtime.FeedEntity entity = GtfsRealtime.FeedEntity.newBuilder()
+            .setId(id)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(lat)
+                    .setLongitude(19.945f)
+                    .build())
+                .build())
+            .build();
+        return new CachedEntity("vp:" + id, entity.toByteArray());
+    }
+
+    /**
+     * In-memory stand-in for the Redis-backed feed reads: one entity list and watermark per feed.
+     */
+    private static final class StubFeedService extends FeedService {
+
+        private final Map<String, List<CachedEntity>> entities = new HashMap<>();
+        private final Map<String, Long> watermarks = new HashMap<>();
+
+        StubFeedService() {
+            super(null, "2.0", "DIFFERENTIAL");
+        }
+
+        void put(String feedId, CachedEntity entity) {
+            entities.put(feedId, List.of(entity));
+            watermarks.merge(feedId, 1L, Long::sum);
+        }
+
+        @Override
+        public List<CachedEntity> getFeedEntities(String feedId, String agencyId) {
+            return entities.getOrDefault(feedId, List.of());
+        }
+
+        @Override
+        public long getWatermark(String feedId, String agencyId) {
+            return watermarks.getOrDefault(feedId, 0L);
+        }
+    }
+}
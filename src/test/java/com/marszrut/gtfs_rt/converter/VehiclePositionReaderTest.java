@@ -0,0 +1,152 @@
+package com.marszrut.gtfs_rt.converter;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.util.InternCache;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for the streaming vehicle position reader.
+ */
+class VehiclePositionReaderTest {
+
+    private final VPConverter converter = new VPConverter();
+    private final VehiclePositionReader reader = new VehiclePositionReader(new InternCache(1024));
+
+    @Test
+    void testNext_fullEntity_matchesParseFromPath() throws Exception {
+        GtfsRealtime.FeedEntity entity = entity("vehicle_1", "trip_1");
+
+        reader.reset(entity.toByteArray(), false);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(converter.mapFromState(reader.state(), "feed", "agency"))
+            .isEqualTo(converter.mapFromFeedEntity(entity, "feed", "agency"));
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    void testNext_unknownAndUnusedFields_skipped() throws Exception {
+        GtfsRealtime.FeedEntity plain = entity("vehicle_1", "trip_1");
+        GtfsRealtime.FeedEntity entity = plain.toBuilder()
+            .setIsDeleted(false)
+            .setVehicle(plain.getVehicle().toBuilder()
+                .setCongestionLevel(GtfsRealtime.VehiclePosition.CongestionLevel.STOP_AND_GO)
+                .setOccupancyText("busy")
+                .setPosition(plain.getVehicle().getPosition().toBuilder().setBearing(90f).setOdometer(1234.5))
+                .setUnknownFields(UnknownFieldSet.newBuilder()
+                    .addField(1000, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+                    .addField(1001, UnknownFieldSet.Field.newBuilder().addFixed64(8L).build())
+                    .build()))
+            .build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        entity.writeTo(output);
+        output.writeString(1002, "extension");
+        output.flush();
+
+        reader.reset(bytes.toByteArray(), false);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(converter.mapFromState(reader.state(), "feed", "agency"))
+            .isEqualTo(converter.mapFromFeedEntity(plain, "feed", "agency"));
+    }
+
+    @Test
+    void testNext_feedMessage_readsEveryEntity() throws Exception {
+        GtfsRealtime.FeedMessage message = GtfsRealtime.FeedMessage.newBuilder()
+            .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0"))
+            .addEntity(entity("vehicle_1", "trip_1"))
+            .addEntity(GtfsRealtime.FeedEntity.newBuilder().setId("alert_1").setIsDeleted(true))
+            .addEntity(entity("vehicle_2", "trip_2"))
+            .build();
+
+        reader.reset(message.toByteArray(), true);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.state().entityId()).isEqualTo("vehicle_1");
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.state().hasVehicle()).isFalse();
+        assertThat(converter.mapFromState(reader.state(), "feed", "agency")).isNull();
+        assertThat(reader.next()).isTrue();
+        assertThat(converter.mapFromState(reader.state(), "feed", "agency"))
+            .isEqualTo(converter.mapFromFeedEntity(message.getEntity(2), "feed", "agency"));
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    void testNext_missingRequiredFields_throws() {
+        GtfsRealtime.FeedEntity withoutId = entity("vehicle_1", "trip_1").toBuilder().clearId().buildPartial();
+        GtfsRealtime.FeedMessage withoutHeader = GtfsRealtime.FeedMessage.newBuilder()
+            .addEntity(entity("vehicle_1", "trip_1"))
+            .buildPartial();
+
+        reader.reset(withoutId.toByteArray(), false);
+        assertThatThrownBy(reader::next).isInstanceOf(InvalidProtocolBufferException.class);
+
+        reader.reset(withoutHeader.toByteArray(), true);
+        assertThatThrownBy(() -> {
+            while (reader.next()) {
+                // entities before the end of the message are still returned
+            }
+        }).isInstanceOf(InvalidProtocolBufferException.class);
+    }
+
+    @Test
+    void testNext_truncatedMessage_throws() {
+        byte[] encoded = entity("vehicle_1", "trip_1").toByteArray();
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 3);
+
+        reader.reset(truncated, false);
+
+        assertThatThrownBy(reader::next).isInstanceOf(InvalidProtocolBufferException.class);
+    }
+
+    @Test
+    void testNext_repeatedStrings_returnsSameInstances() throws IOException {
+        reader.reset(entity("vehicle_1", "trip_1").toByteArray(), false);
+        reader.next();
+        VehiclePosition first = converter.mapFromState(reader.state(), "feed", "agency");
+
+        reader.reset(entity("vehicle_1", "trip_1").toByteArray(), false);
+        reader.next();
+        VehiclePosition second = converter.mapFromState(reader.state(), "feed", "agency");
+
+        assertThat(second.getVid()).isSameAs(first.getVid());
+        assertThat(second.getTid()).isSameAs(first.getTid());
+        assertThat(second.getSid()).isSameAs(first.getSid());
+    }
+
+    private static GtfsRealtime.FeedEntity entity(String vehicleId, String tripId) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+            .setId(vehicleId)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setTrip(GtfsRealtime.TripDescriptor.newBuilder()
+                    .setTripId(tripId)
+                    .setRouteId("route_52")
+                    .setDirectionId(1)
+                    .setStartDate("20260114")
+                    .setStartTime("07:42:00")
+                    .build())
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(50.06465f)
+                    .setLongitude(19.94498f)
+                    .build())
+                .setTimestamp(1_768_377_511L)
+                .setStopId("stop_1289_301")
+                .setCurrentStatus(GtfsRealtime.VehiclePosition.VehicleStopStatus.STOPPED_AT)
+                .setOccupancyStatus(GtfsRealtime.VehiclePosition.OccupancyStatus.FEW_SEATS_AVAILABLE)
+                .build())
+            .build();
+    }
+}
@@ -0,0 +1,55 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the Digitransit topic parser.
+ */
+class DigitransitTopicParserTest {
+
+    private static final String TOPIC = "/gtfsrt/vp/test-feed/test-agency/TEST/BUS/route_test/1/Downtown/"
+        + "trip_test/stop_test/15:00:00/test_vehicle_mqtt/u/g/j/k/123/FF0000/";
+
+    private final DigitransitTopicParser parser = new DigitransitTopicParser(1024);
+
+    @Test
+    void testParse_digitransitTopic_extractsIds() {
+        DigitransitTopic topic = parser.parse(TOPIC);
+
+        assertThat(topic).isNotNull();
+        assertThat(topic.feedId().value()).isEqualTo("test-feed");
+        assertThat(topic.feedId().utf8()).isEqualTo("test-feed".getBytes(StandardCharsets.UTF_8));
+        assertThat(topic.agencyId().value()).isEqualTo("test-agency");
+        assertThat(topic.vehicleId()).isEqualTo("test_vehicle_mqtt");
+    }
+
+    @Test
+    void testParse_vehicleIsLastLevel_extractsIds() {
+        DigitransitTopic topic = parser.parse("/gtfsrt/vp/f/a/n/BUS/r/1/h/t/s/12:00:00/v1");
+
+        assertThat(topic).isNotNull();
+        assertThat(topic.vehicleId()).isEqualTo("v1");
+    }
+
+    @Test
+    void testParse_invalidTopic_returnsNull() {
+        assertThat(parser.parse("/gtfsrt/vp/f/a/n/BUS/r/1/h/t/s/12:00:00")).isNull();
+        assertThat(parser.parse("/gtfsrt/vp//a/n/BUS/r/1/h/t/s/12:00:00/v1/")).isNull();
+        assertThat(parser.parse("/gtfsrt/vp/f/a/n/BUS/r/1/h/t/s/12:00:00//")).isNull();
+    }
+
+    @Test
+    void testParse_repeatedTopic_returnsSameInstances() {
+        DigitransitTopic first = parser.parse(TOPIC);
+        DigitransitTopic second = parser.parse(new String(TOPIC));
+
+        assertThat(second.feedId()).isSameAs(first.feedId());
+        assertThat(second.agencyId()).isSameAs(first.agencyId());
+        assertThat(second.vehicleId()).isSameAs(first.vehicleId());
+    }
+}
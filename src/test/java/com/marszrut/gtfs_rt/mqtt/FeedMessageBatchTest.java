@@ -0,0 +1,56 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for FeedMessage batching of MQTT payloads.
+ */
+class FeedMessageBatchTest {
+
+    private final DigitransitTopic topic = new DigitransitTopicParser(16)
+        .parse("/gtfsrt/vp/f/a/n/BUS/r/1/h/t/s/12:00:00/v1");
+
+    @Test
+    void testToByteArray_appendedEntities_parsesAsFeedMessage() throws Exception {
+        GtfsRealtime.FeedEntity first = entity("v1", "short");
+        GtfsRealtime.FeedEntity second = entity("v2", "a-stop-id-long-enough-to-need-a-two-byte-length-".repeat(4));
+
+        FeedMessageBatch batch = new FeedMessageBatch("f:a:0", topic, 0L, 0L, "2.0");
+        batch.append(first.toByteArray());
+        batch.append(second.toByteArray());
+
+        GtfsRealtime.FeedMessage message = GtfsRealtime.FeedMessage.parseFrom(batch.toByteArray());
+
+        assertThat(batch.entityCount()).isEqualTo(2);
+        assertThat(batch.sizeBytes()).isEqualTo(batch.toByteArray().length);
+        assertThat(message.getHeader().getGtfsRealtimeVersion()).isEqualTo("2.0");
+        assertThat(message.getHeader().getIncrementality())
+            .isEqualTo(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+        assertThat(message.getEntityList()).containsExactly(first, second);
+    }
+
+    @Test
+    void testToByteArray_noEntities_parsesAsEmptyFeedMessage() throws Exception {
+        FeedMessageBatch batch = new FeedMessageBatch("f:a:0", topic, 0L, 0L, "2.0");
+
+        GtfsRealtime.FeedMessage message = GtfsRealtime.FeedMessage.parseFrom(batch.toByteArray());
+
+        assertThat(message.hasHeader()).isTrue();
+        assertThat(message.getEntityCount()).isZero();
+    }
+
+    private static GtfsRealtime.FeedEntity entity(String vehicleId, String stopId) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+            .setId(vehicleId)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder().setLatitude(50.06f).setLongitude(19.94f).build())
+                .setTimestamp(1_700_000_000L)
+                .setStopId(stopId)
+                .build())
+            .build();
+    }
+}
@@ -1,6 +1,7 @@
 package com.marszrut.gtfs_rt.mqtt;
 
 import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.VehicleKeys;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
@@ -78,12 +79,12 @@ class MqttIntegrationTest {
             .atMost(Duration.ofSeconds(10))
             .pollInterval(Duration.ofMillis(500))
             .untilAsserted(() -> {
-                Object cached = redisTemplate.opsForValue().get("vp:test_vehicle_mqtt");
+                Object cached = redisTemplate.opsForValue().get(VehicleKeys.vehicleKey("test-feed", "test-agency", "test_vehicle_mqtt"));
                 assertThat(cached).isNotNull();
             });
 
         // Verify cached data
-        Object cached = redisTemplate.opsForValue().get("vp:test_vehicle_mqtt");
+        Object cached = redisTemplate.opsForValue().get(VehicleKeys.vehicleKey("test-feed", "test-agency", "test_vehicle_mqtt"));
         assertThat(cached).isNotNull();
     }
 }
@@ -0,0 +1,213 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import com.marszrut.gtfs_rt.mqtt.DigitransitTopicParser.DigitransitTopic;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the overflow policies, send accounting and per-vehicle ordering of the MQTT to Kafka bridge.
+ * The KafkaTemplate is mocked; sends can be held back to keep a worker busy while its queue fills up.
+ */
+class MqttKafkaBridgeTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final DigitransitTopicParser parser = new DigitransitTopicParser(1024);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, byte[]> kafkaTemplate = mock(KafkaTemplate.class);
+    private final List<Sent> sent = new ArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch firstSend = new CountDownLatch(1);
+    private volatile boolean holdSends;
+    private volatile RuntimeException sendFailure;
+    private volatile boolean failAsync;
+    private MqttKafkaBridge bridge;
+
+    private record Sent(String thread, String key, byte payload) {
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (bridge != null) {
+            bridge.stop();
+        }
+    }
+
+    @Test
+    void testSubmit_dropNewest_rejectsIncomingWhenFull() throws InterruptedException {
+        bridge = startBlockedBridge(MqttKafkaBridge.OverflowPolicy.DROP_NEWEST);
+
+        assertThat(bridge.submit(topic("v2"), new byte[]{2}, "t")).isTrue();
+        assertThat(bridge.submit(topic("v3"), new byte[]{3}, "t")).isTrue();
+        assertThat(bridge.submit(topic("v4"), new byte[]{4}, "t")).isFalse();
+        release.countDown();
+
+        await().atMost(TIMEOUT).until(() -> sentPayloads().size() == 3);
+        assertThat(sentPayloads()).containsExactly((byte) 1, (byte) 2, (byte) 3);
+        assertThat(dropped("overflow")).isEqualTo(1);
+    }
+
+    @Test
+    void testSubmit_dropOldest_evictsQueuedMessage() throws InterruptedException {
+        bridge = startBlockedBridge(MqttKafkaBridge.OverflowPolicy.DROP_OLDEST);
+
+        bridge.submit(topic("v2"), new byte[]{2}, "t");
+        bridge.submit(topic("v3"), new byte[]{3}, "t");
+        assertThat(bridge.submit(topic("v4"), new byte[]{4}, "t")).isTrue();
+        release.countDown();
+
+        await().atMost(TIMEOUT).until(() -> sentPayloads().size() == 3);
+        assertThat(sentPayloads()).containsExactly((byte) 1, (byte) 3, (byte) 4);
+        assertThat(dropped("overflow")).isEqualTo(1);
+    }
+
+    @Test
+    void testSubmit_block_dropsAfterMaxBlock() throws InterruptedException {
+        bridge = startBlockedBridge(MqttKafkaBridge.OverflowPolicy.BLOCK);
+        bridge.submit(topic("v2"), new byte[]{2}, "t");
+        bridge.submit(topic("v3"), new byte[]{3}, "t");
+
+        long start = System.nanoTime();
+        assertThat(bridge.submit(topic("v4"), new byte[]{4}, "t")).isFalse();
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+        assertThat(dropped("overflow")).isEqualTo(1);
+    }
+
+    @Test
+    void testSubmit_notRunning_countedAsShutdownDrop() {
+        bridge = bridge(MqttKafkaBridge.OverflowPolicy.BLOCK, 1, 10);
+
+        assertThat(bridge.submit(topic("v1"), new byte[]{1}, "t")).isFalse();
+
+        assertThat(dropped("shutdown")).isEqualTo(1);
+        assertThat(meterRegistry.counter("gtfs.mqtt.bridge.received").count()).isEqualTo(1);
+    }
+
+    @Test
+    void testSend_failedFutureAndThrownError_countedAsFailures() {
+        stubSend();
+        bridge = bridge(MqttKafkaBridge.OverflowPolicy.BLOCK, 1, 10);
+        bridge.start();
+
+        bridge.submit(topic("v1"), new byte[]{1}, "t");
+        await().atMost(TIMEOUT).until(() -> published("success") == 1);
+        failAsync = true;
+        bridge.submit(topic("v1"), new byte[]{2}, "t");
+        await().atMost(TIMEOUT).until(() -> published("failure") == 1);
+        failAsync = false;
+        sendFailure = new IllegalStateException("producer closed");
+        bridge.submit(topic("v1"), new byte[]{3}, "t");
+
+        await().atMost(TIMEOUT).until(() -> published("failure") == 2);
+        assertThat(published("success")).isEqualTo(1);
+        assertThat(meterRegistry.timer("gtfs.mqtt.bridge.publish.latency").count()).isEqualTo(2);
+    }
+
+    @Test
+    void testSubmit_severalWorkers_vehicleKeepsWorkerAndOrder() {
+        stubSend();
+        bridge = bridge(MqttKafkaBridge.OverflowPolicy.BLOCK, 4, 10_000);
+        bridge.start();
+
+        for (byte sequence = 0; sequence < 50; sequence++) {
+            for (int vehicle = 0; vehicle < 20; vehicle++) {
+                bridge.submit(topic("v" + vehicle), new byte[]{sequence}, "t");
+            }
+        }
+
+        await().atMost(TIMEOUT).until(() -> snapshot().size() == 1000);
+        Map<String, List<Sent>> byVehicle = new HashMap<>();
+        for (Sent record : snapshot()) {
+            byVehicle.computeIfAbsent(record.key(), k -> new ArrayList<>()).add(record);
+        }
+        assertThat(byVehicle).hasSize(20).allSatisfy((vehicle, records) -> {
+            assertThat(records).extracting(Sent::thread).containsOnly(records.get(0).thread());
+            assertThat(records).extracting(Sent::payload).isSorted();
+        });
+        assertThat(snapshot().stream().map(Sent::thread).distinct().count()).isGreaterThan(1);
+    }
+
+    /**
+     * Starts a one-worker bridge with room for two queued messages and parks the worker in the send
+     * of a first message, so the following submits fill the queue.
+     */
+    private MqttKafkaBridge startBlockedBridge(MqttKafkaBridge.OverflowPolicy policy) throws InterruptedException {
+        holdSends = true;
+        stubSend();
+        MqttKafkaBridge blocked = bridge(policy, 1, 2);
+        blocked.start();
+        blocked.submit(topic("v1"), new byte[]{1}, "t");
+        assertThat(firstSend.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(blocked.queuedMessages()).isZero();
+        return blocked;
+    }
+
+    private MqttKafkaBridge bridge(MqttKafkaBridge.OverflowPolicy policy, int workers, int queueCapacity) {
+        return new MqttKafkaBridge(kafkaTemplate, meterRegistry, "vp-proto", false, queueCapacity, policy, 20,
+            workers, 500, 1000, MqttKafkaBridge.Framing.ENTITY, 500, 262144, 50, 8, "2.0");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubSend() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(call -> {
+            ProducerRecord<String, byte[]> record = call.getArgument(0);
+            if (sendFailure != null) {
+                throw sendFailure;
+            }
+            synchronized (sent) {
+                sent.add(new Sent(Thread.currentThread().getName(), record.key(), record.value()[0]));
+            }
+            firstSend.countDown();
+            if (holdSends) {
+                release.await();
+            }
+            return failAsync
+                ? CompletableFuture.failedFuture(new IllegalStateException("broker unavailable"))
+                : CompletableFuture.completedFuture(mock(SendResult.class));
+        });
+    }
+
+    private List<Sent> snapshot() {
+        synchronized (sent) {
+            return List.copyOf(sent);
+        }
+    }
+
+    private List<Byte> sentPayloads() {
+        return snapshot().stream().map(Sent::payload).toList();
+    }
+
+    private double dropped(String reason) {
+        return meterRegistry.counter("gtfs.mqtt.bridge.dropped", "reason", reason).count();
+    }
+
+    private double published(String outcome) {
+        return meterRegistry.counter("gtfs.mqtt.bridge.published", "outcome", outcome).count();
+    }
+
+    private DigitransitTopic topic(String vehicleId) {
+        return parser.parse("/gtfsrt/vp/feed_1/agency_1/n/BUS/r/1/h/t/s/12:00:00/" + vehicleId);
+    }
+}
@@ -0,0 +1,23 @@
+package com.marszrut.gtfs_rt.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the MQTT v5 shared subscription filter.
+ */
+class SharedSubscriptionInboundTest {
+
+    @Test
+    void testSharedTopic_digitransitTopic_keepsLeadingEmptyLevel() {
+        assertThat(SharedSubscriptionInbound.sharedTopic("gtfs-rt", "/gtfsrt/vp/#"))
+            .isEqualTo("$share/gtfs-rt//gtfsrt/vp/#");
+    }
+
+    @Test
+    void testSharedTopic_topicWithoutLeadingSlash() {
+        assertThat(SharedSubscriptionInbound.sharedTopic("replicas", "gtfsrt/vp/+/+/#"))
+            .isEqualTo("$share/replicas/gtfsrt/vp/+/+/#");
+    }
+}
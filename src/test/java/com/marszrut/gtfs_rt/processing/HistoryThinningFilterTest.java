@@ -0,0 +1,108 @@
+package com.marszrut.gtfs_rt.processing;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for dead-band thinning of persisted history.
+ */
+class HistoryThinningFilterTest {
+
+    private static final Instant START = Instant.parse("2026-01-01T08:00:00Z");
+
+    private SimpleMeterRegistry meterRegistry;
+    private HistoryThinningFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new HistoryThinningFilter(meterRegistry, true, 15, 60, 3600);
+    }
+
+    @Test
+    void testThin_stationaryVehicle_keepsFirstAndKeepAlive() {
+        List<VehiclePosition> batch = List.of(
+            position(0, 50.0616, 19.9373, "stop_1"),
+            position(5, 50.0616, 19.9373, "stop_1"),
+            position(30, 50.06161, 19.9373, "stop_1"),
+            position(60, 50.0616, 19.9373, "stop_1"));
+
+        List<VehiclePosition> retained = filter.thin(batch);
+        filter.commit(retained);
+
+        assertThat(retained).extracting(VehiclePosition::getT)
+            .containsExactly(START, START.plusSeconds(60));
+        assertThat(meterRegistry.counter("gtfs.history.thinning.rows", "outcome", "dropped").count()).isEqualTo(2);
+        assertThat(meterRegistry.counter("gtfs.history.thinning.rows", "outcome", "written").count()).isEqualTo(2);
+    }
+
+    @Test
+    void testThin_movementOrStopChange_isKept() {
+        filter.commit(filter.thin(List.of(position(0, 50.0616, 19.9373, "stop_1"))));
+
+        List<VehiclePosition> retained = filter.thin(List.of(
+            position(5, 50.0618, 19.9373, "stop_1"),
+            position(10, 50.0618, 19.9373, "stop_2")));
+
+        assertThat(retained).hasSize(2);
+    }
+
+    @Test
+    void testThin_uncommittedBatch_isFilteredAgainstSameState() {
+        filter.commit(filter.thin(List.of(position(0, 50.0616, 19.9373, "stop_1"))));
+        List<VehiclePosition> batch = List.of(position(5, 50.0618, 19.9373, "stop_1"));
+
+        // First attempt failed to write and was never committed; the redelivery must keep the row
+        assertThat(filter.thin(batch)).hasSize(1);
+        assertThat(filter.thin(batch)).hasSize(1);
+    }
+
+    @Test
+    void testThin_outOfOrderPosition_isKept() {
+        filter.commit(filter.thin(List.of(position(30, 50.0616, 19.9373, "stop_1"))));
+
+        assertThat(filter.thin(List.of(position(10, 50.0616, 19.9373, "stop_1")))).hasSize(1);
+    }
+
+    @Test
+    void testThin_positionWithoutCoordinates_passedThroughWithoutState() {
+        filter.commit(filter.thin(List.of(position(0, 50.0616, 19.9373, "stop_1"))));
+        VehiclePosition noFix = VehiclePosition.builder()
+            .vid("vehicle_001")
+            .fid("feed_1")
+            .aid("agency_1")
+            .sid("stop_1")
+            .ss(1)
+            .t(START.plusSeconds(5))
+            .build();
+
+        List<VehiclePosition> retained = filter.thin(List.of(noFix, position(10, 50.0616, 19.9373, "stop_1")));
+        filter.commit(retained);
+
+        assertThat(retained).containsExactly(noFix);
+        assertThat(filter.thin(List.of(position(20, 50.0616, 19.9373, "stop_1")))).isEmpty();
+    }
+
+    private static VehiclePosition position(long offsetSeconds, double lat, double lon, String stopId) {
+        return VehiclePosition.builder()
+            .vid("vehicle_001")
+            .fid("feed_1")
+            .aid("agency_1")
+            .rid("route_1")
+            .tid("trip_1")
+            .sid(stopId)
+            .ss(1)
+            .os(2)
+            .lat(lat)
+            .lon(lon)
+            .t(START.plusSeconds(offsetSeconds))
+            .build();
+    }
+}
@@ -0,0 +1,208 @@
+package com.marszrut.gtfs_rt.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.consumer.VehiclePositionRecordDecoder;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for DLQ replay state transitions and throughput throttling.
+ * The DLQ consumer is a Kafka {@link MockConsumer}; the history writer is mocked.
+ */
+class SlowPathDlqReplayServiceTest {
+
+    private static final String DLQ_TOPIC = "gtfsrt.vp.slow-path.DLT";
+    private static final TopicPartition PARTITION = new TopicPartition(DLQ_TOPIC, 0);
+
+    private final HistoryWriter historyWriter = mock(HistoryWriter.class);
+    private final List<VehiclePosition> written = new ArrayList<>();
+    private final List<MockConsumer<String, byte[]>> consumers = new ArrayList<>();
+    private final List<Long> commits = new ArrayList<>();
+    private SlowPathDlqReplayService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testPauseResumeStop_transitionsOnlyFromValidStates() {
+        service = service(0);
+
+        assertThat(service.pause()).isFalse();
+        assertThat(service.resume()).isFalse();
+        assertThat(service.stop()).isFalse();
+
+        assertThat(service.start()).isTrue();
+        assertThat(service.start()).isFalse();
+        assertThat(service.resume()).isFalse();
+        assertThat(service.pause()).isTrue();
+        assertThat(service.status().state()).isEqualTo(SlowPathDlqReplayService.State.PAUSED);
+        assertThat(service.pause()).isFalse();
+        assertThat(service.resume()).isTrue();
+        assertThat(service.status().state()).isEqualTo(SlowPathDlqReplayService.State.RUNNING);
+
+        assertThat(service.stop()).isTrue();
+        await().atMost(Duration.ofSeconds(5))
+            .until(() -> service.status().state() == SlowPathDlqReplayService.State.STOPPED);
+        assertThat(consumers.get(0).closed()).isTrue();
+        assertThat(service.stop()).isFalse();
+    }
+
+    @Test
+    void testStop_whilePaused_stopsAndAllowsRestart() {
+        service = service(0);
+        service.start();
+        service.pause();
+
+        assertThat(service.stop()).isTrue();
+        await().atMost(Duration.ofSeconds(5))
+            .until(() -> service.status().state() == SlowPathDlqReplayService.State.STOPPED);
+
+        assertThat(service.start()).isTrue();
+        assertThat(service.status().state()).isEqualTo(SlowPathDlqReplayService.State.RUNNING);
+    }
+
+    @Test
+    void testStart_drainsTopicAndCompletes() {
+        service = service(0, List.of(
+            record(0, entity("vehicle_001").toByteArray()),
+            record(1, new byte[0]),
+            record(2, entity("vehicle_002").toByteArray())));
+
+        service.start();
+        await().atMost(Duration.ofSeconds(5))
+            .until(() -> service.status().state() == SlowPathDlqReplayService.State.COMPLETED);
+
+        SlowPathDlqReplayService.ReplayStatus status = service.status();
+        assertThat(written).extracting(VehiclePosition::getVid).containsExactly("vehicle_001", "vehicle_002");
+        assertThat(status.replayed()).isEqualTo(2);
+        assertThat(status.skipped()).isEqualTo(1);
+        assertThat(status.remaining()).isZero();
+        assertThat(commits).containsExactly(3L);
+        assertThat(consumers.get(0).closed()).isTrue();
+    }
+
+    @Test
+    void testThrottle_spacesBatchesToConfiguredRate() throws InterruptedException {
+        service = service(1_000);
+        long start = System.nanoTime();
+
+        long next = service.throttle(start, 100);
+
+        assertThat(next).isEqualTo(start + TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(System.nanoTime()).isGreaterThanOrEqualTo(next);
+    }
+
+    @Test
+    void testThrottle_idleTimeCreditCappedAtOneSecond() throws InterruptedException {
+        service = service(1_000);
+        long now = System.nanoTime();
+
+        // Ten idle seconds must not allow a ten-second burst: at most one second of credit is kept
+        long next = service.throttle(now - TimeUnit.SECONDS.toNanos(10), 500);
+
+        assertThat(next).isBetween(now - TimeUnit.MILLISECONDS.toNanos(500),
+            System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void testThrottle_unlimited_neverWaits() throws InterruptedException {
+        service = service(0);
+        long start = System.nanoTime();
+
+        long next = service.throttle(start + TimeUnit.SECONDS.toNanos(10), 1_000_000);
+
+        assertThat(next).isLessThan(start + TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private SlowPathDlqReplayService service(long maxRecordsPerSecond) {
+        return service(maxRecordsPerSecond, List.of());
+    }
+
+    /**
+     * Each replay run gets a new consumer; with records, it is assigned the DLQ partition holding them
+     * on its first poll, otherwise it never gets an assignment and the replay keeps polling.
+     */
+    @SuppressWarnings("unchecked")
+    private SlowPathDlqReplayService service(long maxRecordsPerSecond, List<ConsumerRecord<String, byte[]>> records) {
+        ConsumerFactory<String, byte[]> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer(anyString(), isNull(), anyString(), any(Properties.class)))
+            .thenAnswer(call -> {
+                MockConsumer<String, byte[]> consumer = new MockConsumer<>("earliest") {
+                    @Override
+                    public synchronized void commitSync() {
+                        super.commitSync();
+                        commits.add(committed(Set.of(PARTITION)).get(PARTITION).offset());
+                    }
+                };
+                if (!records.isEmpty()) {
+                    consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+                    consumer.updateEndOffsets(Map.of(PARTITION, (long) records.size()));
+                    consumer.schedulePollTask(() -> {
+                        consumer.rebalance(List.of(PARTITION));
+                        records.forEach(consumer::addRecord);
+                    });
+                }
+                consumers.add(consumer);
+                return consumer;
+            });
+        when(historyWriter.persistHistoryBatch(anyList())).thenAnswer(call -> {
+            List<VehiclePosition> positions = call.getArgument(0);
+            written.addAll(positions);
+            return positions.size();
+        });
+        return new SlowPathDlqReplayService(consumerFactory, new VehiclePositionRecordDecoder(new VPConverter(), 1024),
+            historyWriter, new ObjectMapper(), new SimpleMeterRegistry(), DLQ_TOPIC, "slow-path-dlq-replay",
+            100, maxRecordsPerSecond);
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset, byte[] value) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(DLQ_TOPIC, 0, offset, "key", value);
+        record.headers().add(VehiclePositionRecordDecoder.FEED_ID_HEADER, "feed_1".getBytes(StandardCharsets.UTF_8));
+        record.headers().add(VehiclePositionRecordDecoder.AGENCY_ID_HEADER, "agency_1".getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+
+    private static GtfsRealtime.FeedEntity entity(String vehicleId) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+            .setId(vehicleId)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(50.0647f)
+                    .setLongitude(19.945f)
+                    .build())
+                .setTimestamp(1_768_377_511L)
+                .build())
+            .build();
+    }
+}
@@ -0,0 +1,144 @@
+package com.marszrut.gtfs_rt.repository;
+
+import com.marszrut.gtfs_rt.dto.RouteActivityDto;
+import com.marszrut.gtfs_rt.dto.StopHeadwayDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the analytics queries, run against the plain-view rollups of Flyway V3
+ * (the fallback without TimescaleDB) on an in-memory H2 database in PostgreSQL mode.
+ */
+class AnalyticsRepositoryTest {
+
+    private static final Instant T0 = Instant.parse("2026-01-14T07:00:00Z");
+
+    private JdbcTemplate jdbcTemplate;
+    private AnalyticsRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=TIMESTAMP");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE vehicle_positions (feed_id VARCHAR, agency_id VARCHAR, route_id VARCHAR, "
+            + "trip_id VARCHAR, vehicle_id VARCHAR, current_stop_id VARCHAR, current_stop_status INT, "
+            + "occupancy_status INT, timestamp TIMESTAMP WITH TIME ZONE)");
+        // Same definitions as the non-TimescaleDB branch of V3__continuous_aggregates.sql
+        jdbcTemplate.execute("CREATE VIEW vp_vehicle_activity_1m AS SELECT date_trunc('minute', timestamp) AS bucket, "
+            + "feed_id, agency_id, route_id, vehicle_id, count(*) AS samples, "
+            + "count(occupancy_status) AS occupancy_samples, sum(occupancy_status) AS occupancy_sum "
+            + "FROM vehicle_positions GROUP BY 1, feed_id, agency_id, route_id, vehicle_id");
+        jdbcTemplate.execute("CREATE VIEW vp_vehicle_activity_1h AS SELECT date_trunc('hour', timestamp) AS bucket, "
+            + "feed_id, agency_id, route_id, vehicle_id, count(*) AS samples, "
+            + "count(occupancy_status) AS occupancy_samples, sum(occupancy_status) AS occupancy_sum "
+            + "FROM vehicle_positions GROUP BY 1, feed_id, agency_id, route_id, vehicle_id");
+        jdbcTemplate.execute("CREATE VIEW vp_stop_arrivals_1h AS SELECT date_trunc('hour', timestamp) AS bucket, "
+            + "feed_id, agency_id, route_id, current_stop_id AS stop_id, trip_id, vehicle_id, "
+            + "min(timestamp) AS arrived_at FROM vehicle_positions WHERE current_stop_status = 1 "
+            + "GROUP BY 1, feed_id, agency_id, route_id, current_stop_id, trip_id, vehicle_id");
+        repository = new AnalyticsRepository(jdbcTemplate);
+    }
+
+    @Test
+    void testFindRouteActivity_countsVehiclesPerBucketAndRoute() {
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 2, 0, 10);
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 2, 4, 20);
+        insert("feed_1", "agency_1", "route_52", "v2", "trip_2", "stop_1", 2, null, 30);
+        insert("feed_1", "agency_1", "route_7", "v3", "trip_3", "stop_1", 2, 1, 40);
+
+        List<RouteActivityDto> activity = repository.findRouteActivity(AnalyticsRepository.Granularity.MINUTE,
+            T0, T0.plusSeconds(60), null, null, null);
+
+        assertThat(activity).hasSize(2);
+        RouteActivityDto route52 = activity.get(0);
+        assertThat(route52.routeId()).isEqualTo("route_52");
+        assertThat(route52.bucket()).isEqualTo(T0);
+        assertThat(route52.vehiclesInService()).isEqualTo(2);
+        assertThat(route52.samples()).isEqualTo(3);
+        assertThat(route52.averageOccupancy()).isEqualTo(2.0);
+        assertThat(activity.get(1).routeId()).isEqualTo("route_7");
+    }
+
+    @Test
+    void testFindRouteActivity_filtersCombineAndEmptyMeansNone() {
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 2, 0, 10);
+        insert("feed_1", "agency_2", "route_52", "v2", "trip_2", "stop_1", 2, 0, 10);
+        insert("feed_2", "agency_1", "route_52", "v3", "trip_3", "stop_1", 2, 0, 10);
+        insert("feed_1", "agency_1", "route_7", "v4", "trip_4", "stop_1", 2, 0, 10);
+
+        assertThat(activity("feed_1", "agency_1", "route_52")).extracting(RouteActivityDto::vehiclesInService).containsExactly(1L);
+        assertThat(activity("feed_1", null, "route_52")).extracting(RouteActivityDto::agencyId)
+            .containsExactly("agency_1", "agency_2");
+        assertThat(activity("", "", "route_52")).hasSize(3);
+        assertThat(activity(null, "agency_1", null)).extracting(RouteActivityDto::feedId)
+            .containsExactly("feed_1", "feed_1", "feed_2");
+    }
+
+    @Test
+    void testFindRouteActivity_rangeEndExclusive() {
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 2, 0, 3_599);
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 2, 0, 3_600);
+
+        List<RouteActivityDto> activity = repository.findRouteActivity(AnalyticsRepository.Granularity.HOUR,
+            T0, T0.plusSeconds(3_600), null, null, null);
+
+        assertThat(activity).extracting(RouteActivityDto::bucket).containsExactly(T0);
+    }
+
+    @Test
+    void testFindHeadways_lagPerStop_firstArrivalHasNone() {
+        // trip_1 reports STOPPED_AT twice at stop_1; only its first report counts
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 1, 0, 100);
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 1, 0, 130);
+        insert("feed_1", "agency_1", "route_52", "v2", "trip_2", "stop_1", 1, 0, 700);
+        insert("feed_1", "agency_1", "route_52", "v3", "trip_3", "stop_2", 1, 0, 800);
+        // In transit, not an arrival
+        insert("feed_1", "agency_1", "route_52", "v4", "trip_4", "stop_1", 2, 0, 900);
+        // Another route
+        insert("feed_1", "agency_1", "route_7", "v5", "trip_5", "stop_1", 1, 0, 400);
+
+        List<StopHeadwayDto> headways = repository.findHeadways(T0, T0.plusSeconds(3_600), "route_52", null, null, null);
+
+        assertThat(headways).extracting(StopHeadwayDto::tripId).containsExactly("trip_1", "trip_2", "trip_3");
+        assertThat(headways).extracting(StopHeadwayDto::headwaySeconds).containsExactly(null, 600L, null);
+        assertThat(headways.get(0).arrivedAt()).isEqualTo(T0.plusSeconds(100));
+    }
+
+    @Test
+    void testFindHeadways_arrivalAcrossHourBoundary_countedOnce() {
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 1, 0, 3_590);
+        insert("feed_1", "agency_1", "route_52", "v1", "trip_1", "stop_1", 1, 0, 3_610);
+        insert("feed_1", "agency_1", "route_52", "v2", "trip_2", "stop_1", 1, 0, 4_190);
+
+        List<StopHeadwayDto> headways = repository.findHeadways(T0.plusSeconds(1_800), T0.plusSeconds(7_200),
+            "route_52", "feed_1", "agency_1", "stop_1");
+
+        assertThat(headways).extracting(StopHeadwayDto::tripId).containsExactly("trip_1", "trip_2");
+        assertThat(headways).extracting(StopHeadwayDto::headwaySeconds).containsExactly(null, 600L);
+        assertThat(repository.findHeadways(T0, T0.plusSeconds(7_200), "route_52", null, null, "stop_2")).isEmpty();
+    }
+
+    private List<RouteActivityDto> activity(String feedId, String agencyId, String routeId) {
+        return repository.findRouteActivity(AnalyticsRepository.Granularity.MINUTE,
+            T0, T0.plusSeconds(60), feedId, agencyId, routeId);
+    }
+
+    private void insert(String feedId, String agencyId, String routeId, String vehicleId, String tripId,
+                        String stopId, int stopStatus, Integer occupancy, long secondsAfterT0) {
+        jdbcTemplate.update("INSERT INTO vehicle_positions (feed_id, agency_id, route_id, vehicle_id, trip_id, "
+                + "current_stop_id, current_stop_status, occupancy_status, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            feedId, agencyId, routeId, vehicleId, tripId, stopId, stopStatus, occupancy,
+            OffsetDateTime.ofInstant(T0.plusSeconds(secondsAfterT0), ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,180 @@
+package com.marszrut.gtfs_rt.repository;
+
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the multi-row INSERT builder of the history batch writer.
+ * The JdbcTemplate is mocked, each statement reporting one row per chunk as a duplicate, except for
+ * the duplicate-skip test, which runs against H2.
+ */
+class VehiclePositionBatchRepositoryTest {
+
+    private static final int COLUMNS = 16;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final List<String> statements = new ArrayList<>();
+    private final List<PreparedStatement> boundStatements = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class))).thenAnswer(call -> {
+            String sql = call.getArgument(0);
+            PreparedStatement ps = mock(PreparedStatement.class);
+            ((PreparedStatementSetter) call.getArgument(1)).setValues(ps);
+            statements.add(sql);
+            boundStatements.add(ps);
+            return rows(sql) - 1;
+        });
+    }
+
+    @Test
+    void testInsertAll_splitsIntoChunks_sumsInsertedRows() {
+        VehiclePositionBatchRepository repository = new VehiclePositionBatchRepository(jdbcTemplate, 2);
+
+        int inserted = repository.insertAll(positions(5));
+
+        assertThat(statements).extracting(VehiclePositionBatchRepositoryTest::rows).containsExactly(2, 2, 1);
+        assertThat(inserted).isEqualTo(1 + 1 + 0);
+        assertThat(statements).allSatisfy(sql -> assertThat(sql)
+            .startsWith("INSERT INTO vehicle_positions (")
+            .endsWith(" ON CONFLICT (feed_id, vehicle_id, timestamp) DO NOTHING"));
+    }
+
+    @Test
+    void testInsertAll_chunkSizeCappedAtBindParameterLimit() {
+        VehiclePositionBatchRepository repository = new VehiclePositionBatchRepository(jdbcTemplate, 10_000);
+        int maxRows = 65535 / COLUMNS;
+
+        repository.insertAll(positions(maxRows + 1));
+
+        assertThat(statements).extracting(VehiclePositionBatchRepositoryTest::rows).containsExactly(maxRows, 1);
+        assertThat(rows(statements.get(0)) * COLUMNS).isLessThanOrEqualTo(65535);
+    }
+
+    @Test
+    void testInsertAll_nullFields_boundAsSqlNull() throws Exception {
+        VehiclePositionBatchRepository repository = new VehiclePositionBatchRepository(jdbcTemplate, 500);
+        VehiclePosition sparse = VehiclePosition.builder().fid("feed_1").vid("vehicle_001").ss(0).build();
+
+        repository.insertAll(List.of(sparse));
+
+        PreparedStatement ps = boundStatements.get(0);
+        verify(ps).setString(1, "feed_1");
+        verify(ps).setString(2, "vehicle_001");
+        verify(ps).setNull(6, Types.INTEGER);
+        verify(ps).setNull(11, Types.DOUBLE);
+        verify(ps).setNull(12, Types.DOUBLE);
+        verify(ps).setNull(15, Types.INTEGER);
+        verify(ps).setObject(16, null);
+    }
+
+    @Test
+    void testInsertAll_timestampBoundAsUtcOffsetDateTime() throws Exception {
+        VehiclePositionBatchRepository repository = new VehiclePositionBatchRepository(jdbcTemplate, 500);
+        Instant timestamp = Instant.parse("2026-01-14T07:42:00Z");
+
+        repository.insertAll(List.of(position(0, timestamp)));
+
+        PreparedStatement ps = boundStatements.get(0);
+        verify(ps).setInt(6, 1);
+        verify(ps).setDouble(11, 50.0647);
+        verify(ps).setObject(16, OffsetDateTime.ofInstant(timestamp, ZoneOffset.UTC));
+    }
+
+    @Test
+    void testInsertAll_empty_issuesNoStatement() {
+        VehiclePositionBatchRepository repository = new VehiclePositionBatchRepository(jdbcTemplate, 500);
+
+        assertThat(repository.insertAll(List.of())).isZero();
+        assertThat(statements).isEmpty();
+    }
+
+    @Test
+    void testInsertAll_existingAndRepeatedRows_skippedByNaturalKey() {
+        VehiclePositionBatchRepository repository = new VehiclePositionBatchRepository(h2WithNaturalKey(), 500);
+        List<VehiclePosition> first = positions(3);
+
+        assertThat(repository.insertAll(first)).isEqualTo(3);
+        // Redelivery of the whole batch plus one new row, which also appears twice in the same statement
+        List<VehiclePosition> redelivered = new ArrayList<>(first);
+        redelivered.add(position(3, first.get(2).getT().plusSeconds(1)));
+        redelivered.add(position(3, first.get(2).getT().plusSeconds(1)));
+
+        assertThat(repository.insertAll(redelivered)).isEqualTo(1);
+    }
+
+    /**
+     * H2 in PostgreSQL mode with the unique index of Flyway V4. H2 only accepts ON CONFLICT without a
+     * conflict target, so the statements are narrowed to that form; the index decides what conflicts either way.
+     */
+    private static JdbcTemplate h2WithNaturalKey() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=TIMESTAMP");
+        JdbcTemplate h2 = new JdbcTemplate(dataSource) {
+            @Override
+            public int update(String sql, PreparedStatementSetter pss) {
+                return super.update(sql.replace("ON CONFLICT (feed_id, vehicle_id, timestamp)", "ON CONFLICT"), pss);
+            }
+        };
+        h2.execute("CREATE TABLE vehicle_positions (id BIGSERIAL, feed_id VARCHAR(50), vehicle_id VARCHAR(50), "
+            + "agency_id VARCHAR(50), route_id VARCHAR(50), trip_id VARCHAR(100), direction_id INTEGER, "
+            + "start_date VARCHAR(10), start_time VARCHAR(10), current_stop_id VARCHAR(50), current_stop_status INTEGER, "
+            + "latitude DOUBLE PRECISION, longitude DOUBLE PRECISION, vehicle_label VARCHAR(100), "
+            + "license_plate VARCHAR(50), occupancy_status INTEGER, timestamp TIMESTAMP WITH TIME ZONE)");
+        h2.execute("CREATE UNIQUE INDEX uq_vehicle_positions_feed_vehicle_time "
+            + "ON vehicle_positions (feed_id, vehicle_id, timestamp)");
+        return h2;
+    }
+
+    private static int rows(String sql) {
+        return sql.split("\\(\\?", -1).length - 1;
+    }
+
+    private static List<VehiclePosition> positions(int count) {
+        Instant timestamp = Instant.parse("2026-01-14T07:42:00Z");
+        return IntStream.range(0, count).mapToObj(i -> position(i, timestamp.plusSeconds(i))).toList();
+    }
+
+    private static VehiclePosition position(int i, Instant timestamp) {
+        return VehiclePosition.builder()
+            .fid("feed_1")
+            .vid("vehicle_" + i)
+            .aid("agency_1")
+            .rid("route_52")
+            .tid("trip_1")
+            .did(1)
+            .sd("20260114")
+            .st("07:42:00")
+            .sid("stop_1")
+            .ss(0)
+            .lat(50.0647)
+            .lon(19.945)
+            .vl("")
+            .lp("")
+            .os(0)
+            .t(timestamp)
+            .build();
+    }
+}
@@ -0,0 +1,68 @@
+package com.marszrut.gtfs_rt.retry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for routing failed slow-path records through the retry tiers.
+ */
+class SlowPathRetryTopologyTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SlowPathRetryTopology topology;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        topology = new SlowPathRetryTopology(meterRegistry, new long[] {5000, 30000}, "vp.DLT");
+    }
+
+    @Test
+    void testDestination_walksTiersThenDlq() {
+        ConsumerRecord<String, byte[]> main = new ConsumerRecord<>("vp-proto", 0, 10, "vehicle_001", new byte[0]);
+        assertThat(topology.destination(main).topic()).isEqualTo("vp-proto.retry-5000");
+
+        ConsumerRecord<String, byte[]> tier1 = republish(main, "vp-proto.retry-5000");
+        assertThat(SlowPathRetryTopology.tierOf(tier1)).isEqualTo(1);
+        assertThat(topology.destination(tier1).topic()).isEqualTo("vp-proto.retry-30000");
+
+        ConsumerRecord<String, byte[]> tier2 = republish(tier1, "vp-proto.retry-30000");
+        assertThat(SlowPathRetryTopology.originTopicOf(tier2)).isEqualTo("vp-proto");
+        assertThat(topology.destination(tier2).topic()).isEqualTo("vp.DLT");
+
+        assertThat(meterRegistry.counter("gtfs.kafka.retry.routed", "path", "slow", "tier", "1").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("gtfs.kafka.retry.routed", "path", "slow", "tier", "2").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("gtfs.kafka.retry.routed", "path", "slow", "tier", "dlq").count()).isEqualTo(1);
+    }
+
+    @Test
+    void testRetryHeaders_setDueTime() {
+        ConsumerRecord<String, byte[]> main = new ConsumerRecord<>("vp-proto", 0, 10, "vehicle_001", new byte[0]);
+        long before = System.currentTimeMillis();
+
+        ConsumerRecord<String, byte[]> tier1 = republish(main, "vp-proto.retry-5000");
+
+        assertThat(topology.dueAtOf(tier1, 1)).isBetween(before + 5000, System.currentTimeMillis() + 5000);
+    }
+
+    /**
+     * Mimics the recoverer: copies the original headers and appends the retry headers.
+     */
+    private ConsumerRecord<String, byte[]> republish(ConsumerRecord<String, byte[]> failed, String topic) {
+        Headers retryHeaders = topology.retryHeaders(failed);
+        ConsumerRecord<String, byte[]> next = new ConsumerRecord<>(topic, 0, 0, failed.key(), failed.value());
+        for (Header header : failed.headers()) {
+            next.headers().add(header);
+        }
+        for (Header header : retryHeaders) {
+            next.headers().add(header);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,68 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the versioned change log behind differential feeds.
+ */
+class FeedChangeLogTest {
+
+    @Test
+    void testChangesSince_returnsUpsertsAndTombstones() throws Exception {
+        FeedChangeLog changeLog = new FeedChangeLog(10);
+        CachedEntity first = entity("vehicle_001", 50.0f);
+        CachedEntity second = entity("vehicle_002", 51.0f);
+        CachedEntity firstMoved = entity("vehicle_001", 50.5f);
+
+        changeLog.record(1, List.of(first, second));
+        changeLog.record(2, List.of(firstMoved));
+
+        List<CachedEntity> changes = changeLog.changesSince(1);
+        assertThat(changes).hasSize(2);
+        assertThat(changes.get(0).entity()).isEqualTo(firstMoved.entity());
+
+        GtfsRealtime.FeedEntity tombstone = GtfsRealtime.FeedEntity.parseFrom(changes.get(1).entity());
+        assertThat(tombstone.getId()).isEqualTo("vehicle_002");
+        assertThat(tombstone.getIsDeleted()).isTrue();
+    }
+
+    @Test
+    void testChangesSince_latestVersion_isEmpty() {
+        FeedChangeLog changeLog = new FeedChangeLog(10);
+        changeLog.record(1, List.of(entity("vehicle_001", 50.0f)));
+        changeLog.record(2, List.of(entity("vehicle_001", 50.5f)));
+
+        assertThat(changeLog.changesSince(2)).isEmpty();
+    }
+
+    @Test
+    void testChangesSince_evictedVersion_requiresFullDataset() {
+        FeedChangeLog changeLog = new FeedChangeLog(2);
+        for (int version = 1; version <= 5; version++) {
+            changeLog.record(version, List.of(entity("vehicle_001", 50.0f + version)));
+        }
+
+        assertThat(changeLog.changesSince(2)).isNull();
+        assertThat(changeLog.changesSince(3)).hasSize(1);
+        assertThat(changeLog.changesSince(6)).isNull();
+    }
+
+    private static CachedEntity entity(String id, float lat) {
+        GtfsRealtime.FeedEntity entity = GtfsRealtime.FeedEntity.newBuilder()
+            .setId(id)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(lat)
+                    .setLongitude(19.945f)
+                    .build())
+                .build())
+            .build();
+        return new CachedEntity("vp:" + id, entity.toByteArray());
+    }
+}
@@ -0,0 +1,70 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for assembling a FeedMessage from pre-encoded FeedEntity bytes.
+ */
+class FeedServiceTest {
+
+    private final FeedService feedService = new FeedService(null, "2.0", "FULL_DATASET");
+
+    @Test
+    void testEncodeFeed_concatenatedEntitiesParseAsFeedMessage() throws Exception {
+        GtfsRealtime.FeedEntity first = vehicle("vehicle_001", 50.0647f, 19.945f);
+        GtfsRealtime.FeedEntity second = vehicle("vehicle_002", 52.2297f, 21.0122f);
+
+        byte[] feed = feedService.encodeFeed(List.of(
+            new CachedEntity("vp:vehicle_001", first.toByteArray()),
+            new CachedEntity("vp:vehicle_002", second.toByteArray())
+        ));
+
+        GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(feed);
+        assertThat(feedMessage.getHeader().getGtfsRealtimeVersion()).isEqualTo("2.0");
+        assertThat(feedMessage.getHeader().getIncrementality())
+            .isEqualTo(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET);
+        assertThat(feedMessage.getEntityList()).containsExactly(first, second);
+    }
+
+    @Test
+    void testEncodeFeed_matchesProtobufBuilderEncoding() throws Exception {
+        GtfsRealtime.FeedEntity entity = vehicle("vehicle_003", 50.0f, 20.0f);
+
+        byte[] feed = feedService.encodeFeed(List.of(new CachedEntity("vp:vehicle_003", entity.toByteArray())));
+        GtfsRealtime.FeedMessage parsed = GtfsRealtime.FeedMessage.parseFrom(feed);
+
+        byte[] expected = GtfsRealtime.FeedMessage.newBuilder()
+            .setHeader(parsed.getHeader())
+            .addEntity(entity)
+            .build()
+            .toByteArray();
+        assertThat(feed).isEqualTo(expected);
+    }
+
+    @Test
+    void testEncodeFeed_withoutEntities_containsHeaderOnly() throws Exception {
+        GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(feedService.encodeFeed(List.of()));
+
+        assertThat(feedMessage.hasHeader()).isTrue();
+        assertThat(feedMessage.getEntityCount()).isZero();
+    }
+
+    private static GtfsRealtime.FeedEntity vehicle(String id, float lat, float lon) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+            .setId(id)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(lat)
+                    .setLongitude(lon)
+                    .build())
+                .setTimestamp(1736428800L)
+                .build())
+            .build();
+    }
+}
@@ -0,0 +1,171 @@
+package com.marszrut.gtfs_rt.service;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for materializing, refreshing and limiting feed snapshots.
+ */
+class FeedSnapshotServiceTest {
+
+    private final StubFeedService feedService = new StubFeedService("DIFFERENTIAL");
+
+    @Test
+    void testGetSnapshot_knownFilter_builtOnceAndReused() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        FeedSnapshotService service = service(10);
+
+        FeedSnapshot first = service.getSnapshot("feed_1", null);
+        FeedSnapshot second = service.getSnapshot("feed_1", "");
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.entityCount()).isEqualTo(1);
+        assertThat(feedService.reads).isEqualTo(1);
+    }
+
+    @Test
+    void testRefreshSnapshots_rebuildsOnlyWhenWatermarkMoves() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        FeedSnapshotService service = service(10);
+        FeedSnapshot initial = service.getSnapshot("feed_1", null);
+
+        service.refreshSnapshots();
+        assertThat(feedService.reads).isEqualTo(1);
+        assertThat(service.getSnapshot("feed_1", null)).isSameAs(initial);
+
+        feedService.put("feed_1", entity("vehicle_001", 50.5f));
+        service.refreshSnapshots();
+
+        FeedSnapshot refreshed = service.getSnapshot("feed_1", null);
+        assertThat(feedService.reads).isEqualTo(2);
+        assertThat(refreshed.version()).isGreaterThan(initial.version());
+        assertThat(refreshed.etag(false, false)).isNotEqualTo(initial.etag(false, false));
+    }
+
+    @Test
+    void testRefreshSnapshots_unchangedContent_keepsSnapshot() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        FeedSnapshotService service = new FeedSnapshotService(feedService, 300, 0, 10, 10);
+        FeedSnapshot initial = service.getSnapshot("feed_1", null);
+
+        service.refreshSnapshots();
+
+        assertThat(feedService.reads).isEqualTo(2);
+        assertThat(service.getSnapshot("feed_1", null)).isSameAs(initial);
+    }
+
+    @Test
+    void testGetSnapshot_unknownFilter_builtPerRequestWithoutCaching() {
+        FeedSnapshotService service = service(10);
+
+        FeedSnapshot first = service.getSnapshot("no_such_feed", null);
+        FeedSnapshot second = service.getSnapshot("no_such_feed", null);
+
+        assertThat(first.entityCount()).isZero();
+        assertThat(second).isNotSameAs(first);
+        assertThat(feedService.reads).isEqualTo(2);
+        assertThat(service.getDelta("no_such_feed", null, service.versionToken(first.version()))).isNull();
+    }
+
+    @Test
+    void testGetSnapshot_limitReached_builtPerRequestWithoutCaching() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        feedService.put("feed_2", entity("vehicle_002", 51.0f));
+        FeedSnapshotService service = service(1);
+
+        FeedSnapshot kept = service.getSnapshot("feed_1", null);
+        FeedSnapshot overflow = service.getSnapshot("feed_2", null);
+
+        assertThat(overflow.entityCount()).isEqualTo(1);
+        assertThat(service.getSnapshot("feed_2", null)).isNotSameAs(overflow);
+        assertThat(service.getSnapshot("feed_1", null)).isSameAs(kept);
+        assertThat(feedService.reads).isEqualTo(3);
+    }
+
+    @Test
+    void testGetDelta_returnsChangesSinceClientVersion() throws Exception {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        FeedSnapshotService service = service(10);
+        String since = service.versionToken(service.getSnapshot("feed_1", null).version());
+
+        feedService.put("feed_1", entity("vehicle_001", 50.5f));
+        service.refreshSnapshots();
+        FeedDelta delta = service.getDelta("feed_1", null, since);
+
+        assertThat(delta.version()).isEqualTo(service.getSnapshot("feed_1", null).version());
+        GtfsRealtime.FeedMessage message = GtfsRealtime.FeedMessage.parseFrom(delta.protobuf());
+        assertThat(message.getHeader().getIncrementality())
+            .isEqualTo(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+        assertThat(message.getEntity(0).getVehicle().getPosition().getLatitude()).isEqualTo(50.5f);
+        assertThat(service.getDelta("feed_1", null, service.versionToken(delta.version())).entityCount()).isZero();
+    }
+
+    @Test
+    void testGetDelta_foreignOrMalformedToken_returnsNull() {
+        feedService.put("feed_1", entity("vehicle_001", 50.0f));
+        FeedSnapshotService service = service(10);
+        FeedSnapshotService otherReplica = service(10);
+        long version = service.getSnapshot("feed_1", null).version();
+        otherReplica.getSnapshot("feed_1", null);
+
+        assertThat(service.getDelta("feed_1", null, service.versionToken(version))).isNotNull();
+        assertThat(otherReplica.getDelta("feed_1", null, service.versionToken(version))).isNull();
+        assertThat(service.getDelta("feed_1", null, Long.toString(version))).isNull();
+        assertThat(service.getDelta("feed_1", null, service.versionToken(version) + "x")).isNull();
+        assertThat(service.getDelta("feed_1", null, service.versionToken(-1))).isNull();
+    }
+
+    private FeedSnapshotService service(int maxSnapshots) {
+        return new FeedSnapshotService(feedService, 300, 60_000, 10, maxSnapshots);
+    }
+
+    private static CachedEntity entity(String id, float lat) {
+        GtfsRealtime.FeedEntity entity = GtfsRealtime.FeedEntity.newBuilder()
+            .setId(id)
+            .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                .setPosition(GtfsRealtime.Position.newBuilder()
+                    .setLatitude(lat)
+                    .setLongitude(19.945f)
+                    .build())
+                .build())
+            .build();
+        return new CachedEntity("vp:" + id, entity.toByteArray());
+    }
+
+    /**
+     * In-memory stand-in for the Redis-backed feed reads: one entity list and watermark per feed.
+     */
+    private static final class StubFeedService extends FeedService {
+
+        private final Map<String, List<CachedEntity>> entities = new HashMap<>();
+        private final Map<String, Long> watermarks = new HashMap<>();
+        private int reads;
+
+        StubFeedService(String incrementality) {
+            super(null, "2.0", incrementality);
+        }
+
+        void put(String feedId, CachedEntity entity) {
+            entities.put(feedId, List.of(entity));
+            watermarks.merge(feedId, 1L, Long::sum);
+        }
+
+        @Override
+        public List<CachedEntity> getFeedEntities(String feedId, String agencyId) {
+            reads++;
+            return entities.getOrDefault(feedId, List.of());
+        }
+
+        @Override
+        public long getWatermark(String feedId, String agencyId) {
+            return watermarks.getOrDefault(feedId, 0L);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.marszrut.gtfs_rt.spatial;
+
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for bounding box and radius queries on the spatial grid.
+ */
+class SpatialGridIndexTest {
+
+    private final SpatialGridIndex index = new SpatialGridIndex(new VPConverter(), 0.01);
+    private final long expiresAt = System.currentTimeMillis() + 60_000;
+
+    @Test
+    void testFindInBoundingBox_returnsOnlyVehiclesInside() {
+        index.put("vp:inside", vehicle("inside", 50.0647, 19.9450), expiresAt);
+        index.put("vp:outside", vehicle("outside", 52.2297, 21.0122), expiresAt);
+
+        List<CachedEntity> result = index.findInBoundingBox(50.0, 19.9, 50.1, 20.0, null, null);
+
+        assertThat(result).extracting(CachedEntity::key).containsExactly("vp:inside");
+    }
+
+    @Test
+    void testPut_movedVehicleLeavesItsOldCell() {
+        index.put("vp:bus", vehicle("bus", 50.0647, 19.9450), expiresAt);
+        index.put("vp:bus", vehicle("bus", 52.2297, 21.0122), expiresAt);
+
+        assertThat(index.findInBoundingBox(50.0, 19.9, 50.1, 20.0, null, null)).isEmpty();
+        assertThat(index.findInBoundingBox(52.2, 21.0, 52.3, 21.1, null, null)).hasSize(1);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testFindWithinRadius_usesGreatCircleDistance() {
+        index.put("vp:near", vehicle("near", 50.0650, 19.9450), expiresAt);
+        index.put("vp:far", vehicle("far", 50.0800, 19.9450), expiresAt);
+
+        List<CachedEntity> result = index.findWithinRadius(50.0647, 19.9450, 500, null, null);
+
+        assertThat(result).extracting(CachedEntity::key).containsExactly("vp:near");
+    }
+
+    @Test
+    void testSweepExpired_removesExpiredVehicles() {
+        index.put("vp:stale", vehicle("stale", 50.0647, 19.9450), System.currentTimeMillis() - 1);
+
+        assertThat(index.findInBoundingBox(50.0, 19.9, 50.1, 20.0, null, null)).isEmpty();
+        index.sweepExpired();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    void testSeed_keepsUpdateNewerThanTheRead() {
+        index.put("vp:live", vehicle("live", 50.0647, 19.9450), expiresAt + 1_000);
+        index.seed("vp:live", vehicle("live", 52.2297, 21.0122), expiresAt);
+        index.seed("vp:other", vehicle("other", 52.2297, 21.0122), expiresAt);
+
+        assertThat(index.findInBoundingBox(50.0, 19.9, 50.1, 20.0, null, null))
+            .extracting(CachedEntity::key).containsExactly("vp:live");
+        assertThat(index.findInBoundingBox(52.2, 21.0, 52.3, 21.1, null, null))
+            .extracting(CachedEntity::key).containsExactly("vp:other");
+
+        index.seed("vp:live", vehicle("live", 52.2297, 21.0122), expiresAt + 2_000);
+        assertThat(index.findInBoundingBox(50.0, 19.9, 50.1, 20.0, null, null)).isEmpty();
+    }
+
+    private static VehiclePosition vehicle(String id, double lat, double lon) {
+        return VehiclePosition.builder()
+            .vid(id)
+            .lat(lat)
+            .lon(lon)
+            .t(Instant.now())
+            .fid("feed")
+            .aid("agency")
+            .build();
+    }
+}
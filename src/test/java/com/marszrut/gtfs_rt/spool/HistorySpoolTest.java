@@ -0,0 +1,109 @@
+package com.marszrut.gtfs_rt.spool;
+
+import com.marszrut.gtfs_rt.config.JacksonConfig;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the memory-mapped history spool.
+ */
+class HistorySpoolTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testAppendAndDrain_acrossSegments() {
+        HistorySpool spool = spool(4096, 1 << 20);
+        List<VehiclePosition> positions = positions(50);
+
+        assertThat(spool.append(positions)).isTrue();
+        assertThat(spool.segmentCount()).isGreaterThan(1);
+
+        List<VehiclePosition> drained = new ArrayList<>();
+        while (spool.segmentCount() > 0) {
+            spool.drainOldest(drained::addAll, 7);
+        }
+
+        assertThat(drained).extracting(VehiclePosition::getVid)
+            .containsExactlyElementsOf(positions.stream().map(VehiclePosition::getVid).toList());
+        assertThat(spool.spooledBytes()).isZero();
+    }
+
+    @Test
+    void testRecover_segmentsFromPreviousRun() {
+        HistorySpool first = spool(1 << 16, 1 << 20);
+        first.append(positions(10));
+        first.close();
+
+        HistorySpool second = spool(1 << 16, 1 << 20);
+        List<VehiclePosition> drained = new ArrayList<>();
+        second.drainOldest(drained::addAll, 100);
+
+        assertThat(drained).hasSize(10);
+        assertThat(drained.get(0).getT()).isEqualTo(Instant.parse("2026-01-01T08:00:00Z"));
+    }
+
+    @Test
+    void testAppend_overCap_isRejectedWhole() {
+        HistorySpool spool = spool(1 << 16, 2048);
+
+        assertThat(spool.append(positions(100))).isFalse();
+        assertThat(spool.spooledBytes()).isZero();
+    }
+
+    @Test
+    void testDrain_failedChunk_isRetriedWithoutRepeatingWrittenChunks() {
+        HistorySpool spool = spool(1 << 16, 1 << 20);
+        spool.append(positions(10));
+
+        List<VehiclePosition> written = new ArrayList<>();
+        int[] calls = {0};
+        try {
+            spool.drainOldest(chunk -> {
+                if (++calls[0] == 2) {
+                    throw new IllegalStateException("database down");
+                }
+                written.addAll(chunk);
+            }, 4);
+        } catch (IllegalStateException expected) {
+            // Second chunk failed
+        }
+        spool.drainOldest(written::addAll, 4);
+
+        assertThat(written).hasSize(10);
+        assertThat(spool.segmentCount()).isZero();
+    }
+
+    private HistorySpool spool(int segmentSize, long maxBytes) {
+        return new HistorySpool(new JacksonConfig().objectMapper(), new SimpleMeterRegistry(),
+            true, directory, segmentSize, maxBytes);
+    }
+
+    private static List<VehiclePosition> positions(int count) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> VehiclePosition.builder()
+                .vid("vehicle_" + i)
+                .fid("feed_1")
+                .aid("agency_1")
+                .rid("route_1")
+                .tid("trip_1")
+                .sid("stop_1")
+                .lat(50.06)
+                .lon(19.94)
+                .os(1)
+                .t(Instant.parse("2026-01-01T08:00:00Z").plusSeconds(i))
+                .build())
+            .toList();
+    }
+}
@@ -0,0 +1,106 @@
+package com.marszrut.gtfs_rt.spool;
+
+import com.marszrut.gtfs_rt.config.JacksonConfig;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.processing.HistoryWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for circuit breaker transitions of the spooling history writer and the spool drainer.
+ * The history writer is mocked; the circuit opens after two failures and may be probed immediately.
+ */
+class SpoolingHistoryWriterTest {
+
+    private static final List<VehiclePosition> BATCH = List.of(VehiclePosition.builder()
+        .vid("vehicle_001")
+        .fid("feed_1")
+        .aid("agency_1")
+        .lat(50.06)
+        .lon(19.94)
+        .t(Instant.parse("2026-01-01T08:00:00Z"))
+        .build());
+
+    @TempDir
+    Path directory;
+
+    private final HistoryWriter historyWriter = mock(HistoryWriter.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DatabaseCircuitBreaker circuitBreaker = new DatabaseCircuitBreaker(meterRegistry, 2, 0);
+    private HistorySpool spool;
+    private SpoolingHistoryWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        spool = new HistorySpool(new JacksonConfig().objectMapper(), meterRegistry, true, directory, 1 << 16, 1 << 20);
+        writer = new SpoolingHistoryWriter(historyWriter, spool, circuitBreaker);
+    }
+
+    @Test
+    void testPersist_unavailable_opensCircuitAndSpools() {
+        doThrow(new DataAccessResourceFailureException("down")).when(historyWriter).persistHistoryBatch(anyList());
+
+        assertThat(writer.persistHistoryBatch(BATCH)).isZero();
+        assertThat(circuitBreaker.state()).isEqualTo(DatabaseCircuitBreaker.State.CLOSED);
+        assertThat(writer.persistHistoryBatch(BATCH)).isZero();
+
+        assertThat(circuitBreaker.state()).isEqualTo(DatabaseCircuitBreaker.State.OPEN);
+        assertThat(spool.segmentCount()).isPositive();
+    }
+
+    @Test
+    void testPersist_probeFailsWithDataError_closesCircuit() {
+        openCircuit();
+        doThrow(new DataIntegrityViolationException("bad row")).when(historyWriter).persistHistoryBatch(anyList());
+
+        assertThatThrownBy(() -> writer.persistHistoryBatch(BATCH)).isInstanceOf(DataIntegrityViolationException.class);
+
+        assertThat(circuitBreaker.state()).isEqualTo(DatabaseCircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    void testPersist_probeFailsUnavailable_reopensCircuit() {
+        openCircuit();
+
+        assertThat(writer.persistHistoryBatch(BATCH)).isZero();
+
+        assertThat(circuitBreaker.state()).isEqualTo(DatabaseCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void testDrain_probeFailsWithDataError_closesCircuit() {
+        openCircuit();
+        HistorySpoolDrainer drainer = new HistorySpoolDrainer(spool, historyWriter, circuitBreaker, meterRegistry, 100, 4);
+        // Not an availability error and not isolated per row by the drainer
+        doThrow(new IllegalStateException("unexpected result")).when(historyWriter).persistHistoryBatch(anyList());
+
+        drainer.drain();
+
+        assertThat(circuitBreaker.state()).isEqualTo(DatabaseCircuitBreaker.State.CLOSED);
+    }
+
+    /**
+     * Spools two batches while the database is down, leaving the circuit open with data in the spool.
+     */
+    private void openCircuit() {
+        doThrow(new DataAccessResourceFailureException("down")).when(historyWriter).persistHistoryBatch(anyList());
+        writer.persistHistoryBatch(BATCH);
+        writer.persistHistoryBatch(BATCH);
+        assertThat(circuitBreaker.state()).isEqualTo(DatabaseCircuitBreaker.State.OPEN);
+    }
+}
@@ -0,0 +1,129 @@
+package com.marszrut.gtfs_rt.stream;
+
+import com.marszrut.gtfs_rt.cache.CachedEntity;
+import com.marszrut.gtfs_rt.cache.VehiclePositionUpdatedEvent;
+import com.marszrut.gtfs_rt.converter.VPConverter;
+import com.marszrut.gtfs_rt.domain.VehiclePosition;
+import com.marszrut.gtfs_rt.service.FeedService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for push stream conflation, fan-out and the subscriber limit.
+ */
+class VehiclePositionStreamServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final VehiclePositionStreamService service = new VehiclePositionStreamService(
+        new VPConverter(), new FeedService(null, "2.0", "FULL_DATASET"), meterRegistry, 3, 2, 60_000, 100);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void testOffer_sameVehicle_conflatedToLatest() throws InterruptedException {
+        StreamSubscriber subscriber = new StreamSubscriber(null, null, null, new SseEmitter(0L), 10);
+
+        assertThat(subscriber.offer("vp:1", new byte[]{1})).isEqualTo(StreamSubscriber.OfferResult.QUEUED);
+        assertThat(subscriber.offer("vp:2", new byte[]{2})).isEqualTo(StreamSubscriber.OfferResult.QUEUED);
+        assertThat(subscriber.offer("vp:1", new byte[]{3})).isEqualTo(StreamSubscriber.OfferResult.CONFLATED);
+
+        List<CachedEntity> batch = subscriber.drain(0);
+        assertThat(batch).extracting(CachedEntity::key).containsExactly("vp:1", "vp:2");
+        assertThat(batch.get(0).entity()).containsExactly(3);
+        assertThat(subscriber.drain(0)).isEmpty();
+    }
+
+    @Test
+    void testOffer_pendingLimitReached_dropsOldestVehicle() throws InterruptedException {
+        StreamSubscriber subscriber = new StreamSubscriber(null, null, null, new SseEmitter(0L), 2);
+
+        subscriber.offer("vp:1", new byte[]{1});
+        subscriber.offer("vp:2", new byte[]{2});
+        assertThat(subscriber.offer("vp:3", new byte[]{3})).isEqualTo(StreamSubscriber.OfferResult.DROPPED);
+
+        assertThat(subscriber.drain(0)).extracting(CachedEntity::key).containsExactly("vp:2", "vp:3");
+        subscriber.close();
+        assertThat(subscriber.offer("vp:4", new byte[]{4})).isEqualTo(StreamSubscriber.OfferResult.CLOSED);
+    }
+
+    @Test
+    void testMatches_emptyFiltersMatchEverything() {
+        StreamSubscriber feedOnly = new StreamSubscriber("feed_1", "", null, new SseEmitter(0L), 10);
+        StreamSubscriber route = new StreamSubscriber(null, null, "route_7", new SseEmitter(0L), 10);
+
+        assertThat(feedOnly.matches(event("vehicle_001", "feed_1").vehiclePosition())).isTrue();
+        assertThat(feedOnly.matches(event("vehicle_001", "feed_2").vehiclePosition())).isFalse();
+        assertThat(route.matches(event("vehicle_001", "feed_1").vehiclePosition())).isFalse();
+    }
+
+    @Test
+    void testOnVehiclePositionUpdated_onlyQueuesForDispatcher() {
+        service.onVehiclePositionUpdated(event("vehicle_001", "feed_1"));
+        assertThat(meterRegistry.get("gtfs.stream.fan-out.queue.size").gauge().value()).isZero();
+
+        service.subscribe(null, null, null);
+        service.onVehiclePositionUpdated(event("vehicle_001", "feed_1"));
+
+        // The dispatcher is not started outside the container, so the update stays queued
+        assertThat(meterRegistry.get("gtfs.stream.fan-out.queue.size").gauge().value()).isEqualTo(1.0);
+        assertThat(meterRegistry.counter("gtfs.stream.updates.conflated").count()).isZero();
+    }
+
+    @Test
+    void testSubscribe_concurrentRequests_neverExceedLimit() throws Exception {
+        int requests = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<SseEmitter>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < requests; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return service.subscribe(null, null, null);
+                }));
+            }
+            start.countDown();
+
+            int accepted = 0;
+            for (Future<SseEmitter> result : results) {
+                if (result.get() != null) {
+                    accepted++;
+                }
+            }
+            assertThat(accepted).isEqualTo(3);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(meterRegistry.get("gtfs.stream.subscribers").gauge().value()).isEqualTo(3.0);
+    }
+
+    private static VehiclePositionUpdatedEvent event(String vehicleId, String feedId) {
+        VehiclePosition vp = VehiclePosition.builder()
+            .vid(vehicleId)
+            .fid(feedId)
+            .aid("agency_1")
+            .rid("route_52")
+            .tid("trip_1")
+            .lat(50.0647)
+            .lon(19.945)
+            .t(Instant.now())
+            .build();
+        return new VehiclePositionUpdatedEvent("vp:{" + feedId + ":agency_1}:" + vehicleId, vp, Duration.ofSeconds(60));
+    }
+}